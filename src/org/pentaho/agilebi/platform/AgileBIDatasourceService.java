@@ -26,6 +26,7 @@ import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
+import org.pentaho.agilebi.platform.profiling.ProfilingDataSource;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
@@ -73,7 +74,8 @@ public class AgileBIDatasourceService implements IDBDatasourceService {
     SqlPhysicalModel model = (SqlPhysicalModel)domain.getPhysicalModels().get(0);
     
     DatabaseMeta databaseMeta = ThinModelConverter.convertToLegacy(model.getId(), model.getDatasource());
-    return new DatabaseMetaDataSource(databaseMeta);
+    // statements are only recorded while the query log panel is open
+    return new ProfilingDataSource(new DatabaseMetaDataSource(databaseMeta));
   }
 
   class DatabaseMetaDataSource implements DataSource {
@@ -0,0 +1,182 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sql.DataSource;
+
+import mondrian.olap.Connection;
+import mondrian.olap.Cube;
+import mondrian.olap.Dimension;
+import mondrian.olap.DriverManager;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Level;
+import mondrian.olap.Util;
+import mondrian.spi.impl.IdentityCatalogLocator;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.Variables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms Mondrian's cache for a model that was just saved, so the first Analyzer interaction does not pay for cold
+ * queries.
+ * <p>
+ * The schema is generated from the XMI through the <code>mtm:</code> VFS provider, the same way the embedded platform
+ * loads it, and a set of starter queries is run on a low priority background thread. Warm-up is off unless the Kettle
+ * variable <code>AGILEBI_CACHE_WARMUP</code> is <code>Y</code>. <code>AGILEBI_CACHE_WARMUP_QUERIES</code> selects the
+ * starter queries, a comma separated list of:
+ * <ul>
+ * <li><code>MEASURES</code>: all measures of each cube at the top level;</li>
+ * <li><code>MEMBERS</code>: all measures by the members of the first level of each hierarchy.</li>
+ * </ul>
+ * The default is both.
+ */
+public class CacheWarmer {
+
+  private static Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+  public static final String ENABLED_VARIABLE = "AGILEBI_CACHE_WARMUP"; //$NON-NLS-1$
+
+  public static final String QUERIES_VARIABLE = "AGILEBI_CACHE_WARMUP_QUERIES"; //$NON-NLS-1$
+
+  public static final String MEASURES = "MEASURES"; //$NON-NLS-1$
+
+  public static final String MEMBERS = "MEMBERS"; //$NON-NLS-1$
+
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "agilebi-cache-warmer"); //$NON-NLS-1$
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+
+  /** models queued and not started yet, a model saved twice in a row is only warmed once */
+  private static final Set<String> queued = Collections.synchronizedSet(new HashSet<String>());
+
+  private CacheWarmer() {
+  }
+
+  public static boolean isEnabled() {
+    return "Y".equalsIgnoreCase(Const.NVL(getVariable(ENABLED_VARIABLE), "N")); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Resolves a Kettle variable, set in <code>kettle.properties</code> or as a system property.
+   */
+  private static String getVariable(String name) {
+    return Variables.getADefaultVariableSpace().getVariable(name);
+  }
+
+  /**
+   * Queues a warm-up of the model saved in <code>xmiFile</code>, if warm-up is enabled.
+   */
+  public static void warmUp(String xmiFile) {
+    if (!isEnabled() || xmiFile == null) {
+      return;
+    }
+    final String path = new File(xmiFile).getAbsolutePath();
+    if (!queued.add(path)) {
+      return;
+    }
+    executor.execute(new Runnable() {
+      public void run() {
+        queued.remove(path);
+        try {
+          warm(path);
+        } catch (Exception e) {
+          logger.warn("Cache warm-up of " + path + " failed", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+      }
+    });
+  }
+
+  private static void warm(String xmiFile) throws Exception {
+    long start = System.currentTimeMillis();
+    DataSource dataSource = new AgileBIDatasourceService().getDataSource(xmiFile);
+    Util.PropertyList props = new Util.PropertyList();
+    props.put("Provider", "mondrian"); //$NON-NLS-1$ //$NON-NLS-2$
+    props.put("Catalog", "mtm:" + xmiFile); //$NON-NLS-1$ //$NON-NLS-2$
+    Connection connection = DriverManager.getConnection(props, new IdentityCatalogLocator(), dataSource);
+    int count = 0;
+    try {
+      for (String mdx : createQueries(connection.getSchema().getCubes(), getQueryKinds())) {
+        connection.execute(connection.parseQuery(mdx));
+        count++;
+      }
+    } finally {
+      connection.close();
+    }
+    logger.info("Warmed cache of " + xmiFile + " with " + count + " queries in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$
+  }
+
+  static Set<String> getQueryKinds() {
+    Set<String> kinds = new HashSet<String>();
+    for (String kind : Const.NVL(getVariable(QUERIES_VARIABLE), MEASURES + "," + MEMBERS).split(",")) { //$NON-NLS-1$ //$NON-NLS-2$
+      kinds.add(kind.trim().toUpperCase());
+    }
+    return kinds;
+  }
+
+  static List<String> createQueries(Cube[] cubes, Set<String> kinds) {
+    List<String> queries = new ArrayList<String>();
+    for (Cube cube : cubes) {
+      String from = " FROM " + cube.getUniqueName(); //$NON-NLS-1$
+      if (kinds.contains(MEASURES)) {
+        queries.add("SELECT [Measures].Members ON COLUMNS" + from); //$NON-NLS-1$
+      }
+      if (kinds.contains(MEMBERS)) {
+        for (Dimension dimension : cube.getDimensions()) {
+          if (dimension.isMeasures()) {
+            continue;
+          }
+          for (Hierarchy hierarchy : dimension.getHierarchies()) {
+            Level level = firstLevel(hierarchy);
+            if (level != null) {
+              queries.add("SELECT [Measures].Members ON COLUMNS, NON EMPTY " + level.getUniqueName() //$NON-NLS-1$
+                  + ".Members ON ROWS" + from); //$NON-NLS-1$
+            }
+          }
+        }
+      }
+    }
+    return queries;
+  }
+
+  private static Level firstLevel(Hierarchy hierarchy) {
+    for (Level level : hierarchy.getLevels()) {
+      if (!level.isAll()) {
+        return level;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,426 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentCache;
+import mondrian.spi.SegmentCache.SegmentCacheListener.SegmentCacheEvent;
+import mondrian.spi.SegmentHeader;
+
+import org.pentaho.agilebi.platform.aggregates.AggregateWorkload;
+import org.pentaho.di.core.Const;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Mondrian {@link SegmentCache} that keeps segments on disk so the embedded platform does not start cold after every
+ * Spoon restart.
+ * <p>
+ * Every segment is one file holding its serialized header and body, in a directory per catalog and schema checksum, so
+ * segments of an edited schema are never served. The total size is bounded (<code>agilebi.segmentcache.maxsize</code>,
+ * in MB, default 512) and the least recently used segments are evicted first. A file that can't be deleted yet, e.g.
+ * because another process still has it open, keeps counting towards that size until a later attempt removes it. The location defaults to <code>agile-bi-segment-cache</code> in the Kettle home directory and can be changed
+ * with <code>agilebi.segmentcache.dir</code>.
+ * <p>
+ * Listeners are told about every segment that is added or dropped. Changes Mondrian asked for are reported as local
+ * events; segments dropped on the cache's own account, because they were evicted, unreadable or belong to an
+ * invalidated schema, are reported as non-local so Mondrian also forgets them.
+ */
+public class DiskSegmentCache implements SegmentCache {
+
+  private static Logger logger = LoggerFactory.getLogger(DiskSegmentCache.class);
+
+  public static final String DIRECTORY_PROPERTY = "agilebi.segmentcache.dir"; //$NON-NLS-1$
+
+  public static final String MAX_SIZE_PROPERTY = "agilebi.segmentcache.maxsize"; //$NON-NLS-1$
+
+  private static final String SEGMENT_EXTENSION = ".segment"; //$NON-NLS-1$
+
+  private static volatile DiskSegmentCache instance;
+
+  private final File directory;
+
+  private final long maxBytes;
+
+  /** segment id to entry, in access order so the eldest is the least recently used */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private long totalBytes;
+
+  /** Dropped segments whose file could not be deleted yet. */
+  private final List<Entry> undeleted = new ArrayList<Entry>();
+
+  private final List<SegmentCacheListener> listeners = new CopyOnWriteArrayList<SegmentCacheListener>();
+
+  /**
+   * Mondrian instantiates the cache through this constructor, configured by {@link #install()}.
+   */
+  public DiskSegmentCache() {
+    this(new File(System.getProperty(DIRECTORY_PROPERTY, Const.getKettleDirectory() + File.separator
+        + "agile-bi-segment-cache")), Long.getLong(MAX_SIZE_PROPERTY, 512L).longValue() * 1024L * 1024L); //$NON-NLS-1$
+  }
+
+  public DiskSegmentCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    directory.mkdirs();
+    loadIndex();
+    instance = this;
+  }
+
+  /**
+   * Makes Mondrian use this cache, unless another segment cache is configured already. Must be called before the
+   * embedded platform executes its first query.
+   */
+  public static void install() {
+    MondrianProperties props = MondrianProperties.instance();
+    if (props.SegmentCache.get() == null || props.SegmentCache.get().length() == 0) {
+      props.SegmentCache.set(DiskSegmentCache.class.getName());
+    }
+  }
+
+  /**
+   * Drops every cached segment of the schema, e.g. after the model it is generated from was saved. Does nothing if
+   * Mondrian has not created the cache yet.
+   */
+  public static void invalidateSchema(String schemaName) {
+    DiskSegmentCache cache = instance;
+    if (cache != null && schemaName != null) {
+      cache.removeSchema(schemaName);
+    }
+  }
+
+  private synchronized void loadIndex() {
+    File[] catalogDirs = directory.listFiles();
+    if (catalogDirs == null) {
+      return;
+    }
+    for (File catalogDir : catalogDirs) {
+      File[] files = catalogDir.listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        if (!file.getName().endsWith(SEGMENT_EXTENSION)) {
+          // an interrupted write
+          file.delete();
+          continue;
+        }
+        try {
+          SegmentHeader header = readHeader(file);
+          addEntry(new Entry(header, file));
+        } catch (Exception e) {
+          logger.debug("Discarding unreadable segment " + file, e); //$NON-NLS-1$
+          file.delete();
+        }
+      }
+    }
+    evict();
+    logger.info("Segment cache " + directory + " holds " + entries.size() + " segments, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + (totalBytes / 1024) + " KB"); //$NON-NLS-1$
+  }
+
+  public SegmentBody get(SegmentHeader header) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(id(header));
+    }
+    if (entry == null) {
+      return null;
+    }
+    try {
+      return readBody(entry.file);
+    } catch (Exception e) {
+      logger.warn("Could not read segment " + entry.file, e); //$NON-NLS-1$
+      remove(header, false);
+      return null;
+    }
+  }
+
+  public synchronized boolean contains(SegmentHeader header) {
+    return entries.containsKey(id(header));
+  }
+
+  public synchronized List<SegmentHeader> getSegmentHeaders() {
+    List<SegmentHeader> headers = new ArrayList<SegmentHeader>(entries.size());
+    for (Entry entry : entries.values()) {
+      headers.add(entry.header);
+    }
+    return headers;
+  }
+
+  public boolean put(SegmentHeader header, SegmentBody body) {
+    File dir = new File(directory, catalogDirectoryName(header));
+    File file = new File(dir, id(header) + SEGMENT_EXTENSION);
+    File temp = new File(dir, id(header) + ".tmp"); //$NON-NLS-1$
+    try {
+      dir.mkdirs();
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        out.writeObject(header);
+        out.writeObject(body);
+      } finally {
+        out.close();
+      }
+      List<SegmentHeader> evicted;
+      synchronized (this) {
+        removeEntry(id(header));
+        if (!temp.renameTo(file)) {
+          temp.delete();
+          return false;
+        }
+        addEntry(new Entry(header, file));
+        evicted = evict();
+      }
+      fire(header, SegmentCacheEvent.EventType.ENTRY_CREATED, true);
+      fireDeleted(evicted);
+      AggregateWorkload.getInstance().segmentLoaded(header, body);
+      return true;
+    } catch (IOException e) {
+      logger.warn("Could not write segment " + file, e); //$NON-NLS-1$
+      temp.delete();
+      return false;
+    }
+  }
+
+  public boolean remove(SegmentHeader header) {
+    return remove(header, true);
+  }
+
+  private boolean remove(SegmentHeader header, boolean local) {
+    boolean removed;
+    synchronized (this) {
+      removed = removeEntry(id(header));
+    }
+    if (removed) {
+      fire(header, SegmentCacheEvent.EventType.ENTRY_DELETED, local);
+    }
+    return removed;
+  }
+
+  public void tearDown() {
+    // everything is on disk already
+  }
+
+  public void addListener(SegmentCacheListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(SegmentCacheListener listener) {
+    listeners.remove(listener);
+  }
+
+  public boolean supportsRichIndex() {
+    return true;
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private void removeSchema(String schemaName) {
+    List<SegmentHeader> removed = new ArrayList<SegmentHeader>();
+    synchronized (this) {
+      for (Entry entry : new ArrayList<Entry>(entries.values())) {
+        if (schemaName.equals(entry.header.schemaName)) {
+          removeEntry(entry.id);
+          removed.add(entry.header);
+        }
+      }
+    }
+    if (!removed.isEmpty()) {
+      logger.debug("Removed " + removed.size() + " cached segments of schema " + schemaName); //$NON-NLS-1$ //$NON-NLS-2$
+      fireDeleted(removed);
+    }
+  }
+
+  /**
+   * Tells the listeners about segments dropped on the cache's own account. Called without holding the lock, so a
+   * listener calling back into the cache can't deadlock.
+   */
+  private void fireDeleted(List<SegmentHeader> headers) {
+    for (SegmentHeader header : headers) {
+      fire(header, SegmentCacheEvent.EventType.ENTRY_DELETED, false);
+    }
+  }
+
+  private void fire(SegmentHeader header, SegmentCacheEvent.EventType type, boolean local) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    SegmentCacheEvent event = new Event(header, type, local);
+    for (SegmentCacheListener listener : listeners) {
+      try {
+        listener.handle(event);
+      } catch (RuntimeException e) {
+        logger.warn("Segment cache listener failed", e); //$NON-NLS-1$
+      }
+    }
+  }
+
+  private void addEntry(Entry entry) {
+    // a new segment written over a file that couldn't be deleted replaces it
+    for (Iterator<Entry> it = undeleted.iterator(); it.hasNext();) {
+      Entry stale = it.next();
+      if (stale.file.equals(entry.file)) {
+        it.remove();
+        totalBytes -= stale.size;
+      }
+    }
+    entries.put(entry.id, entry);
+    totalBytes += entry.size;
+  }
+
+  private boolean removeEntry(String id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return false;
+    }
+    deleteFile(entry);
+    return true;
+  }
+
+  /**
+   * Deletes the file of a dropped entry and releases its size, or keeps it counted until {@link #retryDeletes()}
+   * manages to delete it.
+   */
+  private void deleteFile(Entry entry) {
+    if (entry.file.delete() || !entry.file.exists()) {
+      totalBytes -= entry.size;
+    } else {
+      logger.warn("Could not delete segment " + entry.file + ", retrying later"); //$NON-NLS-1$ //$NON-NLS-2$
+      undeleted.add(entry);
+    }
+  }
+
+  private void retryDeletes() {
+    for (Iterator<Entry> it = undeleted.iterator(); it.hasNext();) {
+      Entry entry = it.next();
+      if (entry.file.delete() || !entry.file.exists()) {
+        it.remove();
+        totalBytes -= entry.size;
+      }
+    }
+  }
+
+  /**
+   * @return the headers of the evicted segments
+   */
+  private List<SegmentHeader> evict() {
+    List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+    retryDeletes();
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Entry eldest = it.next().getValue();
+      it.remove();
+      deleteFile(eldest);
+      evicted.add(eldest.header);
+    }
+    return evicted;
+  }
+
+  private static String id(SegmentHeader header) {
+    return header.getUniqueID().toString();
+  }
+
+  static String catalogDirectoryName(SegmentHeader header) {
+    return sanitize(header.schemaName) + '-' + header.schemaChecksum;
+  }
+
+  static String sanitize(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+    }
+    return sb.toString();
+  }
+
+  private static SegmentHeader readHeader(File file) throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      return (SegmentHeader) in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static SegmentBody readBody(File file) throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      in.readObject(); // header
+      return (SegmentBody) in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static class Entry {
+    private final String id;
+    private final SegmentHeader header;
+    private final File file;
+    private final long size;
+
+    Entry(SegmentHeader header, File file) {
+      this.id = id(header);
+      this.header = header;
+      this.file = file;
+      this.size = file.length();
+    }
+  }
+
+  private static class Event implements SegmentCacheEvent {
+    private final SegmentHeader header;
+    private final EventType type;
+    private final boolean local;
+
+    Event(SegmentHeader header, EventType type, boolean local) {
+      this.header = header;
+      this.type = type;
+      this.local = local;
+    }
+
+    public boolean isLocal() {
+      return local;
+    }
+
+    public SegmentHeader getSource() {
+      return header;
+    }
+
+    public EventType getEventType() {
+      return type;
+    }
+  }
+}
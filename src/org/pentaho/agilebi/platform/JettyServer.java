@@ -24,6 +24,8 @@ import org.mortbay.jetty.bio.SocketConnector;
 import org.mortbay.jetty.handler.DefaultHandler;
 import org.mortbay.jetty.handler.HandlerCollection;
 import org.mortbay.jetty.webapp.WebAppContext;
+import org.pentaho.agilebi.platform.aggregates.AggregateSchemaDecorator;
+import org.pentaho.agilebi.platform.profiling.QueryProfiler;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
 
@@ -74,6 +76,13 @@ public class JettyServer {
     // Start execution
     createListeners();
 
+    // keep Mondrian's segment cache across Spoon restarts
+    DiskSegmentCache.install();
+    // let Mondrian use the aggregate tables generated for the models
+    AggregateSchemaDecorator.install();
+    // count how often the queries run, for the aggregates recommended to them
+    QueryProfiler.getInstance().install();
+
     server.start();
   }
 
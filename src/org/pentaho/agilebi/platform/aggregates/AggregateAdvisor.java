@@ -0,0 +1,81 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Recommends aggregate tables for a schema from the {@link AggregateWorkload}.
+ * <p>
+ * Candidates are ranked by the fact rows they save (hits times fact rows minus aggregate rows). They are picked
+ * greedily; a candidate is skipped when an aggregate already picked covers its columns without being more than
+ * {@link #COVER_FACTOR} times larger, since Mondrian can roll that aggregate up instead.
+ */
+public class AggregateAdvisor {
+
+  public static final int COVER_FACTOR = 10;
+
+  private final AggregateWorkload workload;
+
+  public AggregateAdvisor() {
+    this(AggregateWorkload.getInstance());
+  }
+
+  public AggregateAdvisor(AggregateWorkload workload) {
+    this.workload = workload;
+  }
+
+  /**
+   * @param factRows row count of the fact table
+   * @param max the most aggregates to recommend
+   */
+  public List<AggregateCandidate> recommend(String schemaName, final long factRows, int max) {
+    List<AggregateCandidate> candidates = workload.getCandidates(schemaName);
+    Collections.sort(candidates, new Comparator<AggregateCandidate>() {
+      public int compare(AggregateCandidate c1, AggregateCandidate c2) {
+        long b1 = c1.getBenefit(factRows);
+        long b2 = c2.getBenefit(factRows);
+        return b1 > b2 ? -1 : (b1 < b2 ? 1 : c1.getColumns().toString().compareTo(c2.getColumns().toString()));
+      }
+    });
+
+    List<AggregateCandidate> picked = new ArrayList<AggregateCandidate>();
+    for (AggregateCandidate candidate : candidates) {
+      if (picked.size() >= max) {
+        break;
+      }
+      if (candidate.getBenefit(factRows) == 0 || isCovered(candidate, picked)) {
+        continue;
+      }
+      picked.add(candidate);
+    }
+    return picked;
+  }
+
+  private static boolean isCovered(AggregateCandidate candidate, List<AggregateCandidate> picked) {
+    for (AggregateCandidate aggregate : picked) {
+      if (aggregate.covers(candidate) && aggregate.getEstimatedRows() / COVER_FACTOR <= candidate.getEstimatedRows()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,98 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A combination of fact table columns queried together, i.e. the grain of a possible aggregate table.
+ */
+public class AggregateCandidate {
+
+  private final String schemaName;
+
+  private final String factTable;
+
+  private final SortedSet<String> columns;
+
+  private int hits;
+
+  private long estimatedRows;
+
+  public AggregateCandidate(String schemaName, String factTable, SortedSet<String> columns) {
+    this.schemaName = schemaName;
+    this.factTable = factTable;
+    this.columns = Collections.unmodifiableSortedSet(new TreeSet<String>(columns));
+  }
+
+  public String getSchemaName() {
+    return schemaName;
+  }
+
+  public String getFactTable() {
+    return factTable;
+  }
+
+  public SortedSet<String> getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return how many query runs needed this grain
+   */
+  public int getHits() {
+    return hits;
+  }
+
+  void addHit() {
+    hits++;
+  }
+
+  /**
+   * @return the estimated row count of the aggregate, the product of the largest cardinality seen per column
+   */
+  public long getEstimatedRows() {
+    return estimatedRows;
+  }
+
+  void setEstimatedRows(long estimatedRows) {
+    this.estimatedRows = estimatedRows;
+  }
+
+  /**
+   * @return the rows saved by answering this candidate's queries from the aggregate instead of a fact table with
+   * <code>factRows</code> rows
+   */
+  public long getBenefit(long factRows) {
+    return hits * Math.max(0, factRows - Math.min(factRows, estimatedRows));
+  }
+
+  /**
+   * @return true if an aggregate at this grain can also answer queries at <code>other</code>'s grain
+   */
+  public boolean covers(AggregateCandidate other) {
+    return factTable.equals(other.factTable) && columns.containsAll(other.columns);
+  }
+
+  @Override
+  public String toString() {
+    return factTable + columns + " hits=" + hits + " rows~" + estimatedRows; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+}
@@ -0,0 +1,371 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.pentaho.agilebi.vfs.MetadataToMondrianVfsFileContent;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.plugins.StepPluginType;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.util.MondrianModelExporter;
+import org.pentaho.metadata.util.ThinModelConverter;
+import org.pentaho.metadata.util.XmiParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the aggregate tables recommended by the {@link AggregateAdvisor}: the CREATE TABLE statement, a
+ * transformation populating the table from the fact table, and the <code>AggName</code> declaration that lets Mondrian
+ * use it.
+ * <p>
+ * Aggregates contain the candidate's columns, every <code>sum</code>, <code>count</code>, <code>min</code> and
+ * <code>max</code> measure of the cube and a fact count. Distinct count and average measures can't be rolled up from
+ * an aggregate and are left out; Mondrian answers them from the fact table.
+ */
+public class AggregateGenerator {
+
+  private static Logger logger = LoggerFactory.getLogger(AggregateGenerator.class);
+
+  public static final String FACT_COUNT_COLUMN = "fact_count"; //$NON-NLS-1$
+
+  private static final List<String> ROLLUP_AGGREGATORS = Arrays.asList("sum", "count", "min", "max"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+  private final DatabaseMeta databaseMeta;
+
+  private final String databaseSchema;
+
+  private final Document mondrianSchema;
+
+  /**
+   * @param databaseSchema database schema of the fact table, also used for the aggregates (optional)
+   * @param mondrianSchemaXml the schema exported from the model
+   */
+  public AggregateGenerator(DatabaseMeta databaseMeta, String databaseSchema, String mondrianSchemaXml)
+      throws Exception {
+    this.databaseMeta = databaseMeta;
+    this.databaseSchema = databaseSchema;
+    this.mondrianSchema = DocumentHelper.parseText(mondrianSchemaXml);
+  }
+
+  /**
+   * Recommends aggregates for the model saved in <code>xmiFile</code> from the queries captured so far, generates them
+   * into <code>outputDir</code> (one <code>.sql</code> and one <code>.ktr</code> per aggregate), creates and populates
+   * their tables and adds the declarations of the populated ones to the model's aggregate definitions. The schema has to
+   * be reloaded for Mondrian to use them.
+   *
+   * @return the aggregates that were populated
+   */
+  public static List<GeneratedAggregate> generateForModel(String xmiFile, int maxAggregates, File outputDir)
+      throws Exception {
+    FileInputStream in = new FileInputStream(xmiFile);
+    Domain domain;
+    try {
+      domain = new XmiParser().parseXmi(in);
+    } finally {
+      in.close();
+    }
+    // exported like the schema the platform serves, so schema, level and measure names match the captured queries
+    LogicalModel lModel = MetadataToMondrianVfsFileContent.getOlapModel(domain);
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) domain.getPhysicalModels().get(0);
+    SqlPhysicalTable factTable = physicalModel.getPhysicalTables().get(0);
+    DatabaseMeta databaseMeta = ThinModelConverter.convertToLegacy(physicalModel.getId(), physicalModel.getDatasource());
+    String schemaXml = new MondrianModelExporter(lModel, MetadataToMondrianVfsFileContent.getLocale(domain))
+        .createMondrianModelXML();
+
+    AggregateGenerator generator = new AggregateGenerator(databaseMeta, factTable.getTargetSchema(), schemaXml);
+    String schemaName = generator.mondrianSchema.getRootElement().attributeValue("name"); //$NON-NLS-1$
+    long factRows = generator.countRows(factTable.getTargetTable());
+    List<AggregateCandidate> recommended = new AggregateAdvisor().recommend(schemaName, factRows, maxAggregates);
+
+    List<GeneratedAggregate> aggregates = new ArrayList<GeneratedAggregate>();
+    List<String> tableNames = new ArrayList<String>();
+    for (AggregateCandidate candidate : recommended) {
+      GeneratedAggregate aggregate = generator.generate(candidate);
+      generator.write(aggregate, outputDir);
+      logger.info("Generated aggregate " + aggregate.getTableName() + " for " + candidate); //$NON-NLS-1$ //$NON-NLS-2$
+      aggregates.add(aggregate);
+      tableNames.add(aggregate.getTableName());
+    }
+    // tables that are declared already are truncated while they are repopulated, Mondrian must not read them meanwhile
+    if (AggregateSchemaDecorator.invalidate(xmiFile, tableNames)) {
+      AggregateSchemaDecorator.flushSchemas(Collections.singleton(schemaName));
+    }
+
+    List<GeneratedAggregate> generated = new ArrayList<GeneratedAggregate>();
+    for (GeneratedAggregate aggregate : aggregates) {
+      try {
+        generator.populate(aggregate);
+        generated.add(aggregate);
+      } catch (KettleException e) {
+        // the files are there to retry by hand, but Mondrian must not be told about an empty table
+        logger.warn("Could not populate aggregate " + aggregate.getTableName(), e); //$NON-NLS-1$
+      }
+    }
+    if (!generated.isEmpty()) {
+      AggregateSchemaDecorator.addDefinitions(xmiFile, generated);
+    }
+    return generated;
+  }
+
+  /**
+   * Creates the aggregate's table and runs the transformation that (re)populates it. A table of the same name with other
+   * columns, e.g. one generated before the model's measures changed, is dropped and created anew.
+   */
+  public void populate(GeneratedAggregate aggregate) throws KettleException {
+    Database database = new Database(databaseMeta);
+    try {
+      database.connect();
+      String table = databaseMeta.getQuotedSchemaTableCombination(databaseSchema, aggregate.getTableName());
+      boolean exists = database.checkTableExists(table);
+      if (exists && !getFieldNames(database.getTableFields(table)).equals(
+          getFieldNames(database.getQueryFields(aggregate.getSelectSql(), false)))) {
+        logger.info("Dropping aggregate " + aggregate.getTableName() + ", its columns changed"); //$NON-NLS-1$ //$NON-NLS-2$
+        database.execStatement("DROP TABLE " + table); //$NON-NLS-1$
+        exists = false;
+      }
+      if (!exists) {
+        database.execStatements(aggregate.getDdl());
+      }
+    } finally {
+      database.disconnect();
+    }
+
+    Trans trans = new Trans(aggregate.getPopulateTransformation());
+    trans.execute(null);
+    trans.waitUntilFinished();
+    if (trans.getErrors() > 0) {
+      throw new KettleException("Populating aggregate " + aggregate.getTableName() + " failed"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+
+  public long countRows(String table) throws KettleException {
+    Database database = new Database(databaseMeta);
+    try {
+      database.connect();
+      RowMetaAndData row = database.getOneRow("SELECT COUNT(*) FROM " //$NON-NLS-1$
+          + databaseMeta.getQuotedSchemaTableCombination(databaseSchema, table));
+      return row == null ? 0 : ((Number) row.getData()[0]).longValue();
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  public GeneratedAggregate generate(AggregateCandidate candidate) throws KettleException {
+    Element cube = findCube(candidate.getFactTable());
+    Map<String, String> levels = findLevels(cube);
+
+    Element aggName = DocumentHelper.createElement("AggName"); //$NON-NLS-1$
+    aggName.addElement("AggFactCount").addAttribute("column", FACT_COUNT_COLUMN); //$NON-NLS-1$ //$NON-NLS-2$
+
+    StringBuilder select = new StringBuilder("SELECT "); //$NON-NLS-1$
+    StringBuilder groupBy = new StringBuilder();
+    List<Element> aggLevels = new ArrayList<Element>();
+    for (String column : candidate.getColumns()) {
+      String quoted = databaseMeta.quoteField(column);
+      select.append(quoted).append(", "); //$NON-NLS-1$
+      groupBy.append(groupBy.length() == 0 ? "" : ", ").append(quoted); //$NON-NLS-1$ //$NON-NLS-2$
+      String level = levels.get(column);
+      if (level != null) {
+        Element aggLevel = DocumentHelper.createElement("AggLevel"); //$NON-NLS-1$
+        aggLevel.addAttribute("name", level); //$NON-NLS-1$
+        aggLevel.addAttribute("column", column); //$NON-NLS-1$
+        aggLevels.add(aggLevel);
+      }
+    }
+    if (cube != null) {
+      for (Object o : cube.elements("Measure")) { //$NON-NLS-1$
+        Element measure = (Element) o;
+        String aggregator = measure.attributeValue("aggregator"); //$NON-NLS-1$
+        String column = measure.attributeValue("column"); //$NON-NLS-1$
+        if (column == null || aggregator == null || !ROLLUP_AGGREGATORS.contains(aggregator.toLowerCase())) {
+          continue;
+        }
+        String aggColumn = aggregator.toLowerCase() + "_" + column; //$NON-NLS-1$
+        select.append(aggregator.toUpperCase()).append('(').append(databaseMeta.quoteField(column)).append(") AS ") //$NON-NLS-1$
+            .append(databaseMeta.quoteField(aggColumn)).append(", "); //$NON-NLS-1$
+        Element aggMeasure = aggName.addElement("AggMeasure"); //$NON-NLS-1$
+        aggMeasure.addAttribute("name", "[Measures].[" + measure.attributeValue("name") + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        aggMeasure.addAttribute("column", aggColumn); //$NON-NLS-1$
+      }
+    }
+    // Mondrian expects AggMeasures before AggLevels
+    for (Element aggLevel : aggLevels) {
+      aggName.add(aggLevel);
+    }
+    select.append("COUNT(*) AS ").append(databaseMeta.quoteField(FACT_COUNT_COLUMN)); //$NON-NLS-1$
+    select.append(" FROM ").append(databaseMeta.getQuotedSchemaTableCombination(databaseSchema, //$NON-NLS-1$
+        candidate.getFactTable()));
+    select.append(" GROUP BY ").append(groupBy); //$NON-NLS-1$
+    String selectSql = select.toString();
+    String tableName = createTableName(candidate.getFactTable(), selectSql);
+    aggName.addAttribute("name", tableName); //$NON-NLS-1$
+
+    return new GeneratedAggregate(candidate, tableName, selectSql, createDdl(tableName, selectSql),
+        createTransformation(tableName, candidate.getFactTable(), selectSql), aggName);
+  }
+
+  /**
+   * Writes the aggregate's DDL and populating transformation to <code>outputDir</code>.
+   */
+  public void write(GeneratedAggregate aggregate, File outputDir) throws IOException, KettleException {
+    outputDir.mkdirs();
+    writeFile(new File(outputDir, aggregate.getTableName() + ".sql"), aggregate.getDdl()); //$NON-NLS-1$
+    writeFile(new File(outputDir, aggregate.getTableName() + ".ktr"), //$NON-NLS-1$
+        XMLHandler.getXMLHeader() + aggregate.getPopulateTransformation().getXML());
+  }
+
+  private String createDdl(String tableName, String selectSql) throws KettleException {
+    Database database = new Database(databaseMeta);
+    try {
+      database.connect();
+      RowMetaInterface fields = database.getQueryFields(selectSql, false);
+      return database.getDDL(databaseMeta.getQuotedSchemaTableCombination(databaseSchema, tableName), fields);
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  private TransMeta createTransformation(String tableName, String factTable, String selectSql) {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName("Populate " + tableName); //$NON-NLS-1$
+    transMeta.addDatabase(databaseMeta);
+    PluginRegistry registry = PluginRegistry.getInstance();
+
+    TableInputMeta input = new TableInputMeta();
+    input.setDefault();
+    input.setDatabaseMeta(databaseMeta);
+    input.setSQL(selectSql);
+    StepMeta inputStep = new StepMeta(registry.getPluginId(StepPluginType.class, input), "Aggregate " + factTable, //$NON-NLS-1$
+        input);
+    inputStep.setLocation(100, 100);
+    inputStep.setDraw(true);
+
+    TableOutputMeta output = new TableOutputMeta();
+    output.setDefault();
+    output.setDatabaseMeta(databaseMeta);
+    output.setSchemaName(databaseSchema);
+    output.setTableName(tableName);
+    output.setTruncateTable(true);
+    StepMeta outputStep = new StepMeta(registry.getPluginId(StepPluginType.class, output), "Write " + tableName, //$NON-NLS-1$
+        output);
+    outputStep.setLocation(350, 100);
+    outputStep.setDraw(true);
+
+    transMeta.addStep(inputStep);
+    transMeta.addStep(outputStep);
+    transMeta.addTransHop(new TransHopMeta(inputStep, outputStep));
+    return transMeta;
+  }
+
+  private Element findCube(String factTable) {
+    return (Element) mondrianSchema.selectSingleNode("/Schema/Cube[Table/@name='" + factTable + "']"); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * @return fact table column to level unique name, for the levels read from the fact table itself
+   */
+  private static Map<String, String> findLevels(Element cube) {
+    Map<String, String> levels = new HashMap<String, String>();
+    if (cube == null) {
+      return levels;
+    }
+    for (Object d : cube.elements("Dimension")) { //$NON-NLS-1$
+      Element dimension = (Element) d;
+      for (Object h : dimension.elements("Hierarchy")) { //$NON-NLS-1$
+        Element hierarchy = (Element) h;
+        if (hierarchy.element("Table") != null || hierarchy.element("Join") != null) { //$NON-NLS-1$ //$NON-NLS-2$
+          continue;
+        }
+        String dimensionName = dimension.attributeValue("name"); //$NON-NLS-1$
+        String hierarchyName = hierarchy.attributeValue("name"); //$NON-NLS-1$
+        String prefix = hierarchyName == null || hierarchyName.equals(dimensionName) ? "[" + dimensionName + "]" //$NON-NLS-1$ //$NON-NLS-2$
+            : "[" + dimensionName + "." + hierarchyName + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        for (Object l : hierarchy.elements("Level")) { //$NON-NLS-1$
+          Element level = (Element) l;
+          String column = level.attributeValue("column"); //$NON-NLS-1$
+          if (column != null && !levels.containsKey(column)) {
+            levels.put(column, prefix + ".[" + level.attributeValue("name") + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+          }
+        }
+      }
+    }
+    return levels;
+  }
+
+  /**
+   * @return the name of the aggregate computed by <code>selectSql</code>; the name depends on the aggregate's columns,
+   *         so an aggregate of another grain never reuses the table of an earlier one
+   */
+  static String createTableName(String factTable, String selectSql) {
+    String hash = Integer.toHexString(selectSql.hashCode());
+    String name = ("agg_" + hash + "_" + factTable).toLowerCase(); //$NON-NLS-1$ //$NON-NLS-2$
+    // stay within the identifier length limit of the most restrictive databases
+    return name.length() > 30 ? name.substring(0, 30) : name;
+  }
+
+  private static Set<String> getFieldNames(RowMetaInterface fields) {
+    Set<String> names = new HashSet<String>();
+    if (fields != null) {
+      for (String name : fields.getFieldNames()) {
+        names.add(name.toLowerCase());
+      }
+    }
+    return names;
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.agg.AggregationManager;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+
+/**
+ * Adds the <code>AggName</code> declarations of the aggregate tables generated for a model to the Mondrian schema
+ * exported from it. The declarations are kept in a file next to the model's XMI, see
+ * {@link #getDefinitionsFile(String)}, so they survive the schema being regenerated from the model.
+ * <p>
+ * Declarations are only added once their tables are populated, and are set aside again by {@link #invalidate(String)}
+ * when the model's data changes, so Mondrian never answers from an empty or stale aggregate.
+ */
+public class AggregateSchemaDecorator {
+
+  public static final String DEFINITIONS_SUFFIX = ".aggregates.xml"; //$NON-NLS-1$
+
+  private static final String POPULATED_ATTRIBUTE = "populated"; //$NON-NLS-1$
+
+  private AggregateSchemaDecorator() {
+  }
+
+  /**
+   * Makes Mondrian read and use the declared aggregates. Must be called before the embedded platform loads its first
+   * schema.
+   */
+  public static void install() {
+    MondrianProperties props = MondrianProperties.instance();
+    props.ReadAggregates.set(true);
+    props.UseAggregates.set(true);
+  }
+
+  public static File getDefinitionsFile(String xmiFile) {
+    return new File(xmiFile + DEFINITIONS_SUFFIX);
+  }
+
+  /**
+   * @return <code>schemaXml</code> with the declarations of the model's populated aggregates added to the cubes' fact
+   * tables, or <code>schemaXml</code> itself if the model has none
+   */
+  public static String decorate(String schemaXml, String xmiFile) throws DocumentException, IOException {
+    File definitions = xmiFile == null ? null : getDefinitionsFile(xmiFile);
+    if (definitions == null || !definitions.exists()) {
+      return schemaXml;
+    }
+    Document aggregates = read(definitions);
+    Document schema = DocumentHelper.parseText(schemaXml);
+    int added = 0;
+    for (Object o : aggregates.getRootElement().elements("Aggregate")) { //$NON-NLS-1$
+      Element aggregate = (Element) o;
+      if (!isPopulated(aggregate)) {
+        continue;
+      }
+      String factTable = aggregate.attributeValue("table"); //$NON-NLS-1$
+      for (Object t : schema.selectNodes("/Schema/Cube/Table[@name='" + factTable + "']")) { //$NON-NLS-1$ //$NON-NLS-2$
+        Element table = (Element) t;
+        for (Object a : aggregate.elements("AggName")) { //$NON-NLS-1$
+          table.add(((Element) a).createCopy());
+          added++;
+        }
+      }
+    }
+    if (added == 0) {
+      return schemaXml;
+    }
+    // explicitly declared aggregates are only read when aggregates are enabled, see install()
+    return schema.asXML();
+  }
+
+  /**
+   * Adds the declarations of <code>generated</code> to the model's definitions file, replacing earlier aggregates with
+   * the same table names. The tables must be populated already.
+   */
+  public static void addDefinitions(String xmiFile, List<GeneratedAggregate> generated) throws DocumentException,
+      IOException {
+    File file = getDefinitionsFile(xmiFile);
+    Document doc = file.exists() ? read(file) : DocumentHelper.createDocument(DocumentHelper.createElement("Aggregates")); //$NON-NLS-1$
+    Element root = doc.getRootElement();
+    for (GeneratedAggregate aggregate : generated) {
+      for (Object o : doc.selectNodes("/Aggregates/Aggregate/AggName[@name='" + aggregate.getTableName() + "']")) { //$NON-NLS-1$ //$NON-NLS-2$
+        ((Element) o).getParent().detach();
+      }
+      Element element = root.addElement("Aggregate"); //$NON-NLS-1$
+      element.addAttribute("table", aggregate.getFactTable()); //$NON-NLS-1$
+      element.addAttribute(POPULATED_ATTRIBUTE, Boolean.TRUE.toString());
+      element.add(aggregate.getAggName().createCopy());
+    }
+    write(file, doc);
+  }
+
+  /**
+   * Sets the model's aggregates aside because their tables no longer match the fact table, e.g. after rows were
+   * loaded. They are used again once they are generated and populated anew.
+   *
+   * @return true if there were aggregates in use, the schema has to be reloaded without them
+   */
+  public static boolean invalidate(String xmiFile) throws DocumentException, IOException {
+    return invalidate(xmiFile, null);
+  }
+
+  /**
+   * Sets the aggregates stored in <code>tableNames</code> aside, e.g. before their tables are repopulated.
+   *
+   * @return true if one of them was in use, the schema has to be reloaded without it
+   */
+  public static boolean invalidate(String xmiFile, Collection<String> tableNames) throws DocumentException,
+      IOException {
+    File file = xmiFile == null ? null : getDefinitionsFile(xmiFile);
+    if (file == null || !file.exists()) {
+      return false;
+    }
+    Document doc = read(file);
+    boolean invalidated = false;
+    for (Object o : doc.getRootElement().elements("Aggregate")) { //$NON-NLS-1$
+      Element aggregate = (Element) o;
+      Element aggName = aggregate.element("AggName"); //$NON-NLS-1$
+      if (tableNames != null && (aggName == null || !tableNames.contains(aggName.attributeValue("name")))) { //$NON-NLS-1$
+        continue;
+      }
+      if (isPopulated(aggregate)) {
+        aggregate.addAttribute(POPULATED_ATTRIBUTE, Boolean.FALSE.toString());
+        invalidated = true;
+      }
+    }
+    if (invalidated) {
+      write(file, doc);
+    }
+    return invalidated;
+  }
+
+  /**
+   * Flushes the schemas named <code>schemaNames</code> with their caches, so they are loaded again with the current
+   * declarations the next time they are used.
+   */
+  public static void flushSchemas(Set<String> schemaNames) {
+    List<RolapSchema> flushed = new ArrayList<RolapSchema>();
+    for (RolapSchema schema : RolapSchema.getRolapSchemas()) {
+      if (schemaNames.contains(schema.getName())) {
+        flushed.add(schema);
+      }
+    }
+    CacheControl cacheControl = AggregationManager.instance().getCacheControl(null, null);
+    for (RolapSchema schema : flushed) {
+      cacheControl.flushSchema(schema);
+    }
+  }
+
+  private static boolean isPopulated(Element aggregate) {
+    return !Boolean.FALSE.toString().equals(aggregate.attributeValue(POPULATED_ATTRIBUTE));
+  }
+
+  private static void write(File file, Document doc) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      XMLWriter writer = new XMLWriter(out, OutputFormat.createPrettyPrint());
+      writer.write(doc);
+      writer.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Document read(File file) throws DocumentException, IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return new SAXReader().read(in);
+    } finally {
+      in.close();
+    }
+  }
+}
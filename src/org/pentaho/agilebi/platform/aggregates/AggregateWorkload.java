@@ -0,0 +1,169 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+
+/**
+ * The grains the embedded platform's MDX queries needed during this session, and how often. The segment cache reports
+ * the grain of every segment Mondrian loads, which is attributed to the most recently started query, see
+ * {@link #queryStarted(String)}; later runs of the same query count for its grains again, even when they are answered
+ * from the cache.
+ */
+public class AggregateWorkload {
+
+  private static final AggregateWorkload instance = new AggregateWorkload();
+
+  /** schema|fact table|columns to candidate */
+  private final Map<String, AggregateCandidate> candidates = new HashMap<String, AggregateCandidate>();
+
+  /** schema|fact table|column to the largest number of distinct values seen */
+  private final Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+
+  /** MDX to the candidates its segments were loaded at */
+  private final Map<String, Set<AggregateCandidate>> queryGrains = new HashMap<String, Set<AggregateCandidate>>();
+
+  private String currentQuery;
+
+  public static AggregateWorkload getInstance() {
+    return instance;
+  }
+
+  /**
+   * Counts a run of <code>mdx</code> for the grains it needed before; the grains it needs for the first time are
+   * counted when their segments load.
+   */
+  public synchronized void queryStarted(String mdx) {
+    currentQuery = mdx;
+    Set<AggregateCandidate> grains = queryGrains.get(mdx);
+    if (grains != null) {
+      for (AggregateCandidate candidate : grains) {
+        candidate.addHit();
+      }
+    }
+  }
+
+  public synchronized void segmentLoaded(SegmentHeader header, SegmentBody body) {
+    String factTable = header.rolapStarFactTableName;
+    List<SegmentColumn> constrained = header.getConstrainedColumns();
+    SortedSet[] axisValues = body == null ? null : body.getAxisValueSets();
+    SortedSet<String> columns = new TreeSet<String>();
+    for (int i = 0; i < constrained.size(); i++) {
+      String[] tableAndColumn = parseColumnExpression(constrained.get(i).getColumnExpression());
+      if (tableAndColumn == null || (tableAndColumn[0] != null && !tableAndColumn[0].equals(factTable))) {
+        // only columns of the fact table itself are supported, as in the flat models Agile BI generates
+        return;
+      }
+      columns.add(tableAndColumn[1]);
+      if (axisValues != null && i < axisValues.length && axisValues[i] != null) {
+        String key = header.schemaName + '|' + factTable + '|' + tableAndColumn[1];
+        Integer known = cardinalities.get(key);
+        if (known == null || known.intValue() < axisValues[i].size()) {
+          cardinalities.put(key, axisValues[i].size());
+        }
+      }
+    }
+    if (!columns.isEmpty()) {
+      grainLoaded(header.schemaName, factTable, columns);
+    }
+  }
+
+  /**
+   * Counts the grain for the current query, unless it was counted for this query already.
+   */
+  synchronized void grainLoaded(String schemaName, String factTable, SortedSet<String> columns) {
+    String key = schemaName + '|' + factTable + '|' + columns;
+    AggregateCandidate candidate = candidates.get(key);
+    if (candidate == null) {
+      candidate = new AggregateCandidate(schemaName, factTable, columns);
+      candidates.put(key, candidate);
+    }
+    if (currentQuery == null) {
+      // no query seen, e.g. while the cache is warmed up
+      candidate.addHit();
+      return;
+    }
+    Set<AggregateCandidate> grains = queryGrains.get(currentQuery);
+    if (grains == null) {
+      grains = new HashSet<AggregateCandidate>();
+      queryGrains.put(currentQuery, grains);
+    }
+    if (grains.add(candidate)) {
+      candidate.addHit();
+    }
+  }
+
+  /**
+   * @return the candidates seen for <code>schemaName</code>, with row estimates from the cardinalities seen so far
+   */
+  public synchronized List<AggregateCandidate> getCandidates(String schemaName) {
+    List<AggregateCandidate> result = new ArrayList<AggregateCandidate>();
+    for (AggregateCandidate candidate : candidates.values()) {
+      if (candidate.getSchemaName().equals(schemaName)) {
+        long rows = 1;
+        for (String column : candidate.getColumns()) {
+          Integer cardinality = cardinalities.get(schemaName + '|' + candidate.getFactTable() + '|' + column);
+          rows = multiply(rows, cardinality == null ? 1 : Math.max(1, cardinality.intValue()));
+        }
+        candidate.setEstimatedRows(rows);
+        result.add(candidate);
+      }
+    }
+    return result;
+  }
+
+  public synchronized void clear() {
+    candidates.clear();
+    cardinalities.clear();
+    queryGrains.clear();
+    currentQuery = null;
+  }
+
+  private static long multiply(long a, long b) {
+    return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+  }
+
+  /**
+   * Splits a dialect quoted column expression such as <code>"sales"."region"</code> into table (or null) and column.
+   */
+  static String[] parseColumnExpression(String expression) {
+    if (expression == null || expression.indexOf('(') >= 0) {
+      // a computed expression can't be copied into an aggregate column
+      return null;
+    }
+    String plain = expression.replaceAll("[\"`\\[\\]]", ""); //$NON-NLS-1$ //$NON-NLS-2$
+    int dot = plain.lastIndexOf('.');
+    if (dot == -1) {
+      return new String[] { null, plain.trim() };
+    }
+    String table = plain.substring(0, dot);
+    int schemaDot = table.lastIndexOf('.');
+    return new String[] { table.substring(schemaDot + 1).trim(), plain.substring(dot + 1).trim() };
+  }
+}
@@ -0,0 +1,89 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import org.dom4j.Element;
+import org.pentaho.di.trans.TransMeta;
+
+/**
+ * The artifacts generated for one recommended aggregate table.
+ */
+public class GeneratedAggregate {
+
+  private final AggregateCandidate candidate;
+
+  private final String tableName;
+
+  private final String selectSql;
+
+  private final String ddl;
+
+  private final TransMeta populateTransformation;
+
+  private final Element aggName;
+
+  public GeneratedAggregate(AggregateCandidate candidate, String tableName, String selectSql, String ddl,
+      TransMeta populateTransformation, Element aggName) {
+    this.candidate = candidate;
+    this.tableName = tableName;
+    this.selectSql = selectSql;
+    this.ddl = ddl;
+    this.populateTransformation = populateTransformation;
+    this.aggName = aggName;
+  }
+
+  public AggregateCandidate getCandidate() {
+    return candidate;
+  }
+
+  public String getFactTable() {
+    return candidate.getFactTable();
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * @return the GROUP BY query computing the aggregate from the fact table
+   */
+  public String getSelectSql() {
+    return selectSql;
+  }
+
+  /**
+   * @return the CREATE TABLE statement for the aggregate, in the database's dialect
+   */
+  public String getDdl() {
+    return ddl;
+  }
+
+  /**
+   * @return a transformation that truncates and reloads the aggregate table from the fact table
+   */
+  public TransMeta getPopulateTransformation() {
+    return populateTransformation;
+  }
+
+  /**
+   * @return the Mondrian <code>AggName</code> declaration of the aggregate table
+   */
+  public Element getAggName() {
+    return aggName;
+  }
+}
@@ -0,0 +1,212 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.profiling;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Hands out connections that report the statements run on them to the {@link QueryProfiler}. While the profiler is
+ * disabled the delegate's connections are returned as they are.
+ */
+public class ProfilingDataSource implements DataSource {
+
+  private final DataSource delegate;
+
+  private final QueryProfiler profiler;
+
+  public ProfilingDataSource(DataSource delegate) {
+    this(delegate, QueryProfiler.getInstance());
+  }
+
+  public ProfilingDataSource(DataSource delegate, QueryProfiler profiler) {
+    this.delegate = delegate;
+    this.profiler = profiler;
+  }
+
+  public Connection getConnection() throws SQLException {
+    return wrap(delegate.getConnection());
+  }
+
+  public Connection getConnection(String username, String password) throws SQLException {
+    return wrap(delegate.getConnection(username, password));
+  }
+
+  private Connection wrap(Connection connection) {
+    if (connection == null || !profiler.isEnabled()) {
+      return connection;
+    }
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class },
+        new ConnectionHandler(connection));
+  }
+
+  public PrintWriter getLogWriter() throws SQLException {
+    return delegate.getLogWriter();
+  }
+
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    delegate.setLogWriter(out);
+  }
+
+  public void setLoginTimeout(int seconds) throws SQLException {
+    delegate.setLoginTimeout(seconds);
+  }
+
+  public int getLoginTimeout() throws SQLException {
+    return delegate.getLoginTimeout();
+  }
+
+  public boolean isWrapperFor(Class<?> iface) {
+    return iface.isInstance(delegate);
+  }
+
+  public <T> T unwrap(Class<T> iface) {
+    return iface.isInstance(delegate) ? iface.cast(delegate) : null;
+  }
+
+  public Logger getParentLogger() {
+    return null;
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    }
+  }
+
+  private class ConnectionHandler implements InvocationHandler {
+
+    private final Connection connection;
+
+    ConnectionHandler(Connection connection) {
+      this.connection = connection;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Object result = ProfilingDataSource.invoke(connection, method, args);
+      String name = method.getName();
+      if (result instanceof Statement && (name.equals("createStatement") || name.equals("prepareStatement") //$NON-NLS-1$ //$NON-NLS-2$
+          || name.equals("prepareCall"))) { //$NON-NLS-1$
+        Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+            : (result instanceof PreparedStatement ? PreparedStatement.class : Statement.class);
+        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type },
+            new StatementHandler((Statement) result, sql));
+      }
+      return result;
+    }
+  }
+
+  private class StatementHandler implements InvocationHandler {
+
+    private final Statement statement;
+
+    /** the SQL the statement was prepared with, if any */
+    private final String preparedSql;
+
+    private SqlStatementProfile current;
+
+    StatementHandler(Statement statement, String preparedSql) {
+      this.statement = statement;
+      this.preparedSql = preparedSql;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (!name.startsWith("execute") || name.equals("executeBatch")) { //$NON-NLS-1$ //$NON-NLS-2$
+        if (name.equals("close")) { //$NON-NLS-1$
+          finishCurrent();
+        }
+        return ProfilingDataSource.invoke(statement, method, args);
+      }
+      finishCurrent();
+      String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+      SqlStatementProfile profile = profiler.statementStarted(sql);
+      current = profile;
+      long start = System.nanoTime();
+      Object result;
+      try {
+        result = ProfilingDataSource.invoke(statement, method, args);
+      } catch (Throwable t) {
+        profile.setError(t.getMessage());
+        finishCurrent();
+        throw t;
+      } finally {
+        profile.setExecuteMillis((System.nanoTime() - start) / 1000000L);
+      }
+      if (result instanceof ResultSet) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ResultSet.class },
+            new ResultSetHandler((ResultSet) result, profile));
+      }
+      if (!name.equals("execute")) { //$NON-NLS-1$
+        finishCurrent();
+      }
+      return result;
+    }
+
+    private void finishCurrent() {
+      if (current != null && !current.isFinished()) {
+        profiler.statementFinished(current);
+      }
+      current = null;
+    }
+  }
+
+  private class ResultSetHandler implements InvocationHandler {
+
+    private final ResultSet resultSet;
+
+    private final SqlStatementProfile profile;
+
+    ResultSetHandler(ResultSet resultSet, SqlStatementProfile profile) {
+      this.resultSet = resultSet;
+      this.profile = profile;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("next")) { //$NON-NLS-1$
+        long start = System.nanoTime();
+        Boolean hasNext = (Boolean) ProfilingDataSource.invoke(resultSet, method, args);
+        profile.addFetchNanos(System.nanoTime() - start);
+        if (hasNext.booleanValue()) {
+          profile.addRow();
+        }
+        return hasNext;
+      }
+      if (name.equals("close") && !profile.isFinished()) { //$NON-NLS-1$
+        profiler.statementFinished(profile);
+      }
+      return ProfilingDataSource.invoke(resultSet, method, args);
+    }
+  }
+}
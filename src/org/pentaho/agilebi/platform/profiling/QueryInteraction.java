@@ -0,0 +1,77 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.profiling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One MDX query and the SQL statements Mondrian issued to answer it.
+ */
+public class QueryInteraction {
+
+  private final String queryId;
+
+  private final String mdx;
+
+  private final long startTime;
+
+  private volatile long executeMillis = -1;
+
+  private final List<SqlStatementProfile> statements = new ArrayList<SqlStatementProfile>();
+
+  /**
+   * @param mdx the query, or <code>null</code> for statements that ran while no MDX query was captured
+   */
+  public QueryInteraction(String queryId, String mdx, long startTime) {
+    this.queryId = queryId;
+    this.mdx = mdx;
+    this.startTime = startTime;
+  }
+
+  public String getQueryId() {
+    return queryId;
+  }
+
+  public String getMdx() {
+    return mdx;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the total execution time Mondrian reported for the query, or -1 if it didn't finish yet
+   */
+  public long getExecuteMillis() {
+    return executeMillis;
+  }
+
+  void setExecuteMillis(long executeMillis) {
+    this.executeMillis = executeMillis;
+  }
+
+  synchronized void addStatement(SqlStatementProfile statement) {
+    statements.add(statement);
+  }
+
+  public synchronized List<SqlStatementProfile> getStatements() {
+    return new ArrayList<SqlStatementProfile>(statements);
+  }
+}
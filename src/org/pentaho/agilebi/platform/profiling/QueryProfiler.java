@@ -0,0 +1,270 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.profiling;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+import org.pentaho.agilebi.platform.aggregates.AggregateWorkload;
+
+/**
+ * Records the MDX queries run by the embedded platform and the SQL statements issued for them, for the query log
+ * panel of the visualization perspective.
+ * <p>
+ * Profiling is only active while a listener is registered. MDX is captured from Mondrian's <code>mondrian.mdx</code>
+ * logger, SQL from the connections handed out by {@link ProfilingDataSource}. Mondrian loads segments on its own
+ * threads, so statements are attributed to the most recently started query.
+ * <p>
+ * Once {@link #install()} was called the MDX is captured all along, and every query that starts is reported to the
+ * {@link AggregateWorkload}.
+ */
+public class QueryProfiler {
+
+  public interface Listener {
+    /**
+     * Called, on the thread running the query, whenever a query or statement starts or finishes.
+     */
+    void queriesChanged();
+  }
+
+  public static final String MDX_LOGGER = "mondrian.mdx"; //$NON-NLS-1$
+
+  public static final int MAX_INTERACTIONS = 20;
+
+  /** "&lt;query id&gt;: exec: &lt;n&gt; ms", logged by Mondrian when a query finished */
+  private static final Pattern EXEC_PATTERN = Pattern.compile("(\\d+): exec: (\\d+) ms", Pattern.DOTALL); //$NON-NLS-1$
+
+  /** "&lt;query id&gt;: &lt;mdx&gt;", logged by Mondrian when a query starts */
+  private static final Pattern QUERY_PATTERN = Pattern.compile("(\\d+): (.*)", Pattern.DOTALL); //$NON-NLS-1$
+
+  private static final QueryProfiler instance = new QueryProfiler();
+
+  private final LinkedList<QueryInteraction> interactions = new LinkedList<QueryInteraction>();
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  private final MdxAppender appender = new MdxAppender();
+
+  private volatile boolean enabled;
+
+  private boolean installed;
+
+  private boolean attached;
+
+  private Level previousLevel;
+
+  private boolean previousAdditivity;
+
+  public static QueryProfiler getInstance() {
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Captures the MDX queries from now on, whether profiling is enabled or not, so the aggregate advisor sees how often
+   * each one runs.
+   */
+  public synchronized void install() {
+    installed = true;
+    attach();
+  }
+
+  public synchronized void addListener(Listener listener) {
+    listeners.add(listener);
+    attach();
+    enabled = true;
+  }
+
+  public synchronized void removeListener(Listener listener) {
+    listeners.remove(listener);
+    if (enabled && listeners.isEmpty()) {
+      enabled = false;
+      if (!installed) {
+        detach();
+      }
+    }
+  }
+
+  private void attach() {
+    if (attached) {
+      return;
+    }
+    org.apache.log4j.Logger mdxLogger = org.apache.log4j.Logger.getLogger(MDX_LOGGER);
+    previousLevel = mdxLogger.getLevel();
+    previousAdditivity = mdxLogger.getAdditivity();
+    mdxLogger.addAppender(appender);
+    mdxLogger.setLevel(Level.DEBUG);
+    // the queries would otherwise flood the Spoon log
+    mdxLogger.setAdditivity(false);
+    attached = true;
+  }
+
+  private void detach() {
+    org.apache.log4j.Logger mdxLogger = org.apache.log4j.Logger.getLogger(MDX_LOGGER);
+    mdxLogger.removeAppender(appender);
+    mdxLogger.setLevel(previousLevel);
+    mdxLogger.setAdditivity(previousAdditivity);
+    attached = false;
+  }
+
+  /**
+   * @return the recorded queries, oldest first
+   */
+  public synchronized List<QueryInteraction> getInteractions() {
+    return new ArrayList<QueryInteraction>(interactions);
+  }
+
+  public void clear() {
+    synchronized (this) {
+      interactions.clear();
+    }
+    fireChanged();
+  }
+
+  /**
+   * Handles a message of Mondrian's MDX logger.
+   */
+  void mdxLogged(String message) {
+    if (message == null) {
+      return;
+    }
+    Matcher exec = EXEC_PATTERN.matcher(message);
+    if (exec.matches()) {
+      synchronized (this) {
+        for (QueryInteraction interaction : interactions) {
+          if (exec.group(1).equals(interaction.getQueryId())) {
+            interaction.setExecuteMillis(Long.parseLong(exec.group(2)));
+          }
+        }
+      }
+      fireChanged();
+      return;
+    }
+    Matcher query = QUERY_PATTERN.matcher(message);
+    if (query.matches()) {
+      String mdx = query.group(2).trim();
+      AggregateWorkload.getInstance().queryStarted(mdx);
+      synchronized (this) {
+        addInteraction(new QueryInteraction(query.group(1), mdx, System.currentTimeMillis()));
+      }
+      fireChanged();
+    }
+  }
+
+  /**
+   * Records the start of a SQL statement.
+   */
+  SqlStatementProfile statementStarted(String sql) {
+    SqlStatementProfile statement = new SqlStatementProfile(sql, System.currentTimeMillis());
+    synchronized (this) {
+      if (interactions.isEmpty()) {
+        addInteraction(new QueryInteraction(null, null, statement.getStartTime()));
+      }
+      interactions.getLast().addStatement(statement);
+    }
+    fireChanged();
+    return statement;
+  }
+
+  void statementFinished(SqlStatementProfile statement) {
+    statement.setFinished();
+    fireChanged();
+  }
+
+  private void addInteraction(QueryInteraction interaction) {
+    interactions.add(interaction);
+    while (interactions.size() > MAX_INTERACTIONS) {
+      interactions.removeFirst();
+    }
+  }
+
+  private void fireChanged() {
+    for (Listener listener : listeners) {
+      listener.queriesChanged();
+    }
+  }
+
+  /**
+   * Formats <code>interactions</code> for display, newest first.
+   */
+  public static String format(List<QueryInteraction> interactions) {
+    SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss"); //$NON-NLS-1$
+    StringBuilder sb = new StringBuilder();
+    for (int i = interactions.size() - 1; i >= 0; i--) {
+      QueryInteraction interaction = interactions.get(i);
+      List<SqlStatementProfile> statements = interaction.getStatements();
+      long sqlMillis = 0;
+      for (SqlStatementProfile statement : statements) {
+        sqlMillis += Math.max(0, statement.getExecuteMillis()) + statement.getFetchMillis();
+      }
+      sb.append("== ").append(time.format(new Date(interaction.getStartTime()))); //$NON-NLS-1$
+      if (interaction.getExecuteMillis() >= 0) {
+        sb.append("  total ").append(interaction.getExecuteMillis()).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      sb.append("  ").append(statements.size()).append(" SQL, ").append(sqlMillis).append(" ms\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      if (interaction.getMdx() != null) {
+        sb.append(interaction.getMdx()).append('\n');
+      }
+      for (SqlStatementProfile statement : statements) {
+        sb.append("-- "); //$NON-NLS-1$
+        if (statement.getExecuteMillis() < 0) {
+          sb.append("executing"); //$NON-NLS-1$
+        } else {
+          sb.append("exec ").append(statement.getExecuteMillis()).append(" ms, fetch ") //$NON-NLS-1$ //$NON-NLS-2$
+              .append(statement.getFetchMillis()).append(" ms, ").append(statement.getRows()).append(" rows"); //$NON-NLS-1$ //$NON-NLS-2$
+          if (!statement.isFinished()) {
+            sb.append(", fetching"); //$NON-NLS-1$
+          }
+        }
+        if (statement.getError() != null) {
+          sb.append(", failed: ").append(statement.getError()); //$NON-NLS-1$
+        }
+        sb.append('\n').append(statement.getSql()).append('\n');
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  private class MdxAppender extends AppenderSkeleton {
+
+    @Override
+    protected void append(LoggingEvent event) {
+      mdxLogged(event.getRenderedMessage());
+    }
+
+    public void close() {
+    }
+
+    public boolean requiresLayout() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.profiling;
+
+/**
+ * Timings of one SQL statement run through a {@link ProfilingDataSource}. Updated while the statement's rows are
+ * fetched, so a statement still running shows up with the rows fetched so far.
+ */
+public class SqlStatementProfile {
+
+  private final String sql;
+
+  private final long startTime;
+
+  private volatile long executeMillis = -1;
+
+  private volatile long fetchNanos;
+
+  private volatile int rows;
+
+  private volatile boolean finished;
+
+  private volatile String error;
+
+  public SqlStatementProfile(String sql, long startTime) {
+    this.sql = sql;
+    this.startTime = startTime;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return milliseconds until the statement returned its result set, or -1 while it is still executing
+   */
+  public long getExecuteMillis() {
+    return executeMillis;
+  }
+
+  void setExecuteMillis(long executeMillis) {
+    this.executeMillis = executeMillis;
+  }
+
+  /**
+   * @return milliseconds spent fetching rows from the result set
+   */
+  public long getFetchMillis() {
+    return fetchNanos / 1000000L;
+  }
+
+  void addFetchNanos(long nanos) {
+    fetchNanos += nanos;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  void addRow() {
+    rows++;
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  void setFinished() {
+    this.finished = true;
+  }
+
+  /**
+   * @return the message of the exception the statement failed with, or <code>null</code>
+   */
+  public String getError() {
+    return error;
+  }
+
+  void setError(String error) {
+    this.error = error;
+  }
+}
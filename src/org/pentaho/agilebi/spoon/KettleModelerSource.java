@@ -268,4 +268,21 @@ public class KettleModelerSource extends TableModelerSource {
     registry.addEntity(meta);
     registry.addLink(link);
   }
+
+  /**
+   * Register the model saved as {@code modelFileName} as using the table of this source, so the views and reports that
+   * use the model can be found from the transformation or job that populates the table.
+   *
+   * @param registry Where to register the metadata
+   * @param modelFileName File the model is saved in, the id views and reports link to
+   * @param modelName Name of the model
+   */
+  public void registerModelMetadata(IMetadataRegistry registry, String modelFileName, String modelName) {
+    Entity model = new Entity(modelFileName, modelName, Type.TYPE_OLAP_MODEL.getId());
+    Entity table = new Entity(UTIL.generateCompositeId(getDatabaseName(), getSchemaName(), getTableName()), getTableName(), Type.TYPE_PHYSICAL_TABLE.getId());
+
+    registry.addEntity(table);
+    registry.addEntity(model);
+    registry.addLink(new Link(model, Verb.VERB_USES, table));
+  }
 }
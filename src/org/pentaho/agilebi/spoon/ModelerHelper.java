@@ -31,7 +31,9 @@ import org.pentaho.agilebi.modeler.ModelerMessagesHolder;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
 import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.agilebi.platform.CacheWarmer;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
+import org.pentaho.agilebi.spoon.registry.WriteBehindRegistry;
 import org.pentaho.agilebi.spoon.visualizations.IVisualization;
 import org.pentaho.agilebi.spoon.visualizations.VisualizationManager;
 import org.pentaho.agilebi.spoon.wizard.EmbeddedWizard;
@@ -54,7 +56,6 @@ import org.pentaho.di.ui.spoon.SpoonPerspectiveManager;
 import org.pentaho.di.ui.spoon.TabMapEntry;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.registry.IMetadataRegistry;
-import org.pentaho.metadata.registry.OrderedFileRegistry;
 import org.pentaho.metadata.registry.RegistryFactory;
 import org.pentaho.metadata.registry.Type;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
@@ -86,8 +87,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
       IMetadataRegistry registry = factory.getMetadataRegistry();
       if( registry == null ) {
           try {
-        	  registry = new OrderedFileRegistry();
-        	  ((OrderedFileRegistry) registry).setFilePath(org.pentaho.di.core.Const.getKettleDirectory() + File.separator + "registry.xml"); //$NON-NLS-1$
+        	  registry = new WriteBehindRegistry(org.pentaho.di.core.Const.getKettleDirectory() + File.separator + "registry.xml"); //$NON-NLS-1$
 			factory.setMetadataRegistry(registry);
 			registry.init();
 		} catch (Exception e) {
@@ -603,6 +603,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
     }
     model.getWorkspaceHelper().populateDomain(model);
     ModelerWorkspaceUtil.saveWorkspace( model, fileName);
+    CacheWarmer.warmUp(fileName);
     
     /*
     // link the model to the transformation
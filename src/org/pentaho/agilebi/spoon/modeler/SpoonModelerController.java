@@ -31,11 +31,15 @@ import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
 import org.pentaho.agilebi.modeler.util.ModelerWorkspaceUtil;
 import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.agilebi.platform.CacheWarmer;
+import org.pentaho.agilebi.platform.DiskSegmentCache;
+import org.pentaho.agilebi.spoon.KettleModelerSource;
 import org.pentaho.agilebi.spoon.OutputStepModelerSource;
 import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
 import org.pentaho.agilebi.spoon.publish.PublisherHelper;
 import org.pentaho.agilebi.spoon.visualizations.IVisualization;
 import org.pentaho.agilebi.spoon.visualizations.VisualizationManager;
+import org.pentaho.agilebi.vfs.MetadataToMondrianVfsFileContent;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.gui.SpoonFactory;
@@ -53,6 +57,8 @@ import org.pentaho.di.ui.spoon.delegates.SpoonDBDelegate;
 import org.pentaho.metadata.model.IPhysicalModel;
 import org.pentaho.metadata.model.IPhysicalTable;
 import org.pentaho.metadata.model.concept.types.LocalizedString;
+import org.pentaho.metadata.registry.IMetadataRegistry;
+import org.pentaho.metadata.registry.RegistryFactory;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.reporting.libraries.base.util.StringUtils;
 import org.pentaho.ui.xul.XulComponent;
@@ -326,10 +332,31 @@ public class SpoonModelerController extends ModelerController {
       return false;
     }
     ModelerWorkspaceUtil.saveWorkspace(workspace, fileName);
+    // segments cached for the previous version of the schema can't be used anymore
+    DiskSegmentCache.invalidateSchema(MetadataToMondrianVfsFileContent.getSchemaName(workspace.getDomain()));
+    CacheWarmer.warmUp(fileName);
     workspace.setFileName(fileName);
     workspace.setDirty(false);
     workspace.setTemporary(false);
+    registerLineage(fileName);
     return true;
   }
 
+  /**
+   * Links the saved model to the table it is built on, see {@link KettleModelerSource#registerModelMetadata}.
+   */
+  private void registerLineage(String fileName) {
+    if (!(workspace.getModelSource() instanceof KettleModelerSource)) {
+      return;
+    }
+    IMetadataRegistry registry = RegistryFactory.getInstance().getMetadataRegistry();
+    ((KettleModelerSource) workspace.getModelSource()).registerModelMetadata(registry, fileName,
+        workspace.getModelName());
+    try {
+      registry.commit();
+    } catch (Exception e) {
+      logger.error("Could not commit metadata registry", e); //$NON-NLS-1$
+    }
+  }
+
 }
@@ -328,6 +328,13 @@ public abstract class AbstractPerspective extends AbstractXulEventHandler implem
     metas.put(tab, meta);
   }
 
+  /**
+   * @return the metas of all open tabs
+   */
+  public List<EngineMetaInterface> getOpenMetas() {
+    return new ArrayList<EngineMetaInterface>(metas.values());
+  }
+
   public EngineMetaInterface getActiveMeta() {
 	  if( tabbox == null ) {
 		  return null;
@@ -20,6 +20,7 @@ package org.pentaho.agilebi.spoon.perspective;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import org.dom4j.DocumentHelper;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -28,6 +29,9 @@ import org.eclipse.swt.widgets.FileDialog;
 import org.pentaho.agilebi.modeler.ModelerPerspective;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.spoon.ModelerEngineMeta;
+import org.pentaho.agilebi.spoon.visualizations.analyzer.WatermarkRefresher;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.ui.core.dialog.EnterSelectionDialog;
 import org.pentaho.di.ui.spoon.Spoon;
 import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.model.concept.types.LocalizedString;
@@ -90,6 +94,45 @@ public class AgileBiModelerPerspectiveController extends AbstractXulEventHandler
     meta.getController().togglePropertiesPanel();
   }
   
+  public void editWatermarkColumn() {
+    if(meta == null){
+      return;
+    }
+    ModelerWorkspace model = meta.getController().getModel();
+    List<String> columns = WatermarkRefresher.getCandidateColumns(model);
+    if(columns.isEmpty()){
+      MessageDialog.openInformation(Spoon.getInstance().getShell(),
+          BaseMessages.getString(AgileBiModelerPerspective.class, "Modeler.Perspective.watermark.title"), //$NON-NLS-1$
+          BaseMessages.getString(AgileBiModelerPerspective.class, "Modeler.Perspective.watermark.noColumns")); //$NON-NLS-1$
+      return;
+    }
+
+    // the first entry clears the setting, refreshes then flush the whole model again
+    String[] names = new String[columns.size() + 1];
+    names[0] = BaseMessages.getString(AgileBiModelerPerspective.class, "Modeler.Perspective.watermark.none"); //$NON-NLS-1$
+    int selected = 0;
+    String current = WatermarkRefresher.getWatermarkColumn(model);
+    for (int i = 0; i < columns.size(); i++) {
+      names[i + 1] = columns.get(i);
+      if(columns.get(i).equals(current)){
+        selected = i + 1;
+      }
+    }
+    EnterSelectionDialog dialog = new EnterSelectionDialog(Spoon.getInstance().getShell(), names,
+        BaseMessages.getString(AgileBiModelerPerspective.class, "Modeler.Perspective.watermark.title"), //$NON-NLS-1$
+        BaseMessages.getString(AgileBiModelerPerspective.class, "Modeler.Perspective.watermark.message")); //$NON-NLS-1$
+    dialog.setSelectedNrs(new int[] { selected });
+    String column = dialog.open();
+    if(column == null){
+      return;
+    }
+    column = column.equals(names[0]) ? null : column;
+    if(column == null ? current != null : !column.equals(current)){
+      WatermarkRefresher.setWatermarkColumn(model, column);
+      model.setDirty(true);
+    }
+  }
+
   public void exportSchema() {
     try {
       ModelerWorkspace model = this.meta.getController().getModel();
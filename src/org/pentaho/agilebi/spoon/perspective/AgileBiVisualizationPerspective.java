@@ -228,6 +228,7 @@ public class AgileBiVisualizationPerspective extends AbstractPerspective {
       confirm.addDialogCallback(callback);
       confirm.open();
       if(callback.closeIt){
+          controller.dispose();
           switchToCaller(contentId);
         return true;
       } else {
@@ -235,6 +236,7 @@ public class AgileBiVisualizationPerspective extends AbstractPerspective {
       }
       
     }
+    controller.dispose();
     switchToCaller(contentId);
     return true;
   }
@@ -19,6 +19,7 @@ package org.pentaho.agilebi.spoon.perspective;
 
 import org.pentaho.agilebi.spoon.HasXulController;
 import org.pentaho.agilebi.spoon.visualizations.PropertyPanelController;
+import org.pentaho.agilebi.spoon.visualizations.analyzer.AnalyzerVisualizationController;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.ui.xul.XulDomContainer;
 import org.pentaho.ui.xul.binding.Binding;
@@ -30,8 +31,10 @@ import org.pentaho.ui.xul.impl.AbstractXulEventHandler;
 public class AgileBiVisualizationPerspectiveController extends AbstractXulEventHandler {
 
   private XulMenuitem modelPropItem;
+  private XulMenuitem queryLogItem;
   private BindingFactory bf = new DefaultBindingFactory();
   private Binding itemBinding;
+  private Binding queryLogItemBinding;
   private HasXulController meta;
   private boolean dirty = true;
   
@@ -44,6 +47,7 @@ public class AgileBiVisualizationPerspectiveController extends AbstractXulEventH
   public void setXulDomContainer(XulDomContainer xulDomContainer) {
     super.setXulDomContainer(xulDomContainer);
     modelPropItem = (XulMenuitem) document.getElementById("view-vis-props");
+    queryLogItem = (XulMenuitem) document.getElementById("view-vis-queries");
     bf.setDocument(document);
     
   }
@@ -52,16 +56,29 @@ public class AgileBiVisualizationPerspectiveController extends AbstractXulEventH
     modelPropItem.setSelected(vis);
   }
 
+  public void setQueryLogVisible(boolean vis){
+    queryLogItem.setSelected(vis);
+  }
+
   public void setSelectedModelerMeta(EngineMetaInterface meta){
     this.meta = (HasXulController) meta;
     if(itemBinding != null){
       itemBinding.destroyBindings();
     }
+    if(queryLogItemBinding != null){
+      queryLogItemBinding.destroyBindings();
+      queryLogItemBinding = null;
+    }
+    setQueryLogVisible(false);
     if(meta != null){
       bf.setBindingType(Binding.Type.ONE_WAY);
       itemBinding = bf.createBinding(this.meta.getController(), "propVisible", this, "propVisible");
       try {
         itemBinding.fireSourceChanged();
+        if(this.meta.getController() instanceof AnalyzerVisualizationController){
+          queryLogItemBinding = bf.createBinding(this.meta.getController(), "queryLogVisible", this, "queryLogVisible");
+          queryLogItemBinding.fireSourceChanged();
+        }
       } catch (Exception e) {
         e.printStackTrace();
       }
@@ -76,6 +93,13 @@ public class AgileBiVisualizationPerspectiveController extends AbstractXulEventH
     ((PropertyPanelController) meta.getController()).togglePropertiesPanel();
   }
 
+  public void toggleQueryLog(){
+    if(meta == null || !(meta.getController() instanceof AnalyzerVisualizationController)){
+      return;
+    }
+    ((AnalyzerVisualizationController) meta.getController()).toggleQueryLog();
+  }
+
   public boolean isDirty() {
     return dirty;
   }
@@ -0,0 +1,128 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of publishing a single file in a {@link BatchPublisher} run.
+ */
+public class BatchPublishResult {
+
+  private File source;
+  private File model;
+  private PublishReport report;
+  private long elapsedMillis;
+  private Exception error;
+
+  public BatchPublishResult(File source) {
+    this.source = source;
+  }
+
+  public File getSource() {
+    return source;
+  }
+
+  /**
+   * The model published with the source, the source itself when a model was published on its own.
+   */
+  public File getModel() {
+    return model;
+  }
+
+  public void setModel(File model) {
+    this.model = model;
+  }
+
+  /**
+   * The outcome of each publish step, <code>null</code> if publishing failed with {@link #getError()}.
+   */
+  public PublishReport getReport() {
+    return report;
+  }
+
+  public void setReport(PublishReport report) {
+    this.report = report;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public void setElapsedMillis(long elapsedMillis) {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public Exception getError() {
+    return error;
+  }
+
+  public void setError(Exception error) {
+    this.error = error;
+  }
+
+  /**
+   * @return true if every step succeeded; a file that exists on the server and was not overwritten is not a success
+   */
+  public boolean isSuccess() {
+    return error == null && report != null && report.isSucceeded();
+  }
+
+  /**
+   * @return the result as maps, lists and strings, for the machine readable summary
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    map.put("source", source.getPath()); //$NON-NLS-1$
+    map.put("model", model == null ? null : model.getPath()); //$NON-NLS-1$
+    map.put("success", isSuccess()); //$NON-NLS-1$
+    map.put("elapsedMillis", elapsedMillis); //$NON-NLS-1$
+    map.put("error", error == null ? null : String.valueOf(error.getMessage())); //$NON-NLS-1$
+    List<Map<String, Object>> steps = new ArrayList<Map<String, Object>>();
+    if (report != null) {
+      for (PublishReport.StepResult result : report.getResults()) {
+        Map<String, Object> step = new LinkedHashMap<String, Object>();
+        step.put("name", result.getName()); //$NON-NLS-1$
+        step.put("status", result.getStatus().name()); //$NON-NLS-1$
+        step.put("millis", result.getMillis()); //$NON-NLS-1$
+        step.put("error", result.getError() == null ? null : String.valueOf(result.getError().getMessage())); //$NON-NLS-1$
+        steps.add(step);
+      }
+    }
+    map.put("steps", steps); //$NON-NLS-1$
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(isSuccess() ? "OK     " : "FAILED "); //$NON-NLS-1$ //$NON-NLS-2$
+    sb.append(source.getPath());
+    sb.append(" [").append(elapsedMillis).append(" ms]"); //$NON-NLS-1$ //$NON-NLS-2$
+    if (error != null) {
+      sb.append(" ").append(error.getMessage()); //$NON-NLS-1$
+    } else if (report != null && !report.isSucceeded()) {
+      sb.append(" ").append(report.toString().replace('\n', ',')); //$NON-NLS-1$
+    }
+    return sb.toString();
+  }
+}
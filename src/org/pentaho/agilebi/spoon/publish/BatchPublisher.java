@@ -0,0 +1,576 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.pentaho.agilebi.modeler.IModelerSource;
+import org.pentaho.agilebi.modeler.ModelerPerspective;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
+import org.pentaho.agilebi.modeler.util.ModelerSourceFactory;
+import org.pentaho.agilebi.spoon.KettleModelerSource;
+import org.pentaho.agilebi.spoon.OutputStepModelerSource;
+import org.pentaho.agilebi.spoon.SpoonModelerWorkspaceHelper;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.util.XmiParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes Analyzer reports and models to a BI server without any UI, e.g. from a build. A <code>.xanalyzer</code>
+ * file is published with the model it was created from, which it names in its catalog attribute; a
+ * <code>.xmi</code> file is published as a model on its own. Files are published in parallel on a fixed size worker
+ * pool, each one with its own {@link ModelServerPublish}.
+ * <p>
+ * The server is best named with <code>-server</code>, which looks it up in the servers configured in Spoon. A server
+ * given with <code>-url</code> and <code>-user</code> takes its password from the environment variable
+ * <code>AGILEBI_PUBLISH_PASSWORD</code> or from the <code>password</code> property of the file named with
+ * <code>-passwordFile</code>, so it doesn't show up in process listings and build logs.
+ */
+public class BatchPublisher {
+
+  private static Logger logger = LoggerFactory.getLogger(BatchPublisher.class);
+
+  private static final String USAGE = "Usage: BatchPublisher (-server name | -url url -user user [-passwordFile file])" //$NON-NLS-1$
+      + " [-folder path] [-threads n] [-datasource] [-overwrite] [-force] [-summary file.json] <file.xanalyzer|file.xmi|dir>..."; //$NON-NLS-1$
+
+  /** the password of a server given with <code>-url</code>, unless <code>-passwordFile</code> is given */
+  public static final String PASSWORD_VARIABLE = "AGILEBI_PUBLISH_PASSWORD"; //$NON-NLS-1$
+
+  private static final String ANALYZER_EXT = ".xanalyzer"; //$NON-NLS-1$
+
+  private static final String XMI_EXT = ".xmi"; //$NON-NLS-1$
+
+  private static final String MONDRIAN_XML = ".mondrian.xml"; //$NON-NLS-1$
+
+  private final BiServerConnection server;
+
+  private final int poolSize;
+
+  private String folder;
+
+  private boolean publishDatasource;
+
+  private boolean overwrite;
+
+  private boolean deltaPublish = true;
+
+  private final Map<File, Object> modelLocks = new HashMap<File, Object>();
+
+  private final Map<String, Object> connectionLocks = new HashMap<String, Object>();
+
+  public BatchPublisher(BiServerConnection server, int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("poolSize must be at least 1"); //$NON-NLS-1$
+    }
+    this.server = server;
+    this.poolSize = poolSize;
+    this.folder = server.getDefaultFolder();
+  }
+
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Sets the repository folder the reports are published to, the server's default folder by default
+   */
+  public void setFolder(String folder) {
+    this.folder = folder;
+  }
+
+  /**
+   * Sets whether the models' database connections are published when the server lacks them or has different ones
+   */
+  public void setPublishDatasource(boolean publishDatasource) {
+    this.publishDatasource = publishDatasource;
+  }
+
+  /**
+   * Sets whether reports and catalogs that exist on the server are overwritten; if not they are left alone and
+   * reported as not published
+   */
+  public void setOverwrite(boolean overwrite) {
+    this.overwrite = overwrite;
+  }
+
+  /**
+   * Sets whether content that is unchanged since it was last published is skipped, see {@link PublishManifest}
+   */
+  public void setDeltaPublish(boolean deltaPublish) {
+    this.deltaPublish = deltaPublish;
+  }
+
+  /**
+   * Publishes every file on the worker pool and waits for all of them to finish. A failure in one file is recorded
+   * in its result and does not stop the others.
+   *
+   * @return one result per file, in the order the files were given
+   */
+  public List<BatchPublishResult> publishAll(List<File> files) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(poolSize, Math.max(1, files.size())),
+        new PublisherThreadFactory());
+    try {
+      List<Future<BatchPublishResult>> futures = new ArrayList<Future<BatchPublishResult>>(files.size());
+      for (final File file : files) {
+        futures.add(executor.submit(new Callable<BatchPublishResult>() {
+          public BatchPublishResult call() throws Exception {
+            return publish(file);
+          }
+        }));
+      }
+
+      List<BatchPublishResult> results = new ArrayList<BatchPublishResult>(files.size());
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          // publish() traps its own exceptions, this only happens on errors like OutOfMemoryError
+          BatchPublishResult result = new BatchPublishResult(files.get(i));
+          result.setError(new Exception(e.getCause()));
+          results.add(result);
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Publishes a single file on the calling thread.
+   */
+  public BatchPublishResult publish(File file) {
+    BatchPublishResult result = new BatchPublishResult(file);
+    long start = System.currentTimeMillis();
+    try {
+      File content = null;
+      File xmi = file;
+      if (file.getName().endsWith(ANALYZER_EXT)) {
+        if (folder == null) {
+          throw new PublishException("No folder to publish " + file + " to"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        content = file;
+        xmi = findModel(file);
+      }
+      result.setModel(xmi);
+
+      ModelerWorkspace workspace = loadWorkspace(xmi);
+      String modelName = workspace.getModelName();
+      DatabaseMeta databaseMeta = ((ISpoonModelerSource) workspace.getModelSource()).getDatabaseMeta();
+      String databaseName = PublisherHelper.getBiServerCompatibleDatabaseName(databaseMeta.getName());
+
+      ModelServerPublish publisher = new HeadlessModelServerPublish(overwrite);
+      publisher.setBiServerConnection(server);
+      publisher.setModel(workspace);
+      publisher.setDeltaPublish(deltaPublish);
+      publisher.setOverwriteDelegate(new PublishOverwriteDelegate() {
+        public boolean handleOverwriteNotification(String name) {
+          return overwrite;
+        }
+      });
+
+      // the same decisions the publish dialog makes, see XulDialogPublish; models sharing a connection take turns,
+      // so only the first of them adds it to the server and the others find it there
+      boolean existentDatasource;
+      synchronized (getConnectionLock(databaseName)) {
+        int comparison = publisher.compareDataSourceWithRemoteConnection(databaseMeta);
+        existentDatasource = isExistentDatasource(comparison);
+        if (publishDatasource && isPublishConnection(comparison)) {
+          if (!publisher.publishDataSource(databaseMeta, existentDatasource)) {
+            throw new PublishException("The server did not accept the connection " + databaseName); //$NON-NLS-1$
+          }
+          existentDatasource = true;
+        }
+      }
+
+      // reports of the same model take turns, so the model is uploaded once and found unchanged afterwards
+      synchronized (getModelLock(xmi)) {
+        result.setReport(publisher.publishToServer(modelName + MONDRIAN_XML, databaseName, modelName, folder, folder,
+            false, true, existentDatasource, content, content == null ? null : content.getName(), xmi,
+            modelName));
+      }
+    } catch (Exception e) {
+      logger.error("Error publishing " + file, e); //$NON-NLS-1$
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  private synchronized Object getConnectionLock(String databaseName) {
+    Object lock = connectionLocks.get(databaseName);
+    if (lock == null) {
+      lock = new Object();
+      connectionLocks.put(databaseName, lock);
+    }
+    return lock;
+  }
+
+  /**
+   * @param comparison the result of {@link ModelServerPublish#compareDataSourceWithRemoteConnection}
+   * @return true if the connection has to be published, i.e. the server doesn't have it or has a different one
+   */
+  static boolean isPublishConnection(int comparison) {
+    return comparison == ModelServerPublish.REMOTE_CONNECTION_MISSING
+        || comparison == ModelServerPublish.REMOTE_CONNECTION_DIFFERENT;
+  }
+
+  /**
+   * @param comparison the result of {@link ModelServerPublish#compareDataSourceWithRemoteConnection}
+   * @return true if the server has a connection of the same name
+   */
+  static boolean isExistentDatasource(int comparison) {
+    return comparison == ModelServerPublish.REMOTE_CONNECTION_SAME
+        || comparison == ModelServerPublish.REMOTE_CONNECTION_DIFFERENT;
+  }
+
+  private synchronized Object getModelLock(File xmi) throws IOException {
+    File key = xmi.getCanonicalFile();
+    Object lock = modelLocks.get(key);
+    if (lock == null) {
+      lock = new Object();
+      modelLocks.put(key, lock);
+    }
+    return lock;
+  }
+
+  /**
+   * Finds the model an Analyzer report was created from. The report names it in its catalog attribute, relative to
+   * the directory Spoon ran in or to the report.
+   */
+  static File findModel(File analyzerFile) throws Exception {
+    String catalog = readCatalog(analyzerFile);
+    if (catalog == null) {
+      throw new PublishException(analyzerFile + " does not name its model"); //$NON-NLS-1$
+    }
+    File model = new File(catalog);
+    if (!model.exists() && !model.isAbsolute()) {
+      model = new File(analyzerFile.getParentFile(), catalog);
+    }
+    if (!model.exists()) {
+      model = new File(analyzerFile.getParentFile(), new File(catalog).getName());
+    }
+    if (!model.exists()) {
+      throw new PublishException("Model " + catalog + " of " + analyzerFile + " not found"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+    return model;
+  }
+
+  /**
+   * @return the catalog attribute of the report in <code>analyzerFile</code>, read without parsing the whole file
+   */
+  static String readCatalog(File analyzerFile) throws Exception {
+    InputStream in = new FileInputStream(analyzerFile);
+    try {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+      XMLStreamReader reader = factory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && "report".equals(reader.getLocalName())) { //$NON-NLS-1$
+            return reader.getAttributeValue(null, "catalog"); //$NON-NLS-1$
+          }
+        }
+        return null;
+      } finally {
+        reader.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Loads a model the way the Analyzer perspective does when it opens a report.
+   */
+  static ModelerWorkspace loadWorkspace(File xmi) throws Exception {
+    Domain domain;
+    InputStream in = new FileInputStream(xmi);
+    try {
+      domain = new XmiParser().parseXmi(in);
+    } finally {
+      in.close();
+    }
+    if (domain.getId() == null) {
+      String name = xmi.getName();
+      domain.setId(name.endsWith(XMI_EXT) ? name.substring(0, name.length() - XMI_EXT.length()) : name);
+    }
+    ModelerWorkspace workspace = new ModelerWorkspace(new SpoonModelerWorkspaceHelper(),
+        SpoonModelerWorkspaceHelper.initGeoContext());
+    workspace.setDomain(domain);
+    LogicalModel logical = workspace.getLogicalModel(ModelerPerspective.ANALYSIS);
+    Object sourceType = logical == null ? null : logical.getProperty("source_type"); //$NON-NLS-1$
+    if (sourceType == null) {
+      throw new PublishException(xmi + " is not an analysis model"); //$NON-NLS-1$
+    }
+    IModelerSource source = ModelerSourceFactory.generateSource(sourceType.toString());
+    source.initialize(domain);
+    if (!(source instanceof ISpoonModelerSource)) {
+      throw new PublishException(xmi + " is not backed by a database connection"); //$NON-NLS-1$
+    }
+    workspace.setModelSource(source);
+    workspace.setModelName(domain.getId());
+    workspace.setFileName(xmi.getPath());
+    workspace.setTemporary(false);
+    return workspace;
+  }
+
+  /**
+   * Writes the results as JSON: the number of files, how many were published and one entry per file.
+   */
+  public static void writeSummary(List<BatchPublishResult> results, long elapsedMillis, OutputStream out)
+      throws Exception {
+    int published = 0;
+    List<Map<String, Object>> files = new ArrayList<Map<String, Object>>(results.size());
+    for (BatchPublishResult result : results) {
+      if (result.isSuccess()) {
+        published++;
+      }
+      files.add(result.toMap());
+    }
+    Map<String, Object> summary = new LinkedHashMap<String, Object>();
+    summary.put("total", results.size()); //$NON-NLS-1$
+    summary.put("published", published); //$NON-NLS-1$
+    summary.put("failed", results.size() - published); //$NON-NLS-1$
+    summary.put("elapsedMillis", elapsedMillis); //$NON-NLS-1$
+    summary.put("files", files); //$NON-NLS-1$
+    new ObjectMapper().writeValue(out, summary);
+  }
+
+  /**
+   * Expands directories into the .xanalyzer and .xmi files they directly contain. A model that a report in the same
+   * run is published with is not published on its own as well.
+   */
+  public static List<File> collectFiles(List<String> paths) {
+    List<File> files = new ArrayList<File>();
+    for (String path : paths) {
+      File file = new File(path);
+      if (file.isDirectory()) {
+        File[] children = file.listFiles();
+        if (children == null) {
+          continue;
+        }
+        for (File child : children) {
+          if (child.isFile() && (child.getName().endsWith(ANALYZER_EXT) || child.getName().endsWith(XMI_EXT))) {
+            files.add(child);
+          }
+        }
+      } else {
+        files.add(file);
+      }
+    }
+    List<File> models = new ArrayList<File>();
+    for (File file : files) {
+      if (file.getName().endsWith(ANALYZER_EXT)) {
+        try {
+          models.add(findModel(file).getCanonicalFile());
+        } catch (Exception e) {
+          // reported when the file is published
+        }
+      }
+    }
+    List<File> result = new ArrayList<File>(files.size());
+    for (File file : files) {
+      try {
+        if (file.getName().endsWith(XMI_EXT) && models.contains(file.getCanonicalFile())) {
+          continue;
+        }
+      } catch (Exception e) {
+        // keep it
+      }
+      result.add(file);
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String serverName = null;
+    File passwordFile = null;
+    BiServerConnection server = new BiServerConnection();
+    String folder = null;
+    int threads = BiServerClientRegistry.DEFAULT_MAX_CONNECTIONS;
+    boolean publishDatasource = false;
+    boolean overwrite = false;
+    boolean force = false;
+    File summaryFile = null;
+    List<String> paths = new ArrayList<String>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("-server".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        serverName = args[++i];
+      } else if ("-url".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        String url = args[++i];
+        server.setUrl(url.endsWith("/") ? url : url + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+      } else if ("-user".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        server.setUserId(args[++i]);
+      } else if ("-passwordFile".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        passwordFile = new File(args[++i]);
+      } else if ("-folder".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        folder = args[++i];
+      } else if ("-threads".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-summary".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        summaryFile = new File(args[++i]);
+      } else if ("-datasource".equals(arg)) { //$NON-NLS-1$
+        publishDatasource = true;
+      } else if ("-overwrite".equals(arg)) { //$NON-NLS-1$
+        overwrite = true;
+      } else if ("-force".equals(arg)) { //$NON-NLS-1$
+        force = true;
+      } else if (arg.startsWith("-")) { //$NON-NLS-1$
+        System.err.println(USAGE);
+        System.exit(2);
+      } else {
+        paths.add(arg);
+      }
+    }
+
+    if (serverName != null) {
+      // biservers.properties is read relative to the working directory, run from Spoon's directory
+      server = BiServerConfig.getInstance().getServerByName(serverName);
+      if (server == null) {
+        System.err.println("Unknown server " + serverName); //$NON-NLS-1$
+        System.exit(2);
+      }
+    } else if (passwordFile != null) {
+      server.setPassword(readPassword(passwordFile));
+    } else {
+      server.setPassword(System.getenv(PASSWORD_VARIABLE));
+    }
+    List<File> files = collectFiles(paths);
+    if (server.getUrl() == null || files.isEmpty()) {
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+    if (server.getName() == null) {
+      server.setName(server.getUrl());
+    }
+
+    KettleEnvironment.init(false);
+    // registered by AgileBILifecycleListener when Spoon starts
+    ModelerSourceFactory.registerSourceType(OutputStepModelerSource.OUTPUTSTEP_SOURCE_TYPE,
+        OutputStepModelerSource.class);
+    ModelerSourceFactory.registerSourceType(KettleModelerSource.SOURCE_TYPE, KettleModelerSource.class);
+    long start = System.currentTimeMillis();
+    BatchPublisher publisher = new BatchPublisher(server, threads);
+    if (folder != null) {
+      publisher.setFolder(folder);
+    }
+    publisher.setPublishDatasource(publishDatasource);
+    publisher.setOverwrite(overwrite);
+    publisher.setDeltaPublish(!force);
+    List<BatchPublishResult> results = publisher.publishAll(files);
+    long elapsed = System.currentTimeMillis() - start;
+
+    int failed = 0;
+    for (BatchPublishResult result : results) {
+      System.out.println(result);
+      if (!result.isSuccess()) {
+        failed++;
+      }
+    }
+    System.out.println("Published " + (results.size() - failed) + " of " + results.size() + " files in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + elapsed + " ms using " + publisher.getPoolSize() + " threads"); //$NON-NLS-1$ //$NON-NLS-2$
+    if (summaryFile != null) {
+      OutputStream out = new FileOutputStream(summaryFile);
+      try {
+        writeSummary(results, elapsed, out);
+      } finally {
+        out.close();
+      }
+    }
+    BiServerClientRegistry.getInstance().close();
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  /**
+   * @return the <code>password</code> property of <code>file</code>
+   */
+  static String readPassword(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties.getProperty("password"); //$NON-NLS-1$
+  }
+
+  /**
+   * A publisher that answers its own questions instead of showing message boxes.
+   */
+  private static class HeadlessModelServerPublish extends ModelServerPublish {
+
+    private final boolean overwrite;
+
+    HeadlessModelServerPublish(boolean overwrite) {
+      this.overwrite = overwrite;
+    }
+
+    @Override
+    protected boolean showFeedback(int result) {
+      if (result == ModelServerPublish.PUBLISH_CATALOG_EXISTS) {
+        return overwrite;
+      }
+      if (result != ModelServerPublish.PUBLISH_SUCCESS) {
+        logger.warn("Publishing returned " + result); //$NON-NLS-1$
+      }
+      return false;
+    }
+  }
+
+  private static class PublisherThreadFactory implements ThreadFactory {
+    private AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "batch-publisher-" + count.incrementAndGet()); //$NON-NLS-1$
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
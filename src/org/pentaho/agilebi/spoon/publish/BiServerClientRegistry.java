@@ -0,0 +1,165 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+import com.sun.jersey.client.apache.config.DefaultApacheHttpClientConfig;
+
+/**
+ * Keeps one HTTP client per BI server so that consecutive calls to the same server reuse its connections. Clients are
+ * backed by a pooled connection manager with keep-alive and carry the server's credentials, so each user of a server
+ * has a client of its own; a user whose password changed gets a new client.
+ * <p>
+ * Timeouts are read from the system properties <code>agilebi.publish.connectTimeout</code> and
+ * <code>agilebi.publish.readTimeout</code>, in milliseconds, and the upload chunk size from
+ * <code>agilebi.publish.chunkSize</code>, in bytes, when a client is created.
+ */
+public class BiServerClientRegistry {
+
+  public static final String CONNECT_TIMEOUT_PROPERTY = "agilebi.publish.connectTimeout"; //$NON-NLS-1$
+
+  public static final String READ_TIMEOUT_PROPERTY = "agilebi.publish.readTimeout"; //$NON-NLS-1$
+
+  public static final String MAX_CONNECTIONS_PROPERTY = "agilebi.publish.maxConnections"; //$NON-NLS-1$
+
+  /** uploads are streamed in chunks of this many bytes, 0 buffers each request in memory before sending it */
+  public static final String CHUNK_SIZE_PROPERTY = "agilebi.publish.chunkSize"; //$NON-NLS-1$
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+  /** publishing large schemas and metadata models can keep the server busy for a while */
+  public static final int DEFAULT_READ_TIMEOUT = 300000;
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  private static final BiServerClientRegistry instance = new BiServerClientRegistry();
+
+  private final Map<String, Client> clients = new HashMap<String, Client>();
+
+  private final Map<Client, MultiThreadedHttpConnectionManager> connectionManagers =
+      new HashMap<Client, MultiThreadedHttpConnectionManager>();
+
+  public static BiServerClientRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return the shared client for <code>connection</code>, created on first use
+   */
+  public synchronized Client getClient(BiServerConnection connection) {
+    String key = createKey(connection);
+    Client client = clients.get(key);
+    if (client == null) {
+      // the password of this user changed, its old client is not going to be used anymore
+      removeUser(connection);
+      client = createClient(connection);
+      clients.put(key, client);
+    }
+    return client;
+  }
+
+  /**
+   * Closes the client of <code>connection</code>'s user, the clients of other users of the same server are kept.
+   */
+  public synchronized void remove(BiServerConnection connection) {
+    removeUser(connection);
+  }
+
+  /**
+   * Closes all clients and their connections.
+   */
+  public synchronized void close() {
+    for (Client client : clients.values()) {
+      destroy(client);
+    }
+    clients.clear();
+  }
+
+  synchronized int size() {
+    return clients.size();
+  }
+
+  private void removeUser(BiServerConnection connection) {
+    String prefix = connection.getUrl() + '\n' + connection.getUserId() + '\n';
+    for (Iterator<Map.Entry<String, Client>> it = clients.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Client> entry = it.next();
+      if (entry.getKey().startsWith(prefix)) {
+        destroy(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  private void destroy(Client client) {
+    MultiThreadedHttpConnectionManager connectionManager = connectionManagers.remove(client);
+    client.destroy();
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+    }
+  }
+
+  protected Client createClient(BiServerConnection connection) {
+    int connectTimeout = Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT).intValue();
+    int readTimeout = Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT).intValue();
+    int maxConnections = Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS).intValue();
+    int chunkSize = Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE).intValue();
+
+    MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    params.setDefaultMaxConnectionsPerHost(maxConnections);
+    params.setMaxTotalConnections(maxConnections);
+    params.setConnectionTimeout(connectTimeout);
+    params.setSoTimeout(readTimeout);
+    params.setStaleCheckingEnabled(true);
+
+    ClientConfig clientConfig = new DefaultApacheHttpClientConfig();
+    clientConfig.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
+    clientConfig.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout);
+    clientConfig.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout);
+    if (chunkSize > 0) {
+      // stream request bodies instead of buffering whole files in memory
+      clientConfig.getProperties().put(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, chunkSize);
+    }
+
+    Client client = new ApacheHttpClient(new ApacheHttpClientHandler(new HttpClient(connectionManager)), clientConfig);
+    if (connection.getUserId() != null) {
+      client.addFilter(new HTTPBasicAuthFilter(connection.getUserId(), connection.getPassword()));
+    }
+    connectionManagers.put(client, connectionManager);
+    return client;
+  }
+
+  static String createKey(BiServerConnection connection) {
+    return connection.getUrl() + '\n' + connection.getUserId() + '\n' + connection.getPassword();
+  }
+}
@@ -0,0 +1,128 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Copies an XML document, replacing the value of an attribute of the root element's children with a given name. Used
+ * to point published <code>.xanalyzer</code> files and models at the catalog they are published with. The document
+ * is streamed, so it is never held in memory as a whole.
+ */
+public class CatalogAttributeRewriter {
+
+  private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+  private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+  private static final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+  static {
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final String element;
+
+  private final String attribute;
+
+  private final String value;
+
+  /**
+   * @param element the local name of the root's children to rewrite
+   * @param attribute the local name of the attribute to rewrite, elements without it are left alone
+   * @param value the new value of the attribute
+   */
+  public CatalogAttributeRewriter(String element, String attribute, String value) {
+    this.element = element;
+    this.attribute = attribute;
+    this.value = value;
+  }
+
+  /**
+   * Copies the document in <code>in</code> to <code>out</code>, keeping its encoding. Neither stream is closed.
+   */
+  public void rewrite(InputStream in, OutputStream out) throws XMLStreamException {
+    XMLEventReader reader = inputFactory.createXMLEventReader(in);
+    XMLEventWriter writer = null;
+    try {
+      int depth = 0;
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (writer == null) {
+          String encoding = "UTF-8"; //$NON-NLS-1$
+          if (event.isStartDocument() && ((StartDocument) event).encodingSet()) {
+            encoding = ((StartDocument) event).getCharacterEncodingScheme();
+          }
+          writer = outputFactory.createXMLEventWriter(out, encoding);
+        }
+        if (event.isStartElement()) {
+          if (depth == 1) {
+            event = rewrite(event.asStartElement());
+          }
+          depth++;
+        } else if (event.isEndElement()) {
+          depth--;
+        }
+        writer.add(event);
+      }
+      if (writer != null) {
+        writer.flush();
+      }
+    } finally {
+      reader.close();
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  private StartElement rewrite(StartElement start) {
+    if (!element.equals(start.getName().getLocalPart())) {
+      return start;
+    }
+    boolean rewritten = false;
+    List<Attribute> attributes = new ArrayList<Attribute>();
+    for (Iterator<?> i = start.getAttributes(); i.hasNext();) {
+      Attribute attr = (Attribute) i.next();
+      if (attribute.equals(attr.getName().getLocalPart())) {
+        attr = eventFactory.createAttribute(attr.getName(), value);
+        rewritten = true;
+      }
+      attributes.add(attr);
+    }
+    if (!rewritten) {
+      return start;
+    }
+    return eventFactory.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+  }
+}
@@ -0,0 +1,45 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import org.pentaho.database.service.DatabaseDialectService;
+import org.pentaho.database.util.DatabaseTypeHelper;
+
+/**
+ * The dialect service and type helper shared by all publishers. Creating them scans every database dialect, so they
+ * are created once, on first use.
+ */
+public class DatabaseDialects {
+
+  private static class Holder {
+    static final DatabaseDialectService dialectService = new DatabaseDialectService();
+
+    static final DatabaseTypeHelper typeHelper = new DatabaseTypeHelper(dialectService.getDatabaseTypes());
+  }
+
+  private DatabaseDialects() {
+  }
+
+  public static DatabaseDialectService getDialectService() {
+    return Holder.dialectService;
+  }
+
+  public static DatabaseTypeHelper getTypeHelper() {
+    return Holder.typeHelper;
+  }
+}
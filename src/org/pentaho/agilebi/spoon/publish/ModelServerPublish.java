@@ -20,24 +20,32 @@ package org.pentaho.agilebi.spoon.publish;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLStreamException;
 
+import org.apache.commons.io.IOUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
-import org.dom4j.DocumentHelper;
+import org.eclipse.swt.widgets.Display;
 import org.jfree.util.Log;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerPerspective;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
+import org.pentaho.agilebi.platform.aggregates.AggregateSchemaDecorator;
 import org.pentaho.database.IDatabaseDialect;
 import org.pentaho.database.model.DatabaseAccessType;
 import org.pentaho.database.model.DatabaseConnection;
@@ -57,6 +65,7 @@ import org.pentaho.platform.api.engine.PentahoAccessControlException;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.plugin.services.importer.PlatformImportException;
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileDto;
 import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
 import org.pentaho.platform.util.client.PublisherUtil;
 
@@ -64,11 +73,8 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.core.header.FormDataContentDisposition;
+import com.sun.jersey.multipart.Boundary;
 import com.sun.jersey.multipart.FormDataMultiPart;
 
 /**
@@ -121,9 +127,20 @@ public class ModelServerPublish {
 
   private static final int DATASOURCE_DRIVER_MISSING = 9;
 
-  private BiServerConnection biServerConnection;
+  private static final String REPORT_ELEMENT = "report"; //$NON-NLS-1$
+
+  private static final String CATALOG_ATTRIBUTE = "catalog"; //$NON-NLS-1$
+
+  /** names of the steps in the report of {@link #publishToServer} */
+  public static final String STEP_FILE = "file"; //$NON-NLS-1$
 
-  private DatabaseConnection remoteConnection;
+  public static final String STEP_DATASOURCE = "datasource"; //$NON-NLS-1$
+
+  public static final String STEP_SCHEMA = "schema"; //$NON-NLS-1$
+
+  public static final String STEP_METADATA = "metadata"; //$NON-NLS-1$
+
+  private BiServerConnection biServerConnection;
 
   private ModelerWorkspace model;
 
@@ -132,34 +149,50 @@ public class ModelServerPublish {
   //TODO: find a better way to communicate the UI delegate
   public static PublishOverwriteDelegate overwriteDelegate;
 
+  /** asked instead of {@link #overwriteDelegate} when set */
+  private PublishOverwriteDelegate publisherOverwriteDelegate;
+
   private Client client = null;
 
+  private PublishProgressListener progressListener;
+
+  /** the UI thread prompts and messages are shown on while publishing runs in the background */
+  private Display feedbackDisplay;
+
+  private boolean deltaPublish = true;
+
+  /** what {@link #checkForExistingFile} found out, by path */
+  private final Map<String, Boolean> existingFiles = new HashMap<String, Boolean>();
+
   public ModelServerPublish() {
-    // get information about the remote connection
-    ClientConfig clientConfig = new DefaultClientConfig();
-    clientConfig.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
-    this.client = Client.create(clientConfig);
+    // the client is shared per server, see setBiServerConnection
   }
 
   public ModelServerPublish(BiServerConnection aBiServerConnection) {
-    super();
+    this();
     this.setBiServerConnection(aBiServerConnection);
   }
 
   /**
-   * Lists the database connections that are available on the current BI server
+   * Lists the database connections that are available on the current BI server. The list is cached per server, see
+   * {@link RemoteConnectionCache}.
    * @return
    * @throws ConnectionServiceException
    */
   public List<DatabaseConnection> listRemoteConnections() throws ConnectionServiceException {
-    DatabaseConnection[] connectionArray = null;
-    List<DatabaseConnection> response = new ArrayList<DatabaseConnection>();
+    RemoteConnectionCache cache = RemoteConnectionCache.forServer(biServerConnection);
+    List<DatabaseConnection> response = cache.getConnections();
+    if (response != null) {
+      return response;
+    }
+    response = new ArrayList<DatabaseConnection>();
     String storeDomainUrl = biServerConnection.getUrl() + DATA_ACCESS_API_CONNECTION_LIST;
     WebResource resource = client.resource(storeDomainUrl);
 
     try {
-      connectionArray = resource.type(MediaType.APPLICATION_JSON).get(DatabaseConnection[].class);
+      DatabaseConnection[] connectionArray = resource.type(MediaType.APPLICATION_JSON).get(DatabaseConnection[].class);
       response = Arrays.asList(connectionArray);
+      cache.putConnections(response);
     } catch (Exception e) {
       Log.error(e.getMessage(),e);
     }
@@ -169,34 +202,48 @@ public class ModelServerPublish {
   /**
    * Returns the remote connection. If the force flag is set the connection is 
    * always refreshed from the remote BI server. If the force flag is not set
-   * a cached connection is returned.
-   * @return
+   * a cached connection is returned, see {@link RemoteConnectionCache}.
+   * @return the connection, <code>null</code> if the server doesn't have it or can't be reached
    */
   public DatabaseConnection getRemoteConnection(String connectionName, boolean force) {
-    if (remoteConnection == null || force) {
-      // get information about the remote connection
-      String storeDomainUrl = biServerConnection.getUrl() + DATA_ACCESS_API_CONNECTION_GET +REST_NAME_PARM+ connectionName;
-      WebResource resource = client.resource(storeDomainUrl);
-      ClientResponse response;
-      try {
-       response  = resource
-        		.type(MediaType.APPLICATION_JSON)
-        		.type(MediaType.APPLICATION_XML)        	
-        		.get(ClientResponse.class);
-       if(response.getStatus() == 200){
-         remoteConnection = response.getEntity(DatabaseConnection.class); 
-       } else {
-         Log.error(response.getEntity(String.class));
-       }
-      } catch (Exception ex) {
-        Log.error(ex.getMessage());
-        remoteConnection = null;
+    RemoteConnectionCache cache = RemoteConnectionCache.forServer(biServerConnection);
+    if (!force && cache.containsConnection(connectionName)) {
+      return cache.getConnection(connectionName);
+    }
+    // get information about the remote connection
+    String storeDomainUrl = biServerConnection.getUrl() + DATA_ACCESS_API_CONNECTION_GET +REST_NAME_PARM+ connectionName;
+    WebResource resource = client.resource(storeDomainUrl);
+    DatabaseConnection remoteConnection = null;
+    try {
+      ClientResponse response  = resource
+          .type(MediaType.APPLICATION_JSON)
+          .type(MediaType.APPLICATION_XML)
+          .get(ClientResponse.class);
+      if(response.getStatus() == 200){
+        remoteConnection = response.getEntity(DatabaseConnection.class); 
+        cache.putConnection(connectionName, remoteConnection);
+      } else if (response.getStatus() == 204 || response.getStatus() == 404) {
+        // the server doesn't have the connection, which is worth remembering as well
+        response.close();
+        cache.putConnection(connectionName, null);
+      } else {
+        // e.g. a rejected login or a server error, ask again next time
+        Log.error(response.getEntity(String.class));
       }
+    } catch (Exception ex) {
+      Log.error(ex.getMessage());
     }
     return remoteConnection;
 
   }
 
+  /**
+   * Forgets the cached connections of the current BI server, so they are fetched again on next use.
+   */
+  public void refreshRemoteConnections() {
+    RemoteConnectionCache.forServer(biServerConnection).clear();
+  }
+
   /**
    * Compares a provided DatabaseMeta with the database connections available on the current BI server.
    * Returns the result of the comparison - missing, same, different.
@@ -231,7 +278,7 @@ public class ModelServerPublish {
     
     boolean userMatch = (userName == null && connection != null && connection.getUsername() == null)
         || userName.equals(connection.getUsername());
-    DatabaseDialectService dds = new DatabaseDialectService();
+    DatabaseDialectService dds = DatabaseDialects.getDialectService();
        
     boolean driverMatch = false;
     if(dds != null){
@@ -262,39 +309,14 @@ public class ModelServerPublish {
   public int publishFile(String repositoryPath, File[] files, boolean showFeedback)
       throws PentahoAccessControlException {
     
-    boolean overwrite = false;
     int result = ModelServerPublish.PUBLISH_FAILED;
 
     try {
       for (File fileIS : files) {
-        while (true) {
-          ClientResponse response = attemptPublish(fileIS, repositoryPath, overwrite);
-          if (response != null) {
-            String responseCodeStr = response.getEntity(String.class);
-            Log.info("Response was " + responseCodeStr);
-            if (response.getStatus() == 200) {
-              result = ModelServerPublish.PUBLISH_SUCCESS;
-              break;
-            } else {
-              int responseCode = Integer.parseInt(responseCodeStr);
-              if (responseCode == PlatformImportException.PUBLISH_USERNAME_PASSWORD_FAIL) {
-                result = ModelServerPublish.PUBLISH_INVALID_USER_OR_PASSWORD;
-                showFeedback = true;
-                break;
-              } else if (responseCode == PlatformImportException.PUBLISH_CONTENT_EXISTS_ERROR && !overwrite) {
-                  overwrite = overwriteDelegate.handleOverwriteNotification(fileIS.getName());
-                  if (overwrite == false) {
-                    result = PublisherUtil.FILE_EXISTS;
-                    break;
-                  } 
-              } else {
-                result = ModelServerPublish.PUBLISH_FAILED;
-                break;
-              }
-            }
-          }
+        result = publishFile(repositoryPath, fileIS, fileIS.getName(), null);
+        if (result == ModelServerPublish.PUBLISH_INVALID_USER_OR_PASSWORD) {
+          showFeedback = true;
         }
-        overwrite = false;
       }
     } catch (Exception ex) {
       Log.error(ex.getMessage(),ex);
@@ -305,26 +327,103 @@ public class ModelServerPublish {
     }
     return result;
   }
+
+  /**
+   * Uploads <code>source</code> as <code>repositoryPath/name</code>, asking whether to overwrite an existing file
+   * @param catalog the catalog to point the file's report at while uploading it, <code>null</code> to upload it as is
+   * @return the publish result
+   */
+  private int publishFile(String repositoryPath, File source, String name, String catalog) throws Exception {
+    boolean overwrite = false;
+    while (true) {
+      ClientResponse response = attemptPublish(source, name, catalog, repositoryPath, overwrite);
+      if (response != null) {
+        String responseCodeStr = response.getEntity(String.class);
+        Log.info("Response was " + responseCodeStr);
+        if (response.getStatus() == 200) {
+          synchronized (existingFiles) {
+            existingFiles.put(repositoryPath + RepositoryFile.SEPARATOR + name, Boolean.TRUE);
+          }
+          return ModelServerPublish.PUBLISH_SUCCESS;
+        } else {
+          int responseCode = Integer.parseInt(responseCodeStr);
+          if (responseCode == PlatformImportException.PUBLISH_USERNAME_PASSWORD_FAIL) {
+            return ModelServerPublish.PUBLISH_INVALID_USER_OR_PASSWORD;
+          } else if (responseCode == PlatformImportException.PUBLISH_CONTENT_EXISTS_ERROR && !overwrite) {
+              overwrite = (publisherOverwriteDelegate != null ? publisherOverwriteDelegate : overwriteDelegate)
+                  .handleOverwriteNotification(name);
+              if (overwrite == false) {
+                return PublisherUtil.FILE_EXISTS;
+              } 
+          } else {
+            return ModelServerPublish.PUBLISH_FAILED;
+          }
+        }
+      }
+    }
+  }
   
-  private ClientResponse attemptPublish(File fileIS, String repositoryPath, boolean overwrite) throws FileNotFoundException {
-      InputStream in = new FileInputStream(fileIS);
+  private ClientResponse attemptPublish(File source, String name, String catalog, String repositoryPath,
+      boolean overwrite) {
       String DEFAULT_PUBLISH_URL = biServerConnection.getUrl() + REPO_FILES_PUBLISH; //$NON-NLS-1$
       WebResource resource = client.resource(DEFAULT_PUBLISH_URL);
       
       FormDataMultiPart part = new FormDataMultiPart();
-      part.field("importPath", repositoryPath + "/" + fileIS.getName(), MediaType.MULTIPART_FORM_DATA_TYPE)
-          .field("fileUpload", in, MediaType.MULTIPART_FORM_DATA_TYPE)
+      part.field("importPath", repositoryPath + "/" + name, MediaType.MULTIPART_FORM_DATA_TYPE)
+          .field("fileUpload", createUploadEntity(source, name, catalog), MediaType.MULTIPART_FORM_DATA_TYPE)
           .field("overwriteFile", String.valueOf(overwrite), MediaType.MULTIPART_FORM_DATA_TYPE);
   
       part.getField("fileUpload").setContentDisposition(
           FormDataContentDisposition.name("fileUpload")
-          .fileName(fileIS.getName()).build());
+          .fileName(name).build());
   
       Builder builder = resource
-          .type(MediaType.MULTIPART_FORM_DATA)
+          .type(multipartFormData())
           .accept(MediaType.TEXT_PLAIN);
       return builder.post(ClientResponse.class, part);
   }
+
+  /**
+   * @return <code>multipart/form-data</code> with a boundary; request bodies are sent in chunks, see
+   *         {@link BiServerClientRegistry#CHUNK_SIZE_PROPERTY}, so the headers go out before the multipart writer could
+   *         add one
+   */
+  private static MediaType multipartFormData() {
+    return Boundary.addBoundary(MediaType.MULTIPART_FORM_DATA_TYPE);
+  }
+
+  /**
+   * @return the body of an upload of <code>source</code>; if <code>catalog</code> is set, the report in it is pointed
+   *         at that catalog on the fly, see {@link CatalogAttributeRewriter}
+   */
+  private Object createUploadEntity(final File source, final String name, final String catalog) {
+    // written anew each time the request is sent, so retries after an overwrite prompt read the file again and the
+    // file is closed once it was sent
+    return new StreamingOutput() {
+      public void write(OutputStream out) throws IOException {
+        InputStream in = trackProgress(new FileInputStream(source), name, source.length());
+        try {
+          if (catalog == null) {
+            IOUtils.copy(in, out);
+          } else {
+            new CatalogAttributeRewriter(REPORT_ELEMENT, CATALOG_ATTRIBUTE, catalog).rewrite(in, out);
+          }
+        } catch (XMLStreamException e) {
+          throw new IOException(e);
+        } finally {
+          in.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the hash of <code>source</code> as it is uploaded when pointed at <code>catalog</code>
+   */
+  private static String hashUpload(File source, String catalog) throws IOException {
+    String hash = PublishManifest.hash(source);
+    return catalog == null ? hash : PublishManifest.hash((hash + "\n" + catalog).getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+  }
   
   /**
    * Publishes a datasource to the current BI server
@@ -333,13 +432,12 @@ public class ModelServerPublish {
    * @return
    * @throws KettleDatabaseException
    */
-  private boolean publishDataSource(DatabaseMeta databaseMeta, boolean update) throws KettleDatabaseException,
+  boolean publishDataSource(DatabaseMeta databaseMeta, boolean update) throws KettleDatabaseException,
       ConnectionServiceException {
 
     // create a new connection object and populate it from the databaseMeta
     DatabaseConnection connection = new DatabaseConnection();
-    DatabaseDialectService dds = new DatabaseDialectService();
-    DatabaseTypeHelper dth = new DatabaseTypeHelper(dds.getDatabaseTypes());
+    DatabaseTypeHelper dth = DatabaseDialects.getTypeHelper();
     DatabaseInterface intf = databaseMeta.getDatabaseInterface();
     connection.setName(PublisherHelper.getBiServerCompatibleDatabaseName(databaseMeta.getName()));
     connection.setPassword(databaseMeta.getPassword());    
@@ -363,6 +461,7 @@ public class ModelServerPublish {
    */
   private boolean updateConnection(DatabaseConnection connection, boolean update) {   
     String storeDomainUrl;
+    RemoteConnectionCache.forServer(biServerConnection).invalidate(connection.getName());
     try {
       if (update) {
         storeDomainUrl = biServerConnection.getUrl() + PLUGIN_DATA_ACCESS_API_CONNECTION_UPDATE;
@@ -375,8 +474,11 @@ public class ModelServerPublish {
     		  .type(MediaType.APPLICATION_JSON)
     		  .entity(connection);
     		  ClientResponse resp = builder.post(ClientResponse.class);
-    		  if(resp != null && resp.getStatus() != 200){
-    		    return false;
+    		  if(resp != null){
+    		    resp.close();
+    		    if(resp.getStatus() != 200){
+    		      return false;
+    		    }
     		  }
     } catch (Exception ex) {    	
       Log.error(ex.getMessage());
@@ -401,7 +503,7 @@ public class ModelServerPublish {
     int response = ModelServerPublish.PUBLISH_FAILED;
     FormDataMultiPart part = new FormDataMultiPart();
     part.field("parameters", parms, MediaType.MULTIPART_FORM_DATA_TYPE)
-        .field("uploadAnalysis", mondrianFile, MediaType.MULTIPART_FORM_DATA_TYPE)
+        .field("uploadAnalysis", trackProgress(mondrianFile, catalogName, -1), MediaType.MULTIPART_FORM_DATA_TYPE)
         .field("catalogName", catalogName, MediaType.MULTIPART_FORM_DATA_TYPE)
         .field("overwrite", overwriteInRepos ? "true" : "false", MediaType.MULTIPART_FORM_DATA_TYPE)
         .field("xmlaEnabledFlag", "true", MediaType.MULTIPART_FORM_DATA_TYPE);
@@ -411,7 +513,7 @@ public class ModelServerPublish {
         FormDataContentDisposition.name("uploadAnalysis").fileName(catalogName).build());
     try {
       ClientResponse resp = resource
-    		  .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+    		  .type(multipartFormData())
     		  .post(ClientResponse.class, part);
      String entity = null;
      if (resp != null && resp.getStatus() == 200){
@@ -423,6 +525,9 @@ public class ModelServerPublish {
        }
      } else {
        Log.info(resp);
+       if (resp != null) {
+         resp.close();
+       }
      }
     } catch (Exception ex) {
       Log.error(ex.getMessage());
@@ -438,6 +543,10 @@ public class ModelServerPublish {
    * return code to detrmine next step
    */
   public int publishMetaDataFile(InputStream metadataFile, String domainId) throws Exception {
+    return putMetaDataFile(trackProgress(metadataFile, domainId, -1), domainId);
+  }
+
+  private int putMetaDataFile(Object metadataFile, String domainId) {
     String storeDomainUrl = biServerConnection.getUrl() + "plugin/data-access/api/metadata/import";
     WebResource resource = client.resource(storeDomainUrl);
 
@@ -450,10 +559,13 @@ public class ModelServerPublish {
         .fileName(domainId).build());
     try {
       ClientResponse resp = resource
-          .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+          .type(multipartFormData())
           .put(ClientResponse.class, part);
-      if(resp != null && resp.getStatus() == 200){
-        response = ModelServerPublish.PUBLISH_SUCCESS;
+      if(resp != null){
+        resp.close();
+        if(resp.getStatus() == 200){
+          response = ModelServerPublish.PUBLISH_SUCCESS;
+        }
       }
     } catch (Exception ex) {
       Log.error(ex.getMessage());      
@@ -464,7 +576,8 @@ public class ModelServerPublish {
 
   /**
    * Publishes the specified file, model, schema, and connection to the current BI server
-   * using new REST Services
+   * using new REST Services. The file and the connection are uploaded in parallel; the schema
+   * is published once the connection is in place and the model once the schema is.
    * @param schemaName
    * @param jndiName
    * @param modelName
@@ -475,42 +588,104 @@ public class ModelServerPublish {
    * @param isExistentDatasource
    * @param publishFile (e.g. XANALYZER)
    * @param publishModelFileName
-   * @throws Exception
+   * @return the result and duration of each step
+   * @throws Exception if a step failed
    */
-  public void publishToServer(String schemaName, 
-      String jndiName, String modelName, String repositoryPath,
-      String selectedPath, boolean publishDatasource, 
-      boolean showFeedback, boolean isExistentDatasource,
+  public PublishReport publishToServer(final String schemaName, 
+      final String jndiName, final String modelName, String repositoryPath,
+      final String selectedPath, boolean publishDatasource, 
+      final boolean showFeedback, final boolean isExistentDatasource,
       boolean publishFile,
-      String publishModelFileName) throws Exception {
-
-    String publishModelXmiFileName = publishModelFileName;
-    if(publishFile){
-      File files[] = { new File(publishModelFileName) };
-      int result = publishFile(selectedPath, files, false);
-      if(result != ModelServerPublish.PUBLISH_SUCCESS){
-        if(result ==  ModelServerPublish.PUBLISH_FILE_EXISTS || result == ModelServerPublish.PUBLISH_INVALID_USER_OR_PASSWORD) {
-          return;//user has replied no do not overwrite
-        } else {
-          throw new Exception(BaseMessages.getString(this.getClass(), "ModelServerPublish.Publish.Failed"));
+      final String publishModelFileName) throws Exception {
+
+    File contentFile = publishFile ? new File(publishModelFileName) : null;
+    File xmiFile = new File(publishFile ? convertFileNameToXmi(publishModelFileName, modelName) : publishModelFileName);
+    return publishToServer(schemaName, jndiName, modelName, repositoryPath, selectedPath, publishDatasource,
+        showFeedback, isExistentDatasource, contentFile, contentFile == null ? null : contentFile.getName(), xmiFile,
+        null);
+  }
+
+  /**
+   * Publishes the specified file, model, schema, and connection to the current BI server
+   * like {@link #publishToServer(String, String, String, String, String, boolean, boolean, boolean, boolean, String)},
+   * reading the file and the model from where they are. If <code>catalog</code> is set, the catalog attribute of the
+   * report in the file and the model is rewritten while they are uploaded.
+   * @param contentFile the file (e.g. XANALYZER) or <code>null</code> to only publish the model
+   * @param contentFileName the name to publish <code>contentFile</code> as
+   * @param xmiFile the model
+   * @param catalog
+   * @return the result and duration of each step
+   * @throws Exception if a step failed
+   */
+  public PublishReport publishToServer(final String schemaName, final String jndiName, final String modelName,
+      String repositoryPath, final String selectedPath, boolean publishDatasource, final boolean showFeedback,
+      final boolean isExistentDatasource, final File contentFile, final String contentFileName, final File xmiFile,
+      final String catalog) throws Exception {
+
+    PublishPipeline pipeline = new PublishPipeline();
+    if(contentFile != null){
+      pipeline.addStep(STEP_FILE, new Callable<Boolean>() {
+        public Boolean call() throws Exception {
+          String target = selectedPath + "/" + contentFileName; //$NON-NLS-1$
+          String hash = deltaPublish ? hashUpload(contentFile, catalog) : null;
+          // the file may have been deleted on the server since it was last published
+          if (isUnchanged(target, hash) && checkForExistingFile(selectedPath, contentFileName)) {
+            return true;
+          }
+          int result = publishFile(selectedPath, contentFile, contentFileName, catalog);
+          if(result ==  ModelServerPublish.PUBLISH_FILE_EXISTS || result == ModelServerPublish.PUBLISH_INVALID_USER_OR_PASSWORD) {
+            return false;//user has replied no do not overwrite
+          } else if(result != ModelServerPublish.PUBLISH_SUCCESS){
+            throw new Exception(BaseMessages.getString(ModelServerPublish.class, "ModelServerPublish.Publish.Failed"));
+          }
+          published(target, hash);
+          return true;
         }
-      }
-      publishModelXmiFileName = convertFileNameToXmi(publishModelFileName,modelName);
+      });
     }
-    
+
+    String[] schemaDependencies = new String[0];
     if (publishDatasource) {
-      DatabaseMeta databaseMeta = ((ISpoonModelerSource) model.getModelSource()).getDatabaseMeta();
-      publishDataSource(databaseMeta, isExistentDatasource); 
+      // the schema refers to the connection by name
+      schemaDependencies = new String[] { STEP_DATASOURCE };
+      pipeline.addStep(STEP_DATASOURCE, new Callable<Boolean>() {
+        public Boolean call() throws Exception {
+          DatabaseMeta databaseMeta = ((ISpoonModelerSource) model.getModelSource()).getDatabaseMeta();
+          if (!publishDataSource(databaseMeta, isExistentDatasource)) {
+            throw new Exception(BaseMessages.getString(ModelServerPublish.class,
+                "ModelServerPublish.Publish.DataSourceProblem"));
+          }
+          return true;
+        }
+      });
     }
-    boolean overwriteInRepository = false;
-    
-    int result = publishOlapSchemaToServer(schemaName, jndiName, modelName, selectedPath, overwriteInRepository,
-        showFeedback, isExistentDatasource, publishModelFileName);
+
+    pipeline.addStep(STEP_SCHEMA, new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        boolean overwriteInRepository = false;
+        int result = publishOlapSchemaToServer(schemaName, jndiName, modelName, selectedPath, overwriteInRepository,
+            showFeedback, isExistentDatasource, xmiFile.getPath());
+        return result == ModelServerPublish.PUBLISH_SUCCESS;
+      }
+    }, schemaDependencies);
+
     //only publish if schema is success
-    if (result == ModelServerPublish.PUBLISH_SUCCESS) {
-      publishMetaDatafile(publishModelXmiFileName, modelName+EXTENSION_XMI);
-    }
+    pipeline.addStep(STEP_METADATA, new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        if (!publishMetaDatafile(xmiFile, modelName+EXTENSION_XMI, catalog)) {
+          throw new Exception(BaseMessages.getString(ModelServerPublish.class, "ModelServerPublish.Publish.Failed"));
+        }
+        return true;
+      }
+    }, STEP_SCHEMA);
 
+    PublishReport report = pipeline.run();
+    Log.info("Published " + modelName + ":\n" + report); //$NON-NLS-1$ //$NON-NLS-2$
+    Exception error = report.getFirstError();
+    if (error != null) {
+      throw error;
+    }
+    return report;
   }
 
   private String convertFileNameToXmi(String publishModelFileName, String modelName) {
@@ -559,36 +734,64 @@ public class ModelServerPublish {
   }
 
   /**
-   * find a matching file/path combination by going back to server fileTree and matching name
+   * Looks up a single file on the server. The answers are remembered by this publisher, so repeated overwrite checks
+   * during one publish don't go back to the server.
    * @param path
    * @param name
    * @return true if file exists on path
    */
   public boolean checkForExistingFile(String path, String name) {
-    boolean ans = false;
     if (path == null || name == null) {
       Log.error("path ["+path+"] and name ["+name+"] cannot be null");
       return false;
-    }    
-    try {
-      RepositoryFileTreeDto tree = fetchRepositoryFileTree(path, -1, null , false);
-      if (tree != null && tree.getFile() != null && !tree.getChildren().isEmpty()) {
-        for(RepositoryFileTreeDto file :tree.getChildren()){
-          if (!file.getFile().isFolder()) {
-            if (file.getFile().getName().equals(name)) {             
-              ans = true;
-              break;
-            }
-          }        
-        }
+    }
+    String filePath = path.endsWith(RepositoryFile.SEPARATOR) ? path + name : path + RepositoryFile.SEPARATOR + name;
+    synchronized (existingFiles) {
+      Boolean cached = existingFiles.get(filePath);
+      if (cached != null) {
+        return cached;
       }
-
+    }
+    boolean ans;
+    try {
+      RepositoryFileDto file = fetchRepositoryFile(filePath);
+      ans = file != null && !file.isFolder();
     } catch (Exception e) {
       Log.error(e.getMessage(),e);
+      return false;
+    }
+    synchronized (existingFiles) {
+      existingFiles.put(filePath, ans);
     }
     return ans;
   }
 
+  /**
+   * Use the Jersey call to get the properties of one repository file
+   * @param path the full path of the file
+   * @return the file, or <code>null</code> if there is none
+   */
+  private RepositoryFileDto fetchRepositoryFile(String path) throws Exception {
+    String pathId = URLEncoder.encode(path.replace(RepositoryFile.SEPARATOR, ":"), "UTF-8").replace("+", "%20"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    String url = biServerConnection.getUrl() + "api/repo/files/" + pathId + "/properties"; //$NON-NLS-1$ //$NON-NLS-2$
+    ClientResponse resp = client.resource(url).accept(MediaType.APPLICATION_JSON_TYPE).get(ClientResponse.class);
+    try {
+      if (resp.getStatus() == 204 || resp.getStatus() == 404) {
+        return null;
+      }
+      if (resp.getStatus() != 200) {
+        throw new PublishException("Unable to look up " + path + ", the server returned " + resp.getStatus()); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      String json = resp.getEntity(String.class);
+      if (json == null || json.trim().length() == 0) {
+        return null;
+      }
+      return new ObjectMapper().readValue(json, RepositoryFileDto.class);
+    } finally {
+      resp.close();
+    }
+  }
+
   public boolean checkDataSource(boolean autoMode) throws KettleDatabaseException, ConnectionServiceException {
     // check the data source
 
@@ -667,7 +870,16 @@ public class ModelServerPublish {
 
   }
 
-  protected boolean showFeedback(int result) {
+  protected boolean showFeedback(final int result) {
+    if (feedbackDisplay != null && !feedbackDisplay.isDisposed() && feedbackDisplay.getThread() != Thread.currentThread()) {
+      final boolean[] answer = new boolean[1];
+      feedbackDisplay.syncExec(new Runnable() {
+        public void run() {
+          answer[0] = showFeedback(result);
+        }
+      });
+      return answer[0];
+    }
     String serverName = biServerConnection.getName();
     String fileName = this.model.getModelName();
     switch (result) {
@@ -764,9 +976,12 @@ public class ModelServerPublish {
 
     MondrianModelExporter exporter = new MondrianModelExporter(lModel, LocalizedString.DEFAULT_LOCALE);
     String mondrianSchema = exporter.createMondrianModelXML();
+    if (model.getFileName() != null) {
+      mondrianSchema = AggregateSchemaDecorator.decorate(mondrianSchema, model.getFileName());
+    }
 
-    org.dom4j.Document schemaDoc = DocumentHelper.parseText(mondrianSchema);
-    byte schemaBytes[] = schemaDoc.asXML().getBytes();
+    // encoded once, the same bytes are written locally and sent with every upload attempt
+    byte schemaBytes[] = toUtf8Schema(mondrianSchema);
 
     if (!publishFile.exists()) {
       throw new ModelerException("Schema file does not exist"); //$NON-NLS-1$
@@ -777,41 +992,84 @@ public class ModelServerPublish {
     out.write(schemaBytes);
     out.flush();
     out.close();
-    //file to send to Jcr Repository
-    InputStream schema = new ByteArrayInputStream(schemaBytes);
+    // the catalog is bound to the datasource, publishing it against another one is a change
+    String target = "catalog:" + modelName + "@" + jndiName; //$NON-NLS-1$ //$NON-NLS-2$
+    String hash = deltaPublish ? PublishManifest.hash(schemaBytes) : null;
+    if (isUnchanged(target, hash)) {
+      return ModelServerPublish.PUBLISH_SUCCESS;
+    }
 
-    int result = publishMondrainSchema(schema, modelName, jndiName, overwriteInRepository);
+    int result = publishMondrainSchema(new ByteArrayInputStream(schemaBytes), modelName, jndiName,
+        overwriteInRepository);
     if (result != ModelServerPublish.PUBLISH_SUCCESS && result != ModelServerPublish.PUBLISH_CATALOG_EXISTS) {
       showFeedback(result);
       return result;
     }
-    result = handleModelOverwrite(jndiName, modelName, showFeedback, schemaDoc, result);
+    result = handleModelOverwrite(jndiName, modelName, showFeedback, schemaBytes, result);
+    if (result == ModelServerPublish.PUBLISH_SUCCESS) {
+      published(target, hash);
+    }
 
     return result;
   }
 
   /**
-   * convert the publish name to an inputstream to pass to Jersey
-   * @param publishModelFileName
+   * Publishes the model in <code>xmiFile</code> unless it is unchanged since it was last published
+   * @param xmiFile
    * @param domainId
-   * @throws FileNotFoundException
+   * @param catalog the catalog to point the model's report at while uploading it, <code>null</code> to upload it as is
+   * @return true if the model was published or is unchanged, false if the server did not accept it
    * @throws Exception
    */
-  private void publishMetaDatafile(String publishModelFileName, String domainId) throws FileNotFoundException,
-      Exception {
-    InputStream metadataFile = new FileInputStream(publishModelFileName);
-    publishMetaDataFile(metadataFile, domainId);
+  private boolean publishMetaDatafile(File xmiFile, String domainId, String catalog) throws Exception {
+    String target = "domain:" + domainId; //$NON-NLS-1$
+    String hash = deltaPublish ? hashUpload(xmiFile, catalog) : null;
+    if (isUnchanged(target, hash)) {
+      return true;
+    }
+    if (putMetaDataFile(createUploadEntity(xmiFile, domainId, catalog), domainId) != ModelServerPublish.PUBLISH_SUCCESS) {
+      return false;
+    }
+    published(target, hash);
+    return true;
+  }
+
+  /**
+   * @return true if content with <code>hash</code> was already published to <code>target</code> on the current
+   *         server, <code>false</code> if it has to be uploaded or <code>hash</code> is <code>null</code>
+   */
+  private boolean isUnchanged(String target, String hash) {
+    if (hash == null || !PublishManifest.forServer(biServerConnection).isUnchanged(target, hash)) {
+      return false;
+    }
+    Log.info(target + " is unchanged since it was last published, not uploading it"); //$NON-NLS-1$
+    return true;
+  }
+
+  private void published(String target, String hash) {
+    if (hash != null) {
+      PublishManifest.forServer(biServerConnection).published(target, hash);
+    }
+  }
+
+  /**
+   * Encodes a schema as UTF-8, declaring that encoding whatever the exporter declared.
+   */
+  private static byte[] toUtf8Schema(String schema) throws IOException {
+    String body = schema.trim();
+    if (body.startsWith("<?xml")) { //$NON-NLS-1$
+      body = body.substring(body.indexOf("?>") + 2).trim(); //$NON-NLS-1$
+    }
+    return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + body).getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
   }
 
   private int handleModelOverwrite(String jndiName, String modelName, boolean showFeedback,
-      org.dom4j.Document schemaDoc, int result) throws Exception {
+      byte[] schemaBytes, int result) throws Exception {
     int response = result;
     if (showFeedback) {
       if (showFeedback(result)) {
-        //Handle Overwrite the byte stream has already be read - need to re-read
-        byte schemaBytes2[] = schemaDoc.asXML().getBytes();
-        InputStream schema2 = new ByteArrayInputStream(schemaBytes2);
-        response = publishMondrainSchema(schema2, modelName, jndiName, true);
+        //Handle Overwrite the byte stream has already be read - send the same bytes again
+        response = publishMondrainSchema(new ByteArrayInputStream(schemaBytes), modelName, jndiName, true);
         showFeedback(response);
       }
     }
@@ -824,9 +1082,58 @@ public class ModelServerPublish {
    */
   public void setBiServerConnection(BiServerConnection biServerConnection) {
     this.biServerConnection = biServerConnection;
-    if (this.client != null) {
-      client.addFilter(new HTTPBasicAuthFilter(biServerConnection.getUserId(), biServerConnection.getPassword()));
+    this.client = biServerConnection == null ? null : BiServerClientRegistry.getInstance().getClient(biServerConnection);
+  }
+
+  /**
+   * Sets the listener notified of the progress of file uploads, or <code>null</code> for none
+   */
+  public void setProgressListener(PublishProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Sets the display whose UI thread shows the prompts and messages of this publisher when it publishes on another
+   * thread, see {@link XulDialogPublish#publishWithProgress}. <code>null</code> shows them on the calling thread.
+   */
+  public void setFeedbackDisplay(Display feedbackDisplay) {
+    this.feedbackDisplay = feedbackDisplay;
+  }
+
+  /**
+   * Sets who is asked whether to overwrite files that exist on the server for this publisher only, e.g. when
+   * publishing without a dialog. <code>null</code> falls back to {@link #overwriteDelegate}.
+   */
+  public void setOverwriteDelegate(PublishOverwriteDelegate overwriteDelegate) {
+    this.publisherOverwriteDelegate = overwriteDelegate;
+  }
+
+  /**
+   * Sets whether content that is unchanged since it was last published to the server is skipped, see
+   * {@link PublishManifest}. On by default; turn it off to force everything to be uploaded again.
+   */
+  public void setDeltaPublish(boolean deltaPublish) {
+    this.deltaPublish = deltaPublish;
+  }
+
+  /**
+   * Wraps an upload so its progress is reported to the progress listener. The uploads are streamed in chunks, see
+   * {@link BiServerClientRegistry#CHUNK_SIZE_PROPERTY}, so bytes read from the stream have been sent.
+   * @param length the size of the upload, -1 to estimate it from the stream
+   */
+  private InputStream trackProgress(InputStream in, String name, long length) {
+    if (progressListener == null) {
+      return in;
     }
+    if (length < 0) {
+      try {
+        // exact for the file and byte array streams the callers pass in
+        length = in.available();
+      } catch (IOException e) {
+        length = -1;
+      }
+    }
+    return new ProgressInputStream(in, name, length, progressListener);
   }
 
   /**
@@ -842,18 +1149,22 @@ public class ModelServerPublish {
   }
 
   /**
-   * 
-   * @param model
-   * @param folderTreeDepth
+   * Sets the dialog's folder tree to the top two levels of the server's repository. Deeper folders are fetched as the
+   * user expands the tree, see {@link SolutionObject#expand()}.
+   * @param dialogModel
    * @throws PublishException
    */
-  public void createSolutionTree(final XulDialogPublishModel dialogModel, final int folderTreeDepth) throws PublishException {
+  public void createSolutionTree(final XulDialogPublishModel dialogModel) throws PublishException {
     try {
-
-      RepositoryFileTreeDto tree = fetchRepositoryFileTree(null,folderTreeDepth, null, null);
+      SolutionObject.FolderLoader loader = new SolutionObject.FolderLoader() {
+        public RepositoryFileTreeDto loadFolder(String path) throws Exception {
+          return fetchRepositoryFolder(path);
+        }
+      };
+      RepositoryFileTreeDto tree = fetchRepositoryFolder(null);
       if (tree != null && tree.getFile() != null) {
         SolutionObject root = new SolutionObject();
-        root.add(new SolutionObject(tree, folderTreeDepth));
+        root.add(new SolutionObject(tree, loader));
         dialogModel.setSolutions(root);
       }
 
@@ -864,47 +1175,54 @@ public class ModelServerPublish {
   }
 
   /**
-   * Use the Jersey call to get a list of repository file and folder objects
-   * @param callback
-   * @param depth
-   * @param filter
-   * @param showHidden
+   * Use the Jersey call to get a repository folder with two levels of subfolders. Listings are cached per server, see
+   * {@link RepositoryFolderCache}; a stale listing is revalidated with a conditional GET.
+   * @param path the folder, <code>null</code> for the root folder
    */
-  private RepositoryFileTreeDto fetchRepositoryFileTree(String path, Integer depth, String filter, Boolean showHidden) {
-    RepositoryFileTreeDto fileTree = new RepositoryFileTreeDto();
-    String url = this.biServerConnection.getUrl() + "api/repo/files/"; //$NON-NLS-1$
-    String repoPath = ":";
-    if (depth == null) {
-      depth = -1;
+  private RepositoryFileTreeDto fetchRepositoryFolder(String path) throws Exception {
+    String key = path == null ? RepositoryFile.SEPARATOR : path;
+    RepositoryFolderCache cache = RepositoryFolderCache.forServer(biServerConnection);
+    RepositoryFolderCache.Entry cached = cache.get(key);
+    if (cached != null && cache.isFresh(cached)) {
+      return cached.getTree();
     }
-    if (filter == null) {
-      filter = "*"; //$NON-NLS-1$
+
+    String repoPath = ":"; //$NON-NLS-1$
+    if (path != null && path.contains(RepositoryFile.SEPARATOR)) {
+      repoPath = path.replace(RepositoryFile.SEPARATOR, ":"); //$NON-NLS-1$
+    } else if (path != null) {
+      repoPath = path;
     }
-    if (showHidden == null) {
-      showHidden = Boolean.FALSE;
+    String url = this.biServerConnection.getUrl() + "api/repo/files/" + repoPath + RepositoryFile.SEPARATOR //$NON-NLS-1$
+        + "tree?depth=2&filter=*%7CFOLDERS&showHidden=false"; //$NON-NLS-1$
+    Builder builder = client.resource(url).accept(MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_XML_TYPE)
+        .type(MediaType.TEXT_PLAIN_TYPE);
+    if (cached != null && cached.getEtag() != null) {
+      builder = builder.header("If-None-Match", cached.getEtag()); //$NON-NLS-1$
     }
-    if(path == null){
-      repoPath = ":";
-    } else {
-      repoPath = path;
+    if (cached != null && cached.getLastModified() != null) {
+      builder = builder.header("If-Modified-Since", cached.getLastModified()); //$NON-NLS-1$
     }
-   
-    if(path != null && path.contains(RepositoryFile.SEPARATOR)){
-        repoPath = path.replace(RepositoryFile.SEPARATOR,":");
-    } 
-    url = url + repoPath + RepositoryFile.SEPARATOR +"tree?depth=" + depth +
-        "&filter=" + filter + "&showHidden=" + showHidden; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$  
-    WebResource resource = client.resource(url);
+    ClientResponse resp = builder.get(ClientResponse.class);
     try {
-      String json = resource.accept(MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_XML_TYPE)
-          .type(MediaType.TEXT_PLAIN_TYPE).get(String.class);
+      if (resp.getStatus() == 304 && cached != null) {
+        cache.revalidated(cached);
+        return cached.getTree();
+      }
+      if (resp.getStatus() != 200) {
+        throw new PublishException("Unable to list " + key + ", the server returned " + resp.getStatus()); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      String json = resp.getEntity(String.class);
       ObjectMapper mapper = new ObjectMapper();
-      fileTree = (RepositoryFileTreeDto) mapper.readValue(json, new TypeReference<RepositoryFileTreeDto>() {
-      });
-    } catch (Exception e) {
-     Log.error(e.getMessage(),e);
+      RepositoryFileTreeDto fileTree = (RepositoryFileTreeDto) mapper.readValue(json,
+          new TypeReference<RepositoryFileTreeDto>() {
+          });
+      cache.put(key, fileTree, resp.getHeaders().getFirst("ETag"), //$NON-NLS-1$
+          resp.getHeaders().getFirst("Last-Modified")); //$NON-NLS-1$
+      return fileTree;
+    } finally {
+      resp.close();
     }
-    return fileTree;
   }
  
 }
@@ -0,0 +1,90 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reports the bytes read from the wrapped stream to a {@link PublishProgressListener}. As uploads are streamed, bytes
+ * read are bytes sent.
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+  /** report at most once per this many bytes, and when the stream ends */
+  private static final long REPORT_INTERVAL = 64 * 1024;
+
+  private final String name;
+
+  private final long totalBytes;
+
+  private final PublishProgressListener listener;
+
+  private long bytesRead;
+
+  private long lastReported = -1;
+
+  public ProgressInputStream(InputStream in, String name, long totalBytes, PublishProgressListener listener) {
+    super(in);
+    this.name = name;
+    this.totalBytes = totalBytes;
+    this.listener = listener;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    count(b == -1 ? -1 : 1);
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    count(n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  private void count(long n) {
+    if (n > 0) {
+      bytesRead += n;
+    }
+    if ((n < 0 && lastReported != bytesRead) || bytesRead - lastReported >= REPORT_INTERVAL
+        || (bytesRead == totalBytes && lastReported != bytesRead)) {
+      lastReported = bytesRead;
+      listener.progress(name, bytesRead, totalBytes);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.pentaho.di.core.Const;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the content hash of what was last published successfully to each location of a BI server, so unchanged
+ * artifacts don't have to be uploaded again. One manifest per server is kept in the Kettle home directory.
+ * <p>
+ * The manifest only knows what was published from this machine; {@link #clear()} forgets everything, e.g. after the
+ * content on the server was changed or deleted by someone else.
+ */
+public class PublishManifest {
+
+  private static Logger logger = LoggerFactory.getLogger(PublishManifest.class);
+
+  private static final Map<String, PublishManifest> manifests = new HashMap<String, PublishManifest>();
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+  private final File file;
+
+  private Properties hashes;
+
+  protected PublishManifest(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the manifest of <code>connection</code>'s server
+   */
+  public static synchronized PublishManifest forServer(BiServerConnection connection) {
+    String url = connection.getUrl();
+    PublishManifest manifest = manifests.get(url);
+    if (manifest == null) {
+      String name = "agile-bi-publish-" + Integer.toHexString(String.valueOf(url).hashCode()) + ".properties"; //$NON-NLS-1$ //$NON-NLS-2$
+      manifest = new PublishManifest(new File(Const.getKettleDirectory(), name));
+      manifests.put(url, manifest);
+    }
+    return manifest;
+  }
+
+  /**
+   * @return true if content with <code>hash</code> was the last to be published successfully to <code>target</code>
+   */
+  public synchronized boolean isUnchanged(String target, String hash) {
+    return hash != null && hash.equals(load().getProperty(target));
+  }
+
+  /**
+   * Records that content with <code>hash</code> was published successfully to <code>target</code>.
+   */
+  public synchronized void published(String target, String hash) {
+    load().setProperty(target, hash);
+    save();
+  }
+
+  /**
+   * Forgets what was published, so the next publish uploads everything.
+   */
+  public synchronized void clear() {
+    load().clear();
+    save();
+  }
+
+  private Properties load() {
+    if (hashes == null) {
+      hashes = new Properties();
+      if (file.exists()) {
+        InputStream in = null;
+        try {
+          in = new FileInputStream(file);
+          hashes.load(in);
+        } catch (IOException e) {
+          logger.warn("Unable to read publish manifest " + file + ", republishing everything", e); //$NON-NLS-1$ //$NON-NLS-2$
+          hashes.clear();
+        } finally {
+          close(in);
+        }
+      }
+    }
+    return hashes;
+  }
+
+  private void save() {
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      hashes.store(out, "Content last published to the server"); //$NON-NLS-1$
+    } catch (IOException e) {
+      logger.warn("Unable to write publish manifest " + file, e); //$NON-NLS-1$
+    } finally {
+      close(out);
+    }
+  }
+
+  private static void close(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+
+  public static String hash(byte[] content) {
+    MessageDigest digest = createDigest();
+    digest.update(content);
+    return toHex(digest.digest());
+  }
+
+  public static String hash(File file) throws IOException {
+    MessageDigest digest = createDigest();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+    } catch (NoSuchAlgorithmException e) {
+      // every JRE has SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
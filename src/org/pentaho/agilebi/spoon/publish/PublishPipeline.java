@@ -0,0 +1,169 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steps of a publish as a dependency graph: a step starts as soon as all the steps it depends on succeeded,
+ * so independent uploads run in parallel. A step whose dependency did not succeed is skipped.
+ * <p>
+ * A step returns <code>true</code> when it succeeded and <code>false</code> when it did not complete without an error,
+ * e.g. because the user declined to overwrite a file.
+ */
+public class PublishPipeline {
+
+  public static final int MAX_PARALLEL_STEPS = 4;
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private final Map<String, Callable<Boolean>> steps = new LinkedHashMap<String, Callable<Boolean>>();
+
+  private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+
+  /**
+   * @param dependsOn names of steps added before this one that have to succeed before it runs
+   */
+  public PublishPipeline addStep(String name, Callable<Boolean> step, String... dependsOn) {
+    if (steps.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate step " + name); //$NON-NLS-1$
+    }
+    for (String dependency : dependsOn) {
+      if (!steps.containsKey(dependency)) {
+        throw new IllegalArgumentException("Step " + name + " depends on unknown step " + dependency); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+    steps.put(name, step);
+    dependencies.put(name, Arrays.asList(dependsOn));
+    return this;
+  }
+
+  /**
+   * Runs all steps and waits for them to finish.
+   */
+  public PublishReport run() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(steps.size(), MAX_PARALLEL_STEPS)),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "publish-step-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      return run(executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  PublishReport run(ExecutorService executor) throws InterruptedException {
+    CompletionService<PublishReport.StepResult> completion =
+        new ExecutorCompletionService<PublishReport.StepResult>(executor);
+    Map<String, PublishReport.StepResult> results = new HashMap<String, PublishReport.StepResult>();
+    List<String> pending = new ArrayList<String>(steps.keySet());
+    int running = 0;
+    while (!pending.isEmpty() || running > 0) {
+      // start or skip every step whose dependencies are done
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int i = 0; i < pending.size(); i++) {
+          String name = pending.get(i);
+          Boolean ready = isReady(name, results);
+          if (ready == null) {
+            continue;
+          }
+          pending.remove(i--);
+          changed = true;
+          if (ready.booleanValue()) {
+            completion.submit(createTask(name));
+            running++;
+          } else {
+            results.put(name, new PublishReport.StepResult(name, PublishReport.Status.SKIPPED, 0, null));
+          }
+        }
+      }
+      if (running == 0) {
+        break;
+      }
+      PublishReport.StepResult result;
+      try {
+        result = completion.take().get();
+      } catch (ExecutionException e) {
+        // tasks catch everything themselves
+        throw new IllegalStateException(e.getCause());
+      }
+      running--;
+      results.put(result.getName(), result);
+    }
+
+    List<PublishReport.StepResult> ordered = new ArrayList<PublishReport.StepResult>();
+    for (String name : steps.keySet()) {
+      ordered.add(results.get(name));
+    }
+    return new PublishReport(ordered);
+  }
+
+  /**
+   * @return true if the step can run, false if it has to be skipped, null if its dependencies are still running
+   */
+  private Boolean isReady(String name, Map<String, PublishReport.StepResult> results) {
+    for (String dependency : dependencies.get(name)) {
+      PublishReport.StepResult result = results.get(dependency);
+      if (result == null) {
+        return null;
+      }
+      if (result.getStatus() != PublishReport.Status.SUCCEEDED) {
+        return Boolean.FALSE;
+      }
+    }
+    return Boolean.TRUE;
+  }
+
+  private Callable<PublishReport.StepResult> createTask(final String name) {
+    final Callable<Boolean> step = steps.get(name);
+    return new Callable<PublishReport.StepResult>() {
+      public PublishReport.StepResult call() {
+        long start = System.currentTimeMillis();
+        PublishReport.Status status;
+        Exception error = null;
+        try {
+          status = Boolean.TRUE.equals(step.call()) ? PublishReport.Status.SUCCEEDED : PublishReport.Status.NOT_COMPLETED;
+        } catch (Exception e) {
+          status = PublishReport.Status.FAILED;
+          error = e;
+        }
+        return new PublishReport.StepResult(name, status, System.currentTimeMillis() - start, error);
+      }
+    };
+  }
+}
@@ -0,0 +1,134 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome and duration of each step of a {@link PublishPipeline} run.
+ */
+public class PublishReport {
+
+  public enum Status {
+    SUCCEEDED,
+    /** the step ended without an error but did not publish, e.g. the user declined to overwrite */
+    NOT_COMPLETED,
+    FAILED,
+    /** a step this one depends on did not succeed */
+    SKIPPED
+  }
+
+  public static class StepResult {
+
+    private final String name;
+
+    private final Status status;
+
+    private final long millis;
+
+    private final Exception error;
+
+    public StepResult(String name, Status status, long millis, Exception error) {
+      this.name = name;
+      this.status = status;
+      this.millis = millis;
+      this.error = error;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    public Exception getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": " + status + " in " + millis + " ms" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+          + (error == null ? "" : " (" + error.getMessage() + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+  }
+
+  private final List<StepResult> results;
+
+  public PublishReport(List<StepResult> results) {
+    this.results = Collections.unmodifiableList(results);
+  }
+
+  /**
+   * @return the result of each step, in the order the steps were added
+   */
+  public List<StepResult> getResults() {
+    return results;
+  }
+
+  /**
+   * @return the result of step <code>name</code>, or <code>null</code> if there is no such step
+   */
+  public StepResult getResult(String name) {
+    for (StepResult result : results) {
+      if (result.getName().equals(name)) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  public boolean isSucceeded() {
+    for (StepResult result : results) {
+      if (result.getStatus() != Status.SUCCEEDED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the error of the first step that failed, or <code>null</code>
+   */
+  public Exception getFirstError() {
+    for (StepResult result : results) {
+      if (result.getError() != null) {
+        return result.getError();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (StepResult result : results) {
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(result);
+    }
+    return sb.toString();
+  }
+}
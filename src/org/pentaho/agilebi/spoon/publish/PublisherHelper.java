@@ -18,19 +18,8 @@
 package org.pentaho.agilebi.spoon.publish;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Iterator;
-
-import org.apache.commons.io.IOUtils;
-import org.dom4j.Attribute;
-import org.dom4j.Document;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
-import org.dom4j.io.XMLWriter;
+import java.util.concurrent.Callable;
+
 import org.jfree.util.Log;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
@@ -142,19 +131,10 @@ public class PublisherHelper {
           String filename = publishDialog.getFilename();
 
           try {
-             //need to create and store the XMI file in /tmp first
-            String tempXmiFilename =workspace.getModel().getName()+XMI_EXT;
-            File tempXmi = createTempFile(workspace.getFileName(), tempXmiFilename );
-            File tempF =   createTempFile(fullPathtoFile,filename);        
-
-            replaceAttributeValue("report", "catalog", workspace.getModelName(), tempXmi.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$           
-            replaceAttributeValue("report", "catalog", workspace.getModelName(), tempF.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
-            
-            
-            publisher
-              .publishToServer(
-                workspace.getModelName() + MONDRIAN_XML, databaseName, workspace.getModelName(), repositoryPath, selectedPath, publishDatasource, true, publishDialog.isExistentDatasource(), true, tempF.getAbsolutePath());
-            
+            // the file and the model are pointed at the published catalog while they are uploaded
+            publishToServer(publisher, publishDialog, workspace.getModelName(), databaseName, repositoryPath,
+                selectedPath, publishDatasource, new File(fullPathtoFile), filename, new File(workspace.getFileName()));
+
           } catch(Exception ex) {
             Log.error(ex.getLocalizedMessage(),ex);
             throw new ModelerException(ex);
@@ -175,29 +155,23 @@ public class PublisherHelper {
     return fullPathtoFile;
   }
 
-  private static String replaceAttributeValue(String aElement, String anAttribute, String aValue, String aFile)
-      throws Exception {
-
-    String originalValue = null;
-    if (aFile != null) {
-      SAXReader reader = new SAXReader();
-      Document doc = reader.read(new File(aFile));
-      Element root = doc.getRootElement();
-
-      for (Iterator<Element> i = root.elementIterator(); i.hasNext();) {
-        Element element = i.next();
-        if (element.getName().equals(aElement)) {
-          Attribute attr = element.attribute(anAttribute);
-          originalValue = attr.getValue();
-          attr.setValue(aValue);
-        }
+  /**
+   * Publishes the schema, the model and, if <code>file</code> is set, <code>file</code> as <code>fileName</code> while
+   * the publish dialog shows the progress of the uploads. The file and the model are pointed at the catalog named
+   * after the model.
+   */
+  private static void publishToServer(final ModelServerPublish publisher, XulDialogPublish publishDialog,
+      final String modelName, final String databaseName, final String repositoryPath, final String selectedPath,
+      final boolean publishDatasource, final File file, final String fileName, final File xmiFile) throws Exception {
+    final boolean existentDatasource = publishDialog.isExistentDatasource();
+    publisher.setDeltaPublish(!publishDialog.isPublishUnchanged());
+    publishDialog.publishWithProgress(publisher, new Callable<Void>() {
+      public Void call() throws Exception {
+        publisher.publishToServer(modelName + MONDRIAN_XML, databaseName, modelName, repositoryPath, selectedPath,
+            publishDatasource, true, existentDatasource, file, fileName, xmiFile, modelName);
+        return null;
       }
-
-      XMLWriter writer = new XMLWriter(new FileWriter(aFile));
-      writer.write(doc);
-      writer.close();
-    }
-    return originalValue;
+    });
   }
 
   public static String publish(ModelerWorkspace workspace, String publishingFile, int treeDepth,
@@ -258,15 +232,9 @@ public class PublisherHelper {
           }
 
           filename = publishDialog.getFilename();
-          String tempFilename = filename + extension;
 
-          File tempF = createTempFile(publishingFile, tempFilename);
-         
-          replaceAttributeValue("report", "catalog", workspace.getModelName(), tempF.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
-         
-          publisher
-            .publishToServer(
-              workspace.getModelName() + MONDRIAN_XML, databaseName, workspace.getModelName(), repositoryPath, selectedPath, publishDatasource, true, publishDialog.isExistentDatasource(), false, tempF.getAbsolutePath());
+          publishToServer(publisher, publishDialog, workspace.getModelName(), databaseName, repositoryPath,
+              selectedPath, publishDatasource, null, null, new File(publishingFile));
 
         }
              
@@ -285,29 +253,6 @@ public class PublisherHelper {
     return filename;
   }
 
-  /**
-   * Copy the source file to a local input File stream
-   * @param publishingFile (full path to location of file)
-   * @param tempFilename (this is just the filename and extension)
-   * @return
-   * @throws IOException
-   * @throws FileNotFoundException
-   */
-  private static File createTempFile(String publishingFile, String tempFilename) throws IOException,
-      FileNotFoundException {
-    File tempDir = new File("tmp");
-    if(tempDir.exists() == false){
-      tempDir.mkdir();
-    }
-    File tempF = new File(tempDir,tempFilename);
-    if(tempF.exists() == false){
-      tempF.createNewFile();
-    }
-    tempF.deleteOnExit();
-    IOUtils.copy(new FileInputStream(new File(publishingFile)), new FileOutputStream(tempF));
-    return tempF;
-  }
-
   /**
    * Reports will be removed in future release
    * @param report
@@ -402,8 +347,21 @@ public class PublisherHelper {
             }
             tempF.deleteOnExit();
             BundleWriter.writeReportToZipFile(report, tempF);
-            publisher.publishPrptToServer(theXmiPublishingPath, thePrptPublishingPath, publishDatasource,
-                publishDialog.isExistentDatasource(), publishDialog.isPublishXmi(), xmiFile, tempF.getAbsolutePath());
+            final String xmiPath = theXmiPublishingPath;
+            final String prptPath = thePrptPublishingPath;
+            final boolean publishXmiDatasource = publishDatasource;
+            final boolean existentDatasource = publishDialog.isExistentDatasource();
+            final boolean publishXmi = publishDialog.isPublishXmi();
+            final String xmi = xmiFile;
+            final String prpt = tempF.getAbsolutePath();
+            final ModelServerPublish prptPublisher = publisher;
+            publishDialog.publishWithProgress(publisher, new Callable<Void>() {
+              public Void call() throws Exception {
+                prptPublisher.publishPrptToServer(xmiPath, prptPath, publishXmiDatasource, existentDatasource,
+                    publishXmi, xmi, prpt);
+                return null;
+              }
+            });
 
           } catch (Exception e) {
             throw new ModelerException(e);
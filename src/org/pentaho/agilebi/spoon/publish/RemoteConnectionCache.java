@@ -0,0 +1,127 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.database.model.DatabaseConnection;
+
+/**
+ * Caches the database connections defined on a BI server, so that opening the publish dialog and publishing don't
+ * ask the server for them each time. Entries are used for <code>agilebi.publish.connectionCacheTtl</code>
+ * milliseconds; {@link #clear()} forces the next lookups to go to the server.
+ * <p>
+ * Connections the server doesn't have are cached too, as <code>null</code>.
+ */
+public class RemoteConnectionCache {
+
+  public static final String TTL_PROPERTY = "agilebi.publish.connectionCacheTtl"; //$NON-NLS-1$
+
+  public static final long DEFAULT_TTL = 60 * 1000;
+
+  private static final Map<String, RemoteConnectionCache> caches = new HashMap<String, RemoteConnectionCache>();
+
+  private final long ttl;
+
+  private List<DatabaseConnection> connections;
+
+  private long connectionsFetched;
+
+  private final Map<String, DatabaseConnection> connectionsByName = new HashMap<String, DatabaseConnection>();
+
+  private final Map<String, Long> connectionsByNameFetched = new HashMap<String, Long>();
+
+  protected RemoteConnectionCache(long ttl) {
+    this.ttl = ttl;
+  }
+
+  /**
+   * @return the cache of <code>connection</code>'s server as seen by its user
+   */
+  public static synchronized RemoteConnectionCache forServer(BiServerConnection connection) {
+    // the connections a user may see depend on the user
+    String key = connection.getUrl() + "\n" + connection.getUserId(); //$NON-NLS-1$
+    RemoteConnectionCache cache = caches.get(key);
+    if (cache == null) {
+      cache = new RemoteConnectionCache(Long.getLong(TTL_PROPERTY, DEFAULT_TTL));
+      caches.put(key, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * @return the server's connections, or <code>null</code> if they are not cached or the cache expired
+   */
+  public synchronized List<DatabaseConnection> getConnections() {
+    return connections != null && isFresh(connectionsFetched) ? connections : null;
+  }
+
+  public synchronized void putConnections(List<DatabaseConnection> connections) {
+    this.connections = connections;
+    this.connectionsFetched = now();
+  }
+
+  /**
+   * @return true if the connection named <code>name</code> is cached and the cache didn't expire
+   */
+  public synchronized boolean containsConnection(String name) {
+    Long fetched = connectionsByNameFetched.get(name);
+    return fetched != null && isFresh(fetched);
+  }
+
+  /**
+   * @return the cached connection named <code>name</code>, <code>null</code> if the server doesn't have it; only
+   *         meaningful if {@link #containsConnection(String)}
+   */
+  public synchronized DatabaseConnection getConnection(String name) {
+    return connectionsByName.get(name);
+  }
+
+  /**
+   * @param connection the connection named <code>name</code>, <code>null</code> if the server doesn't have it
+   */
+  public synchronized void putConnection(String name, DatabaseConnection connection) {
+    connectionsByName.put(name, connection);
+    connectionsByNameFetched.put(name, now());
+  }
+
+  /**
+   * Forgets the connection named <code>name</code> and the list of connections, after adding or updating it.
+   */
+  public synchronized void invalidate(String name) {
+    connectionsByName.remove(name);
+    connectionsByNameFetched.remove(name);
+    connections = null;
+  }
+
+  public synchronized void clear() {
+    connections = null;
+    connectionsByName.clear();
+    connectionsByNameFetched.clear();
+  }
+
+  private boolean isFresh(long fetched) {
+    return now() - fetched < ttl;
+  }
+
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,126 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
+
+/**
+ * Caches the folder listings fetched from a BI server's repository so that reopening the publish dialog and
+ * browsing back and forth doesn't fetch the same folders again. A listing is used without asking the server for
+ * <code>agilebi.publish.folderCacheTtl</code> milliseconds; after that it is revalidated with the validators the
+ * server sent along, if any. Each user of a server has a cache of its own, as the folders a user may see depend on the
+ * user.
+ */
+public class RepositoryFolderCache {
+
+  public static final String TTL_PROPERTY = "agilebi.publish.folderCacheTtl"; //$NON-NLS-1$
+
+  public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+  private static final Map<String, RepositoryFolderCache> caches = new HashMap<String, RepositoryFolderCache>();
+
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  private final long ttl;
+
+  protected RepositoryFolderCache(long ttl) {
+    this.ttl = ttl;
+  }
+
+  /**
+   * @return the cache of <code>connection</code>'s server as seen by its user
+   */
+  public static synchronized RepositoryFolderCache forServer(BiServerConnection connection) {
+    // the folders a user may see depend on the user
+    String key = connection.getUrl() + "\n" + connection.getUserId(); //$NON-NLS-1$
+    RepositoryFolderCache cache = caches.get(key);
+    if (cache == null) {
+      cache = new RepositoryFolderCache(Long.getLong(TTL_PROPERTY, DEFAULT_TTL));
+      caches.put(key, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * @return the cached listing of <code>path</code>, fresh or not, or <code>null</code> if there is none
+   */
+  public synchronized Entry get(String path) {
+    return entries.get(path);
+  }
+
+  /**
+   * @return true if <code>entry</code> can be used without revalidating it
+   */
+  public synchronized boolean isFresh(Entry entry) {
+    return now() - entry.fetched < ttl;
+  }
+
+  public synchronized Entry put(String path, RepositoryFileTreeDto tree, String etag, String lastModified) {
+    Entry entry = new Entry(tree, etag, lastModified, now());
+    entries.put(path, entry);
+    return entry;
+  }
+
+  /**
+   * Marks <code>entry</code> as fresh again, after the server confirmed it didn't change.
+   */
+  public synchronized void revalidated(Entry entry) {
+    entry.fetched = now();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  public static class Entry {
+
+    private final RepositoryFileTreeDto tree;
+
+    private final String etag;
+
+    private final String lastModified;
+
+    private long fetched;
+
+    Entry(RepositoryFileTreeDto tree, String etag, String lastModified, long fetched) {
+      this.tree = tree;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.fetched = fetched;
+    }
+
+    public RepositoryFileTreeDto getTree() {
+      return tree;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+  }
+}
@@ -22,14 +22,30 @@ import java.util.List;
 import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
 import org.pentaho.ui.xul.util.AbstractModelNode;
 
+/**
+ * A folder of the BI server's repository in the publish dialog's folder tree. Folders created with a
+ * {@link FolderLoader} only hold what has been fetched so far; {@link #expand()} fetches the rest of the folder's
+ * subtree when the user gets to it.
+ */
 public class SolutionObject extends AbstractModelNode<SolutionObject> {
 
+  /**
+   * Fetches a repository folder and two levels of its subfolders.
+   */
+  public interface FolderLoader {
+    RepositoryFileTreeDto loadFolder(String path) throws Exception;
+  }
+
   private static final long serialVersionUID = -2910390314706330209L;
 
   private String name;
 
   private RepositoryFileTreeDto reposFileTree;
 
+  private FolderLoader loader;
+
+  private boolean expanded;
+
   //private BiPlatformRepositoryClientNavigationService navigationService;
 
   public SolutionObject() {
@@ -58,6 +74,83 @@ public class SolutionObject extends AbstractModelNode<SolutionObject> {
     }
   }
 
+  /**
+   * Creates the folder and the subfolders contained in <code>reposFileTree</code>; deeper folders are fetched through
+   * <code>loader</code> on {@link #expand()}.
+   */
+  public SolutionObject(RepositoryFileTreeDto reposFileTree, FolderLoader loader) {
+    this.reposFileTree = reposFileTree;
+    this.name = reposFileTree.getFile().getName();
+    this.loader = loader;
+    addFolders(reposFileTree);
+  }
+
+  /**
+   * Fetches the subfolders of this folder's children, so they can be expanded in turn. Does nothing if that was done
+   * before or the folder isn't loaded lazily.
+   */
+  public void expand() throws Exception {
+    if (expanded || loader == null) {
+      return;
+    }
+    addFetched(fetch());
+  }
+
+  /**
+   * Fetches the subfolders of this folder's children without adding them, so the call can be made off the UI thread.
+   * @return the folder tree to pass to {@link #addFetched}, <code>null</code> if there is nothing to fetch
+   */
+  public RepositoryFileTreeDto fetch() throws Exception {
+    if (expanded || loader == null) {
+      return null;
+    }
+    return loader.loadFolder(getPath());
+  }
+
+  /**
+   * Adds the subfolders returned by {@link #fetch()} and marks the folder as expanded.
+   */
+  public void addFetched(RepositoryFileTreeDto tree) {
+    expanded = true;
+    if (tree != null) {
+      addFolders(tree);
+    }
+  }
+
+  public boolean isExpanded() {
+    return expanded;
+  }
+
+  /**
+   * Adds the folders of <code>tree</code> that are missing, recursively.
+   */
+  private void addFolders(RepositoryFileTreeDto tree) {
+    List<RepositoryFileTreeDto> children = tree.getChildren();
+    if (children == null) {
+      return;
+    }
+    for (RepositoryFileTreeDto childTree : children) {
+      if (!childTree.getFile().isFolder()) {
+        continue;
+      }
+      SolutionObject child = findChild(childTree.getFile().getPath());
+      if (child == null) {
+        add(new SolutionObject(childTree, loader));
+      } else {
+        child.addFolders(childTree);
+      }
+    }
+  }
+
+  private SolutionObject findChild(String path) {
+    for (SolutionObject child : this) {
+      if (path != null && path.equals(child.getPath())) {
+        return child;
+      }
+    }
+    return null;
+  }
+
   @Override
   public boolean add(SolutionObject child) {
     child.setParent(this);
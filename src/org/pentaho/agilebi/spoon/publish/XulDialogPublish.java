@@ -17,7 +17,14 @@
 
 package org.pentaho.agilebi.spoon.publish;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.agilebi.spoon.AbstractSwtXulDialogController;
 import org.pentaho.di.core.Const;
@@ -25,6 +32,7 @@ import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
 import org.pentaho.ui.xul.XulComponent;
 import org.pentaho.ui.xul.XulException;
 import org.pentaho.ui.xul.binding.Binding;
@@ -62,8 +70,6 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   
   private final IBiServerConfigUtil biServerConfigUtil = PentahoSystem.get(IBiServerConfigUtil.class);
   
-  private int folderTreeDepth = 99;
-  
   private BindingFactory bf = new SwtBindingFactory();
   
   private XulListbox serverMenuList;
@@ -76,7 +82,7 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   @SuppressWarnings("unused")
   private XulButton okButton;
     
-  private XulCheckbox publishDatasourceCheck, publishModelCheck;
+  private XulCheckbox publishDatasourceCheck, publishModelCheck, publishUnchangedCheck;
   
   private BiServerConfig biServerConfig;
   
@@ -90,6 +96,8 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   private boolean checkDatasources = false;
   
   private boolean accepted = false;
+
+  private boolean publishUnchanged = false;
   
   private boolean datasourceExists = false;
  
@@ -159,6 +167,7 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
     okButton = (XulButton) document.getElementById("publish_accept"); //$NON-NLS-1$
     publishDatasourceCheck = (XulCheckbox) document.getElementById("publishDatasource"); //$NON-NLS-1$
     publishModelCheck = (XulCheckbox) document.getElementById("publishModel"); //$NON-NLS-1$
+    publishUnchangedCheck = (XulCheckbox) document.getElementById("publishUnchanged"); //$NON-NLS-1$
     biserverDialog = (XulDialog) document.getElementById("biserverEditDialog");
     folderTextbox.setDisabled(true);
     folderGroupBox = (XulGroupbox) document.getElementById("folderGroupBox");
@@ -318,6 +327,35 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
     }
   }
   
+  /**
+   * Fetches the subfolders of the selected folder's children, so the tree can be browsed one level further.
+   */
+  public void folderSelected(){
+    final SolutionObject selected = (SolutionObject) folderTree.getSelectedItem();
+    if (selected == null || selected.isExpanded()) {
+      return;
+    }
+    // listing the folder is a server round trip, keep it off the UI thread
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        final RepositoryFileTreeDto tree;
+        try {
+          tree = selected.fetch();
+        } catch (Exception e) {
+          logger.error("Error browsing " + selected.getPath(), e); //$NON-NLS-1$
+          return;
+        }
+        document.invokeLater(new Runnable() {
+          public void run() {
+            selected.addFetched(tree);
+          }
+        });
+      }
+    }, "publish-folder-browser"); //$NON-NLS-1$
+    thread.setDaemon(true);
+    thread.start();
+  }
+
   public void folderAccept(){
     this.publishModel.setSelectedFolder((SolutionObject) folderTree.getSelectedItem());
     folderSelectionDialog.hide();
@@ -331,6 +369,7 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   public void okClick() {
 	final boolean isPublishDataSourceCheck = publishDatasourceCheck.isChecked();
     accepted = true;
+    publishUnchanged = publishUnchangedCheck.isChecked();
     if(publishModel.isConnected() == false){
       try{
         XulWaitBox wait = (XulWaitBox) document.createElement("waitbox");
@@ -384,10 +423,12 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
     try {
       publisher = new ModelServerPublish();
       publisher.setBiServerConnection(publishModel.getSelectedConnection());
+      // connecting from the dialog compares against what the server has now, not what it had when last asked
+      publisher.refreshRemoteConnections();
       checkDatasources();
       SolutionObject selectedFolder = null;
       if(publishModel.isGroupBoxFolderVisible()){
-        publisher.createSolutionTree(this.publishModel, folderTreeDepth);
+        publisher.createSolutionTree(this.publishModel);
         selectedFolder = this.publishModel.getSolutions();
       }
       publishModel.setSelectedFolder(selectedFolder);
@@ -542,6 +583,14 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
     return accepted;
   }
 
+  /**
+   * @return true if the user asked to upload content even though it is unchanged since it was last published, for
+   *         instance because it was edited or deleted on the server since
+   */
+  public boolean isPublishUnchanged() {
+    return publishUnchanged;
+  }
+
   public String getPath() {
    
    return publishModel.getPath();
@@ -610,7 +659,72 @@ public class XulDialogPublish extends AbstractSwtXulDialogController implements
   }
   
 
-  public boolean handleOverwriteNotification(String objName) {
+  /**
+   * Runs <code>publish</code> in the background while a progress dialog shows the uploads of <code>publisher</code>.
+   * Blocks, keeping the UI responsive, until the publish finished.
+   * @return the result of <code>publish</code>
+   */
+  public <T> T publishWithProgress(final ModelServerPublish publisher, final Callable<T> publish) throws Exception {
+    final Object[] result = new Object[1];
+    publisher.setFeedbackDisplay(getShell().getDisplay());
+    try {
+      new ProgressMonitorDialog(getShell()).run(true, false, new IRunnableWithProgress() {
+        public void run(final IProgressMonitor monitor) throws InvocationTargetException {
+          monitor.beginTask(BaseMessages.getString(XulDialogPublish.class, "Publish.Progress.Title"), //$NON-NLS-1$
+              IProgressMonitor.UNKNOWN);
+          publisher.setProgressListener(new PublishProgressListener() {
+            public void progress(String name, long bytesSent, long totalBytes) {
+              monitor.subTask(formatProgress(name, bytesSent, totalBytes));
+            }
+          });
+          try {
+            result[0] = publish.call();
+          } catch (Exception e) {
+            throw new InvocationTargetException(e);
+          } finally {
+            publisher.setProgressListener(null);
+            monitor.done();
+          }
+        }
+      });
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getTargetException();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    } finally {
+      publisher.setFeedbackDisplay(null);
+    }
+    @SuppressWarnings("unchecked")
+    T typed = (T) result[0];
+    return typed;
+  }
+
+  static String formatProgress(String name, long bytesSent, long totalBytes) {
+    String sent = formatSize(bytesSent);
+    if (totalBytes <= 0) {
+      return BaseMessages.getString(XulDialogPublish.class, "Publish.Progress.Unknown", name, sent); //$NON-NLS-1$
+    }
+    return BaseMessages.getString(XulDialogPublish.class, "Publish.Progress.Known", name, sent, //$NON-NLS-1$
+        formatSize(totalBytes), String.valueOf(Math.min(100, bytesSent * 100 / totalBytes)));
+  }
+
+  private static String formatSize(long bytes) {
+    if (bytes < 1024 * 1024) {
+      return (bytes / 1024) + " KB"; //$NON-NLS-1$
+    }
+    return String.format("%.1f MB", bytes / (1024.0 * 1024.0)); //$NON-NLS-1$
+  }
+
+  public boolean handleOverwriteNotification(final String objName) {
+    if (Display.getCurrent() == null) {
+      // publishing runs in the background, see publishWithProgress
+      final boolean[] answer = new boolean[1];
+      getShell().getDisplay().syncExec(new Runnable() {
+        public void run() {
+          answer[0] = handleOverwriteNotification(objName);
+        }
+      });
+      return answer[0];
+    }
     try {
       XulConfirmBox confirm = (XulConfirmBox) document.createElement("confirmbox");
       confirm.setModalParent(this.getDialog().getRootObject());
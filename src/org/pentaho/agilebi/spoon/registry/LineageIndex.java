@@ -0,0 +1,245 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.IMetadataRegistry;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.Verb;
+
+/**
+ * In-memory forward and reverse adjacency lists over the links of a metadata registry, for impact analysis without
+ * scanning the registry's link list.
+ * <p>
+ * Links are stored as recorded (subject to object), but the traversals follow the direction data flows: a
+ * transformation that {@link Verb#VERB_POPULATES populates} a table feeds that table, while a view that
+ * {@link Verb#VERB_USES uses} a model is fed by that model. So {@link #getDownstream(String, String)} of a
+ * transformation returns the tables it populates, the models built on those tables and the views and reports that use
+ * those models.
+ */
+public class LineageIndex {
+
+  /** Verbs whose subject feeds its object, all other verbs are read as the object feeding the subject. */
+  private static final Set<String> FLOW_VERBS = new HashSet<String>(Collections.singleton(Verb.VERB_POPULATES.getId()));
+
+  private final Map<String, Entity> entities = new HashMap<String, Entity>();
+
+  private final Map<String, Set<Edge>> forward = new HashMap<String, Set<Edge>>();
+
+  private final Map<String, Set<Edge>> reverse = new HashMap<String, Set<Edge>>();
+
+  private int linkCount;
+
+  /**
+   * Builds an index over the links already in <code>registry</code>.
+   */
+  public static LineageIndex build(IMetadataRegistry registry) {
+    LineageIndex index = new LineageIndex();
+    index.addAll(registry);
+    return index;
+  }
+
+  /**
+   * @return the registry's live index if it keeps one, otherwise a snapshot built from its links
+   */
+  public static LineageIndex forRegistry(IMetadataRegistry registry) {
+    if (registry instanceof WriteBehindRegistry) {
+      return ((WriteBehindRegistry) registry).getLineageIndex();
+    }
+    return build(registry);
+  }
+
+  static String key(String id, String typeId) {
+    return typeId + '|' + id;
+  }
+
+  /**
+   * Adds the links of <code>registry</code> and the entities they connect.
+   */
+  public synchronized void addAll(IMetadataRegistry registry) {
+    for (Link link : registry.getLinks()) {
+      addEntity(registry.getEntity(link.getSubjectId(), link.getSubjectTypeId()));
+      addEntity(registry.getEntity(link.getObjectId(), link.getObjectTypeId()));
+      addLink(link);
+    }
+  }
+
+  public synchronized void addEntity(Entity entity) {
+    if (entity != null) {
+      entities.put(key(entity.getId(), entity.getTypeId()), entity);
+    }
+  }
+
+  public synchronized void addLink(Link link) {
+    String subject = key(link.getSubjectId(), link.getSubjectTypeId());
+    String object = key(link.getObjectId(), link.getObjectTypeId());
+    ensureEntity(subject, link.getSubjectId(), link.getSubjectTypeId());
+    ensureEntity(object, link.getObjectId(), link.getObjectTypeId());
+    if (edges(forward, subject).add(new Edge(link.getVerbId(), object))) {
+      edges(reverse, object).add(new Edge(link.getVerbId(), subject));
+      linkCount++;
+    }
+  }
+
+  public synchronized void clear() {
+    entities.clear();
+    forward.clear();
+    reverse.clear();
+    linkCount = 0;
+  }
+
+  public synchronized int getLinkCount() {
+    return linkCount;
+  }
+
+  public synchronized Entity getEntity(String id, String typeId) {
+    return entities.get(key(id, typeId));
+  }
+
+  /**
+   * @return the objects of the links whose subject is the given entity, optionally restricted to one verb
+   */
+  public synchronized List<Entity> getObjects(String id, String typeId, Verb verb) {
+    return neighbours(forward.get(key(id, typeId)), verb);
+  }
+
+  /**
+   * @return the subjects of the links whose object is the given entity, optionally restricted to one verb
+   */
+  public synchronized List<Entity> getSubjects(String id, String typeId, Verb verb) {
+    return neighbours(reverse.get(key(id, typeId)), verb);
+  }
+
+  /**
+   * @return every entity fed, directly or transitively, by the given entity, nearest first
+   */
+  public synchronized List<Entity> getDownstream(String id, String typeId) {
+    return traverse(key(id, typeId), true);
+  }
+
+  /**
+   * @return every entity feeding, directly or transitively, the given entity, nearest first
+   */
+  public synchronized List<Entity> getUpstream(String id, String typeId) {
+    return traverse(key(id, typeId), false);
+  }
+
+  /**
+   * @return the downstream entities of the given type, e.g. the Analyzer views affected by a table
+   */
+  public List<Entity> getDownstream(String id, String typeId, String resultTypeId) {
+    List<Entity> result = new ArrayList<Entity>();
+    for (Entity entity : getDownstream(id, typeId)) {
+      if (resultTypeId.equals(entity.getTypeId())) {
+        result.add(entity);
+      }
+    }
+    return result;
+  }
+
+  private List<Entity> traverse(String start, boolean downstream) {
+    Set<String> visited = new LinkedHashSet<String>();
+    visited.add(start);
+    LinkedList<String> queue = new LinkedList<String>();
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      String current = queue.removeFirst();
+      // data flows along forward edges of flow verbs and reverse edges of everything else
+      addFlow(forward.get(current), downstream, visited, queue);
+      addFlow(reverse.get(current), !downstream, visited, queue);
+    }
+    visited.remove(start);
+    List<Entity> result = new ArrayList<Entity>(visited.size());
+    for (String key : visited) {
+      result.add(entities.get(key));
+    }
+    return result;
+  }
+
+  private static void addFlow(Set<Edge> edges, boolean flowVerbs, Set<String> visited, LinkedList<String> queue) {
+    if (edges == null) {
+      return;
+    }
+    for (Edge edge : edges) {
+      if (FLOW_VERBS.contains(edge.verbId) == flowVerbs && visited.add(edge.target)) {
+        queue.add(edge.target);
+      }
+    }
+  }
+
+  private List<Entity> neighbours(Set<Edge> edges, Verb verb) {
+    List<Entity> result = new ArrayList<Entity>();
+    if (edges != null) {
+      for (Edge edge : edges) {
+        if (verb == null || verb.getId().equals(edge.verbId)) {
+          result.add(entities.get(edge.target));
+        }
+      }
+    }
+    return result;
+  }
+
+  private void ensureEntity(String key, String id, String typeId) {
+    if (!entities.containsKey(key)) {
+      entities.put(key, new Entity(id, id, typeId));
+    }
+  }
+
+  private static Set<Edge> edges(Map<String, Set<Edge>> map, String key) {
+    Set<Edge> edges = map.get(key);
+    if (edges == null) {
+      edges = new LinkedHashSet<Edge>();
+      map.put(key, edges);
+    }
+    return edges;
+  }
+
+  private static class Edge {
+    private final String verbId;
+    private final String target;
+
+    Edge(String verbId, String target) {
+      this.verbId = verbId;
+      this.target = target;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Edge)) {
+        return false;
+      }
+      Edge other = (Edge) obj;
+      return target.equals(other.target) && (verbId == null ? other.verbId == null : verbId.equals(other.verbId));
+    }
+
+    @Override
+    public int hashCode() {
+      return target.hashCode() * 31 + (verbId == null ? 0 : verbId.hashCode());
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.registry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.OrderedFileRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link OrderedFileRegistry} that does not rewrite the registry file on every {@link #commit()}.
+ * <p>
+ * Entities and links added since the last commit are handed to a background thread which appends them to a journal
+ * next to the registry file. The full registry file is only rewritten (compacted) once the journal holds
+ * {@link #DEFAULT_COMPACT_THRESHOLD} records, and on {@link #close()}. On {@link #init()} a journal left behind by a
+ * crash is replayed over the registry file and compacted.
+ */
+public class WriteBehindRegistry extends OrderedFileRegistry {
+
+  private static Logger logger = LoggerFactory.getLogger(WriteBehindRegistry.class);
+
+  public static final int DEFAULT_COMPACT_THRESHOLD = 500;
+
+  public static final String JOURNAL_SUFFIX = ".journal"; //$NON-NLS-1$
+
+  static final String ENTITY_RECORD = "E"; //$NON-NLS-1$
+
+  static final String LINK_RECORD = "L"; //$NON-NLS-1$
+
+  private final File journalFile;
+
+  private final int compactThreshold;
+
+  private final ExecutorService writer;
+
+  private final LineageIndex lineageIndex = new LineageIndex();
+
+  /** records added since the last commit, guarded by this */
+  private List<String> pending = new ArrayList<String>();
+
+  /** records in the journal file, only touched by the writer thread */
+  private int journalRecords;
+
+  public WriteBehindRegistry(String filePath) {
+    this(filePath, DEFAULT_COMPACT_THRESHOLD);
+  }
+
+  public WriteBehindRegistry(String filePath, int compactThreshold) {
+    setFilePath(filePath);
+    this.journalFile = new File(filePath + JOURNAL_SUFFIX);
+    this.compactThreshold = compactThreshold;
+    this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "metadata-registry-writer"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public void init() throws Exception {
+    super.init();
+    synchronized (this) {
+      // whatever the file load added is already on disk
+      pending.clear();
+    }
+    if (journalFile.exists()) {
+      int replayed = replayJournal();
+      logger.info("Replayed " + replayed + " metadata registry journal records"); //$NON-NLS-1$ //$NON-NLS-2$
+      compact();
+    }
+    lineageIndex.clear();
+    lineageIndex.addAll(this);
+  }
+
+  @Override
+  public synchronized void addEntity(Entity entity) {
+    super.addEntity(entity);
+    lineageIndex.addEntity(entity);
+    pending.add(toRecord(entity));
+  }
+
+  @Override
+  public synchronized void addLink(Link link) {
+    super.addLink(link);
+    lineageIndex.addLink(link);
+    pending.add(toRecord(link));
+  }
+
+  /**
+   * Queues the changes made since the last commit for the journal and returns without touching the disk.
+   */
+  @Override
+  public void commit() {
+    final List<String> records;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      records = pending;
+      pending = new ArrayList<String>();
+    }
+    writer.execute(new Runnable() {
+      public void run() {
+        try {
+          appendToJournal(records);
+          if (journalRecords >= compactThreshold) {
+            compact();
+          }
+        } catch (Exception e) {
+          logger.error("Could not write metadata registry", e); //$NON-NLS-1$
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits for the queued commits and writes the full registry file.
+   */
+  public void flush() throws Exception {
+    commit();
+    Future<?> done = writer.submit(new Runnable() {
+      public void run() {
+        try {
+          compact();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    done.get();
+  }
+
+  /**
+   * Flushes and stops the writer thread. Commits made after this are lost.
+   */
+  public void close() {
+    try {
+      flush();
+    } catch (Exception e) {
+      logger.error("Could not write metadata registry", e); //$NON-NLS-1$
+    } finally {
+      writer.shutdown();
+      try {
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return the adjacency index over this registry's links, kept up to date as links are added
+   */
+  public LineageIndex getLineageIndex() {
+    return lineageIndex;
+  }
+
+  public File getJournalFile() {
+    return journalFile;
+  }
+
+  private void appendToJournal(List<String> records) throws IOException {
+    FileOutputStream out = new FileOutputStream(journalFile, true);
+    try {
+      Writer w = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+      for (String record : records) {
+        w.write(record);
+        w.write('\n');
+      }
+      w.flush();
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    journalRecords += records.size();
+  }
+
+  /**
+   * Rewrites the registry file from memory and drops the journal.
+   */
+  private void compact() throws Exception {
+    synchronized (this) {
+      super.commit();
+    }
+    if (journalFile.exists() && !journalFile.delete()) {
+      logger.warn("Could not delete metadata registry journal " + journalFile); //$NON-NLS-1$
+    }
+    journalRecords = 0;
+  }
+
+  private int replayJournal() throws IOException {
+    int count = 0;
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8")); //$NON-NLS-1$
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = split(line);
+        if (ENTITY_RECORD.equals(fields[0]) && fields.length == 4) {
+          super.addEntity(new Entity(fields[1], fields[2], fields[3]));
+          count++;
+        } else if (LINK_RECORD.equals(fields[0]) && fields.length == 6) {
+          Entity subject = getEntity(fields[1], fields[2]);
+          Entity object = getEntity(fields[4], fields[5]);
+          if (subject != null && object != null) {
+            super.addLink(new Link(subject, getVerb(fields[3]), object));
+            count++;
+          }
+        } else {
+          // most likely the last record of a write interrupted by a crash
+          logger.warn("Skipping malformed metadata registry journal record: " + line); //$NON-NLS-1$
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return count;
+  }
+
+  static String toRecord(Entity entity) {
+    return join(ENTITY_RECORD, entity.getId(), entity.getTitle(), entity.getTypeId());
+  }
+
+  static String toRecord(Link link) {
+    return join(LINK_RECORD, link.getSubjectId(), link.getSubjectTypeId(), link.getVerbId(), link.getObjectId(),
+        link.getObjectTypeId());
+  }
+
+  /**
+   * Joins the fields with tabs, escaping tabs, line breaks and backslashes inside them.
+   */
+  static String join(String... fields) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        sb.append('\t');
+      }
+      String field = fields[i] == null ? "" : fields[i]; //$NON-NLS-1$
+      for (int j = 0; j < field.length(); j++) {
+        char c = field.charAt(j);
+        switch (c) {
+          case '\\':
+            sb.append("\\\\"); //$NON-NLS-1$
+            break;
+          case '\t':
+            sb.append("\\t"); //$NON-NLS-1$
+            break;
+          case '\n':
+            sb.append("\\n"); //$NON-NLS-1$
+            break;
+          case '\r':
+            sb.append("\\r"); //$NON-NLS-1$
+            break;
+          default:
+            sb.append(c);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  static String[] split(String record) {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < record.length(); i++) {
+      char c = record.charAt(i);
+      if (c == '\t') {
+        fields.add(sb.toString());
+        sb.setLength(0);
+      } else if (c == '\\' && i + 1 < record.length()) {
+        char next = record.charAt(++i);
+        sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+      } else {
+        sb.append(c);
+      }
+    }
+    fields.add(sb.toString());
+    return fields.toArray(new String[fields.size()]);
+  }
+}
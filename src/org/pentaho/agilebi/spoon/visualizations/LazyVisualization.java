@@ -0,0 +1,150 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations;
+
+import java.util.Locale;
+
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.di.core.EngineMetaInterface;
+import org.w3c.dom.Node;
+
+/**
+ * Stands in for a visualization that has not been loaded yet. Descriptive calls are answered from its
+ * {@link VisualizationDescriptor}; anything that needs the real visualization loads it through the
+ * {@link VisualizationManager} on first use.
+ */
+public class LazyVisualization implements IVisualization {
+
+  private final VisualizationManager manager;
+
+  private final VisualizationDescriptor descriptor;
+
+  private volatile IVisualization delegate;
+
+  public LazyVisualization(VisualizationManager manager, VisualizationDescriptor descriptor) {
+    this(manager, descriptor, null);
+  }
+
+  public LazyVisualization(VisualizationManager manager, VisualizationDescriptor descriptor, IVisualization loaded) {
+    this.manager = manager;
+    this.descriptor = descriptor;
+    this.delegate = loaded;
+  }
+
+  public VisualizationDescriptor getDescriptor() {
+    return descriptor;
+  }
+
+  public boolean isLoaded() {
+    return delegate != null;
+  }
+
+  /**
+   * @return the real visualization, loading it if needed
+   */
+  public synchronized IVisualization getVisualization() {
+    if (delegate == null) {
+      delegate = manager.instantiate(descriptor);
+    }
+    return delegate;
+  }
+
+  public String getTitle() {
+    return delegate != null ? delegate.getTitle() : descriptor.getTitle();
+  }
+
+  public void setTitle(String aDescription) {
+    getVisualization().setTitle(aDescription);
+  }
+
+  public void setOrder(int order) {
+    getVisualization().setOrder(order);
+  }
+
+  public int getOrder() {
+    return delegate != null ? delegate.getOrder() : descriptor.getOrder();
+  }
+
+  public void createVisualizationFromModel(ModelerWorkspace model, boolean tempModel) {
+    getVisualization().createVisualizationFromModel(model, tempModel);
+  }
+
+  public String getExtension() {
+    return delegate != null ? delegate.getExtension() : descriptor.getExtension();
+  }
+
+  public String getTabIconLocation() {
+    return delegate != null ? delegate.getTabIconLocation() : descriptor.getTabIconLocation();
+  }
+
+  public String getId() {
+    return delegate != null ? delegate.getId() : descriptor.getId();
+  }
+
+  public void setCaller(String callerId) {
+    getVisualization().setCaller(callerId);
+  }
+
+  public boolean open(Node transNode, String fname, boolean importfile) {
+    return getVisualization().open(transNode, fname, importfile);
+  }
+
+  public boolean save(EngineMetaInterface meta, String fname, boolean isExport) {
+    return getVisualization().save(meta, fname, isExport);
+  }
+
+  public void syncMetaName(EngineMetaInterface meta, String name) {
+    getVisualization().syncMetaName(meta, name);
+  }
+
+  public boolean accepts(String fileName) {
+    if (delegate == null && !descriptor.hasSupportedExtension(fileName)) {
+      // Spoon asks every listener about every file, don't load a plugin for a file it can't handle
+      return false;
+    }
+    return getVisualization().accepts(fileName);
+  }
+
+  public boolean acceptsXml(String nodeName) {
+    Boolean known = descriptor.acceptsXml(nodeName);
+    if (known != null) {
+      // answered before in this session, or in an earlier one for the root node name, see VisualizationDescriptor
+      return known;
+    }
+    boolean accepts = getVisualization().acceptsXml(nodeName);
+    if (descriptor.setAcceptsXml(nodeName, accepts)) {
+      manager.descriptorChanged();
+    }
+    return accepts;
+  }
+
+  public String[] getFileTypeDisplayNames(Locale locale) {
+    if (delegate == null && descriptor.getFileTypeDisplayNames() != null && Locale.getDefault().equals(locale)) {
+      return descriptor.getFileTypeDisplayNames();
+    }
+    return getVisualization().getFileTypeDisplayNames(locale);
+  }
+
+  public String getRootNodeName() {
+    return delegate != null ? delegate.getRootNodeName() : descriptor.getRootNodeName();
+  }
+
+  public String[] getSupportedExtensions() {
+    return delegate != null ? delegate.getSupportedExtensions() : descriptor.getSupportedExtensions();
+  }
+}
@@ -0,0 +1,226 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * What the {@link VisualizationManager} needs to know about a visualization bean without instantiating it. Captured
+ * from a loaded instance and persisted in the visualization index so later startups can skip loading the plugin.
+ */
+public class VisualizationDescriptor {
+
+  private static final String SEPARATOR = "|"; //$NON-NLS-1$
+
+  private String pluginFile;
+  private String beanName;
+  private String title;
+  private int order;
+  private String id;
+  private String extension;
+  private String tabIconLocation;
+  private String[] supportedExtensions;
+  private String rootNodeName;
+  private String[] fileTypeDisplayNames;
+  /** answers of {@link IVisualization#acceptsXml(String)} seen so far, by node name; only the root node's is stored */
+  private final Map<String, Boolean> acceptsXml = new HashMap<String, Boolean>();
+
+  public VisualizationDescriptor(String pluginFile, String beanName) {
+    this.pluginFile = pluginFile;
+    this.beanName = beanName;
+  }
+
+  /**
+   * Captures the descriptor of a loaded visualization.
+   */
+  public static VisualizationDescriptor fromVisualization(String pluginFile, String beanName, IVisualization vis) {
+    VisualizationDescriptor descriptor = new VisualizationDescriptor(pluginFile, beanName);
+    descriptor.title = vis.getTitle();
+    descriptor.order = vis.getOrder();
+    descriptor.id = vis.getId();
+    descriptor.extension = vis.getExtension();
+    descriptor.tabIconLocation = vis.getTabIconLocation();
+    descriptor.supportedExtensions = vis.getSupportedExtensions();
+    descriptor.rootNodeName = vis.getRootNodeName();
+    descriptor.fileTypeDisplayNames = vis.getFileTypeDisplayNames(Locale.getDefault());
+    if (descriptor.rootNodeName != null) {
+      descriptor.acceptsXml.put(descriptor.rootNodeName, vis.acceptsXml(descriptor.rootNodeName));
+    }
+    return descriptor;
+  }
+
+  public void store(Properties props, String prefix) {
+    props.setProperty(prefix + "file", pluginFile); //$NON-NLS-1$
+    props.setProperty(prefix + "bean", beanName); //$NON-NLS-1$
+    props.setProperty(prefix + "order", String.valueOf(order)); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "title", title); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "id", id); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "extension", extension); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "tabIconLocation", tabIconLocation); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "supportedExtensions", join(supportedExtensions)); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "rootNodeName", rootNodeName); //$NON-NLS-1$
+    setIfNotNull(props, prefix + "fileTypeDisplayNames", join(fileTypeDisplayNames)); //$NON-NLS-1$
+    Boolean acceptsRootNode = rootNodeName == null ? null : acceptsXml(rootNodeName);
+    setIfNotNull(props, prefix + "acceptsRootNodeXml", acceptsRootNode == null ? null : acceptsRootNode.toString()); //$NON-NLS-1$
+  }
+
+  /**
+   * @return the descriptor stored under <code>prefix</code>, or <code>null</code> if there is none
+   */
+  public static VisualizationDescriptor load(Properties props, String prefix) {
+    String pluginFile = props.getProperty(prefix + "file"); //$NON-NLS-1$
+    String beanName = props.getProperty(prefix + "bean"); //$NON-NLS-1$
+    if (pluginFile == null || beanName == null) {
+      return null;
+    }
+    VisualizationDescriptor descriptor = new VisualizationDescriptor(pluginFile, beanName);
+    try {
+      descriptor.order = Integer.parseInt(props.getProperty(prefix + "order", "0")); //$NON-NLS-1$ //$NON-NLS-2$
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    descriptor.title = props.getProperty(prefix + "title"); //$NON-NLS-1$
+    descriptor.id = props.getProperty(prefix + "id"); //$NON-NLS-1$
+    descriptor.extension = props.getProperty(prefix + "extension"); //$NON-NLS-1$
+    descriptor.tabIconLocation = props.getProperty(prefix + "tabIconLocation"); //$NON-NLS-1$
+    descriptor.supportedExtensions = split(props.getProperty(prefix + "supportedExtensions")); //$NON-NLS-1$
+    descriptor.rootNodeName = props.getProperty(prefix + "rootNodeName"); //$NON-NLS-1$
+    descriptor.fileTypeDisplayNames = split(props.getProperty(prefix + "fileTypeDisplayNames")); //$NON-NLS-1$
+    String acceptsRootNode = props.getProperty(prefix + "acceptsRootNodeXml"); //$NON-NLS-1$
+    if (descriptor.rootNodeName != null && acceptsRootNode != null) {
+      descriptor.acceptsXml.put(descriptor.rootNodeName, Boolean.valueOf(acceptsRootNode));
+    }
+    return descriptor;
+  }
+
+  private static void setIfNotNull(Properties props, String key, String value) {
+    if (value != null) {
+      props.setProperty(key, value);
+    }
+  }
+
+  private static String join(String[] values) {
+    if (values == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        sb.append(SEPARATOR);
+      }
+      sb.append(values[i]);
+    }
+    return sb.toString();
+  }
+
+  private static String[] split(String value) {
+    if (value == null) {
+      return null;
+    }
+    if (value.length() == 0) {
+      return new String[0];
+    }
+    return value.split("\\|", -1); //$NON-NLS-1$
+  }
+
+  public String getPluginFile() {
+    return pluginFile;
+  }
+
+  public String getBeanName() {
+    return beanName;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public int getOrder() {
+    return order;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  public String getTabIconLocation() {
+    return tabIconLocation;
+  }
+
+  public String[] getSupportedExtensions() {
+    return supportedExtensions;
+  }
+
+  public String getRootNodeName() {
+    return rootNodeName;
+  }
+
+  public String[] getFileTypeDisplayNames() {
+    return fileTypeDisplayNames;
+  }
+
+  /**
+   * @return what the visualization answered when asked whether it accepts XML documents rooted at
+   * <code>nodeName</code>, or <code>null</code> if it was never asked
+   */
+  public Boolean acceptsXml(String nodeName) {
+    synchronized (acceptsXml) {
+      return acceptsXml.get(nodeName);
+    }
+  }
+
+  /**
+   * Remembers the visualization's answer to {@link IVisualization#acceptsXml(String)}. Only the answer for the root
+   * node name is stored with the descriptor, other names are remembered for this session.
+   * @return true if the stored part of the descriptor changed and the index should be rewritten
+   */
+  public boolean setAcceptsXml(String nodeName, boolean accepts) {
+    Boolean previous;
+    synchronized (acceptsXml) {
+      previous = acceptsXml.put(nodeName, accepts);
+    }
+    return nodeName.equals(rootNodeName) && !Boolean.valueOf(accepts).equals(previous);
+  }
+
+  /**
+   * @return true if <code>fileName</code> has one of the visualization's supported extensions
+   */
+  public boolean hasSupportedExtension(String fileName) {
+    if (fileName == null || supportedExtensions == null) {
+      return false;
+    }
+    int dot = fileName.lastIndexOf('.');
+    if (dot == -1) {
+      return false;
+    }
+    String ext = fileName.substring(dot + 1);
+    for (String supported : supportedExtensions) {
+      if (supported.equalsIgnoreCase(ext)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
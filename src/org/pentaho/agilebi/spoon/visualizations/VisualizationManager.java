@@ -18,62 +18,221 @@
 package org.pentaho.agilebi.spoon.visualizations;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.pentaho.di.core.Const;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionStoreException;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 
-
-
+/**
+ * Registry of the visualization plugins found under the visualizations folder.
+ * <p>
+ * Plugins are described by an index file kept in the Kettle home directory. A plugin whose <code>plugin.xml</code>
+ * is unchanged since it was indexed is not loaded at startup; its visualizations are represented by
+ * {@link LazyVisualization}s and the Spring context is only built when one of them is actually used. Plugins that are
+ * new or changed are loaded immediately and the index is rewritten.
+ */
 public class VisualizationManager {
 
+  private static Logger logger = LoggerFactory.getLogger(VisualizationManager.class);
+
 	private File pluginsLocation;
+	private File indexDirectory;
+	private List<IndexedPlugin> indexedPlugins;
 	private List<IVisualization> visualizations;
+	private Map<String, LazyVisualization> byTitle = new HashMap<String, LazyVisualization>();
+	private Map<String, LazyVisualization> byId = new HashMap<String, LazyVisualization>();
+	private Map<String, LazyVisualization> byExtension = new HashMap<String, LazyVisualization>();
+	private Map<String, FileSystemXmlApplicationContext> contexts = new HashMap<String, FileSystemXmlApplicationContext>();
 	private static VisualizationManager instance;
 
 	public static final String PLUGIN_FILE = "plugin.xml"; //$NON-NLS-1$
 
-	public static VisualizationManager getInstance() {
+	private static final int MAX_LOADER_THREADS = 4;
+
+	private static final String INDEX_LOCALE = "locale"; //$NON-NLS-1$
+
+	public static synchronized VisualizationManager getInstance() {
 	  if (instance == null) {
 	    instance = new VisualizationManager("plugins/spoon/agile-bi/visualizations"); //$NON-NLS-1$
 	  }
 	  return instance;
 	}
-	
+
 	protected VisualizationManager() {
 	  visualizations = new ArrayList<IVisualization>();
 	}
-	
+
 	public VisualizationManager(String aLocation) {
+		this(aLocation, new File(Const.getKettleDirectory()));
+	}
+
+	/**
+	 * @param indexDirectory where the index of the plugins in <code>aLocation</code> is kept
+	 */
+	public VisualizationManager(String aLocation, File indexDirectory) {
 		visualizations = new ArrayList<IVisualization>();
 		pluginsLocation = new File(aLocation);
+		this.indexDirectory = indexDirectory;
 		loadVisualizations(pluginsLocation);
 	}
 
   private void loadVisualizations(File aDir) {
-		File[] theFiles = aDir.listFiles();
-		if(theFiles == null){
+		List<File> pluginFiles = findPluginFiles(aDir);
+		if (pluginFiles.isEmpty()) {
 		  return;
 		}
-		for (int i = 0; i < theFiles.length; i++) {
-			File theFile = theFiles[i];
-			if (theFile.isDirectory()) {
-			  File[] dirFiles = theFile.listFiles();
-			  for (int j = 0; j < dirFiles.length; j++) {
-			    File pluginFile = dirFiles[j];
-			    if (pluginFile.getName().equals(PLUGIN_FILE)) {
-			      loadVisualizationFile(pluginFile);
-			    }
-			  }
-			}
+		Map<String, IndexedPlugin> index = readIndex();
+		List<IndexedPlugin> plugins = new ArrayList<IndexedPlugin>();
+		List<File> toLoad = new ArrayList<File>();
+		for (File pluginFile : pluginFiles) {
+		  IndexedPlugin plugin = index.get(pluginFile.getPath());
+		  if (plugin == null || !plugin.matches(pluginFile)) {
+		    toLoad.add(pluginFile);
+		  }
+		}
+
+		Map<File, List<LazyVisualization>> loaded = loadPlugins(toLoad);
+		for (File pluginFile : pluginFiles) {
+		  IndexedPlugin plugin;
+		  if (loaded.containsKey(pluginFile)) {
+		    plugin = new IndexedPlugin(pluginFile);
+		    for (LazyVisualization vis : loaded.get(pluginFile)) {
+		      plugin.descriptors.add(vis.getDescriptor());
+		      visualizations.add(vis);
+		    }
+		  } else if (toLoad.contains(pluginFile)) {
+		    // failed or interrupted, leave it out of the index so it is tried again next time
+		    continue;
+		  } else {
+		    plugin = index.get(pluginFile.getPath());
+		    for (VisualizationDescriptor descriptor : plugin.descriptors) {
+		      visualizations.add(new LazyVisualization(this, descriptor));
+		    }
+		  }
+		  plugins.add(plugin);
 		}
-		
-		// sort the list based on order and alpha
+		indexedPlugins = plugins;
+		if (!toLoad.isEmpty() || plugins.size() != index.size()) {
+		  writeIndex(plugins);
+		}
+		sortAndIndex();
+	}
+
+  /**
+   * @return the plugin.xml of every plugin directory, sorted by path so the merge order does not depend on the file
+   * system
+   */
+  private List<File> findPluginFiles(File aDir) {
+    List<File> pluginFiles = new ArrayList<File>();
+    File[] theFiles = aDir.listFiles();
+    if (theFiles == null) {
+      return pluginFiles;
+    }
+    for (File theFile : theFiles) {
+      File pluginFile = new File(theFile, PLUGIN_FILE);
+      if (theFile.isDirectory() && pluginFile.isFile()) {
+        pluginFiles.add(pluginFile);
+      }
+    }
+    Collections.sort(pluginFiles);
+    return pluginFiles;
+  }
+
+  /**
+   * Loads the given plugins concurrently on a bounded pool. The Spring XML parsing dominates startup when many custom
+   * visualizations are installed; plugins are independent of each other so they can be parsed side by side.
+   *
+   * @return the visualizations of each plugin, keyed in the order of <code>pluginFiles</code>. Plugins that failed to
+   * load, or were not loaded because the thread was interrupted, are missing.
+   */
+  private Map<File, List<LazyVisualization>> loadPlugins(List<File> pluginFiles) {
+    Map<File, List<LazyVisualization>> loaded = new LinkedHashMap<File, List<LazyVisualization>>();
+    int threads = Math.min(pluginFiles.size(), Math.min(MAX_LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
+    if (threads <= 1) {
+      for (File pluginFile : pluginFiles) {
+        List<LazyVisualization> plugin = timedLoadPlugin(pluginFile);
+        if (plugin != null) {
+          loaded.put(pluginFile, plugin);
+        }
+      }
+      return loaded;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "visualization-loader-" + count.incrementAndGet()); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      Map<File, Future<List<LazyVisualization>>> futures = new LinkedHashMap<File, Future<List<LazyVisualization>>>();
+      for (final File pluginFile : pluginFiles) {
+        futures.put(pluginFile, executor.submit(new Callable<List<LazyVisualization>>() {
+          public List<LazyVisualization> call() {
+            return timedLoadPlugin(pluginFile);
+          }
+        }));
+      }
+      for (Map.Entry<File, Future<List<LazyVisualization>>> entry : futures.entrySet()) {
+        try {
+          List<LazyVisualization> plugin = entry.getValue().get();
+          if (plugin != null) {
+            loaded.put(entry.getKey(), plugin);
+          }
+        } catch (ExecutionException e) {
+          logger.error("Error loading visualization plugin " + entry.getKey(), e.getCause()); //$NON-NLS-1$
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted while loading visualization plugins", e); //$NON-NLS-1$
+    } finally {
+      executor.shutdownNow();
+    }
+    return loaded;
+  }
+
+  private List<LazyVisualization> timedLoadPlugin(File pluginFile) {
+    long start = System.currentTimeMillis();
+    List<LazyVisualization> loaded = loadPlugin(pluginFile);
+    if (loaded == null) {
+      return null;
+    }
+    logger.info("Loaded visualization plugin " + pluginFile.getParentFile().getName() + " (" + loaded.size() //$NON-NLS-1$ //$NON-NLS-2$
+        + " visualizations) in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    return loaded;
+  }
+
+  /**
+   * Sorts the visualizations based on order and alpha and rebuilds the lookup maps.
+   */
+  private void sortAndIndex() {
 		Collections.sort(visualizations, new Comparator<IVisualization>() {
       public int compare(IVisualization v1, IVisualization v2) {
         if (v1.getOrder() > v2.getOrder()) {
@@ -84,58 +243,253 @@ public class VisualizationManager {
           return v1.getTitle().compareTo(v2.getTitle());
         }
       }
-		  
+
 		});
+
+		byTitle.clear();
+		byId.clear();
+		byExtension.clear();
+		for (IVisualization vis : visualizations) {
+		  LazyVisualization lazy = (LazyVisualization) vis;
+		  // the first (highest order) visualization wins, as the old linear scan did
+		  putIfAbsent(byTitle, vis.getTitle(), lazy);
+		  putIfAbsent(byId, vis.getId(), lazy);
+		  String[] extensions = lazy.getDescriptor().getSupportedExtensions();
+		  if (extensions != null) {
+		    for (String extension : extensions) {
+		      putIfAbsent(byExtension, extension.toLowerCase(), lazy);
+		    }
+		  }
+		}
 	}
-	
+
+  private static void putIfAbsent(Map<String, LazyVisualization> map, String key, LazyVisualization vis) {
+    if (key != null && !map.containsKey(key)) {
+      map.put(key, vis);
+    }
+  }
+
   protected void loadVisualizationFile(File file) {
+    List<LazyVisualization> loaded = loadPlugin(file);
+    if (loaded != null) {
+      visualizations.addAll(loaded);
+      sortAndIndex();
+    }
+	}
+
+  /**
+   * Builds the plugin's Spring context and wraps every visualization it defines.
+   * @return the visualizations, or <code>null</code> if the plugin could not be loaded
+   */
+  private List<LazyVisualization> loadPlugin(File file) {
+    List<LazyVisualization> loaded = new ArrayList<LazyVisualization>();
     try {
-      FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(new String[]{file.getPath()}, false);
-      context.setClassLoader(getClass().getClassLoader());
-      context.refresh();
+      FileSystemXmlApplicationContext context = getContext(file.getPath());
       Map beans = context.getBeansOfType(IVisualization.class);
       for (Object key : beans.keySet()) {
         IVisualization vis = (IVisualization)beans.get(key);
         if (vis.getOrder() >= 0) {
-          visualizations.add(vis);
+          VisualizationDescriptor descriptor = VisualizationDescriptor.fromVisualization(file.getPath(), key.toString(), vis);
+          loaded.add(new LazyVisualization(this, descriptor, vis));
         }
       }
     } catch (XmlBeanDefinitionStoreException e) {
-      // TODO: introduce logging
-      e.printStackTrace();
+      logger.error("Error loading visualization plugin " + file, e); //$NON-NLS-1$
+      return null;
     }
-	}
+    return loaded;
+  }
 
+  private FileSystemXmlApplicationContext getContext(String pluginFile) {
+    synchronized (contexts) {
+      FileSystemXmlApplicationContext context = contexts.get(pluginFile);
+      if (context != null) {
+        return context;
+      }
+    }
+    // parse outside the lock so plugins can be loaded concurrently
+    FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(new String[]{pluginFile}, false);
+    context.setClassLoader(getClass().getClassLoader());
+    context.refresh();
+    synchronized (contexts) {
+      FileSystemXmlApplicationContext existing = contexts.get(pluginFile);
+      if (existing != null) {
+        context.close();
+        return existing;
+      }
+      contexts.put(pluginFile, context);
+      return context;
+    }
+  }
+
+  /**
+   * Loads the visualization described by <code>descriptor</code>. Called by {@link LazyVisualization} on first use.
+   */
+  IVisualization instantiate(VisualizationDescriptor descriptor) {
+    logger.debug("Loading visualization " + descriptor.getBeanName() + " from " + descriptor.getPluginFile()); //$NON-NLS-1$ //$NON-NLS-2$
+    return (IVisualization) getContext(descriptor.getPluginFile()).getBean(descriptor.getBeanName());
+  }
+
+  /**
+   * Records that a descriptor learned something new about its visualization, see
+   * {@link VisualizationDescriptor#setAcceptsXml(String, boolean)}, and rewrites the index.
+   */
+  void descriptorChanged() {
+    if (indexedPlugins != null) {
+      synchronized (indexedPlugins) {
+        writeIndex(indexedPlugins);
+      }
+    }
+  }
+
+  /**
+   * The index lives in the index directory, the Kettle home directory by default, one per plugins folder.
+   */
+  protected File getIndexFile() {
+    String name = "agile-bi-visualizations-" + Integer.toHexString(pluginsLocation.getAbsolutePath().hashCode()) + ".properties"; //$NON-NLS-1$ //$NON-NLS-2$
+    return new File(indexDirectory, name);
+  }
+
+  private Map<String, IndexedPlugin> readIndex() {
+    Map<String, IndexedPlugin> index = new HashMap<String, IndexedPlugin>();
+    File indexFile = getIndexFile();
+    if (!indexFile.exists()) {
+      return index;
+    }
+    Properties props = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(indexFile);
+      props.load(in);
+    } catch (IOException e) {
+      logger.warn("Unable to read visualization index " + indexFile, e); //$NON-NLS-1$
+      return index;
+    } finally {
+      close(in);
+    }
+
+    // titles and file type names are localized, an index written for another locale is useless
+    if (!Locale.getDefault().toString().equals(props.getProperty(INDEX_LOCALE))) {
+      return index;
+    }
+    for (int i = 0; props.getProperty("plugin." + i + ".file") != null; i++) { //$NON-NLS-1$ //$NON-NLS-2$
+      String prefix = "plugin." + i + "."; //$NON-NLS-1$ //$NON-NLS-2$
+      IndexedPlugin plugin = new IndexedPlugin(props.getProperty(prefix + "file")); //$NON-NLS-1$
+      try {
+        plugin.modified = Long.parseLong(props.getProperty(prefix + "modified")); //$NON-NLS-1$
+        plugin.size = Long.parseLong(props.getProperty(prefix + "size")); //$NON-NLS-1$
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      VisualizationDescriptor descriptor;
+      for (int j = 0; (descriptor = VisualizationDescriptor.load(props, prefix + "viz." + j + ".")) != null; j++) { //$NON-NLS-1$ //$NON-NLS-2$
+        plugin.descriptors.add(descriptor);
+      }
+      index.put(plugin.file, plugin);
+    }
+    return index;
+  }
+
+  private void writeIndex(List<IndexedPlugin> plugins) {
+    Properties props = new Properties();
+    props.setProperty(INDEX_LOCALE, Locale.getDefault().toString());
+    for (int i = 0; i < plugins.size(); i++) {
+      IndexedPlugin plugin = plugins.get(i);
+      String prefix = "plugin." + i + "."; //$NON-NLS-1$ //$NON-NLS-2$
+      props.setProperty(prefix + "file", plugin.file); //$NON-NLS-1$
+      props.setProperty(prefix + "modified", String.valueOf(plugin.modified)); //$NON-NLS-1$
+      props.setProperty(prefix + "size", String.valueOf(plugin.size)); //$NON-NLS-1$
+      for (int j = 0; j < plugin.descriptors.size(); j++) {
+        plugin.descriptors.get(j).store(props, prefix + "viz." + j + "."); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+
+    File indexFile = getIndexFile();
+    OutputStream out = null;
+    try {
+      indexFile.getParentFile().mkdirs();
+      out = new FileOutputStream(indexFile);
+      props.store(out, "Agile BI visualization index, regenerated automatically"); //$NON-NLS-1$
+    } catch (IOException e) {
+      logger.warn("Unable to write visualization index " + indexFile, e); //$NON-NLS-1$
+    } finally {
+      close(out);
+    }
+  }
+
+  private static void close(java.io.Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        logger.debug("Error closing visualization index", e); //$NON-NLS-1$
+      }
+    }
+  }
+
+	/**
+	 * @return all visualizations, in display order. The entries are {@link LazyVisualization}s which only load the
+	 * underlying plugin when it is needed.
+	 */
 	public List<IVisualization> getVisualizations() {
-		return visualizations;
+		return Collections.unmodifiableList(visualizations);
 	}
 
 	public List<String> getVisualizationNames() {
 
 		List<String> theNames = new ArrayList<String>();
-		List<IVisualization> theVisualizations = getVisualizations();
-		Iterator<IVisualization> theItr = theVisualizations.iterator();
-		while (theItr.hasNext()) {
-			IVisualization theVisualization = theItr.next();
+		for (IVisualization theVisualization : visualizations) {
 			theNames.add(theVisualization.getTitle());
 		}
 		return theNames;
 	}
 
+	/**
+	 * @return the loaded visualization with the given title, or <code>null</code>
+	 */
 	public IVisualization getVisualization(String aVisualization) {
+		return load(byTitle.get(aVisualization));
+	}
 
-		List<IVisualization> theVisualizations = getVisualizations();
-		Iterator<IVisualization> theItr = theVisualizations.iterator();
-		IVisualization theVisualization = null;
-		while (theItr.hasNext()) {
-			theVisualization = (IVisualization) theItr.next();
-			if (theVisualization.getTitle().equals(aVisualization)) {
-				break;
-			} else {
-				theVisualization = null;
-			}
-		}
-		return theVisualization;
+	/**
+	 * @return the loaded visualization with the given id, or <code>null</code>
+	 */
+	public IVisualization getVisualizationById(String id) {
+	  return load(byId.get(id));
+	}
+
+	/**
+	 * @return the loaded visualization handling files with the given extension (without the dot), or <code>null</code>
+	 */
+	public IVisualization getVisualizationByExtension(String extension) {
+	  return extension == null ? null : load(byExtension.get(extension.toLowerCase()));
+	}
+
+	private IVisualization load(LazyVisualization vis) {
+	  return vis == null ? null : vis.getVisualization();
 	}
 
+	/**
+	 * A plugin.xml as recorded in the index.
+	 */
+	private static class IndexedPlugin {
+	  private String file;
+	  private long modified;
+	  private long size;
+	  private List<VisualizationDescriptor> descriptors = new ArrayList<VisualizationDescriptor>();
+
+	  IndexedPlugin(String file) {
+	    this.file = file;
+	  }
+
+	  IndexedPlugin(File pluginFile) {
+	    this(pluginFile.getPath());
+	    modified = pluginFile.lastModified();
+	    size = pluginFile.length();
+	  }
+
+	  boolean matches(File pluginFile) {
+	    return pluginFile.lastModified() == modified && pluginFile.length() == size;
+	  }
+	}
 }
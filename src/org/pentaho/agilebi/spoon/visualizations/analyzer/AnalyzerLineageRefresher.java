@@ -0,0 +1,170 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.analyzer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.swt.widgets.Display;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.agilebi.platform.aggregates.AggregateSchemaDecorator;
+import org.pentaho.agilebi.spoon.perspective.AgileBiVisualizationPerspective;
+import org.pentaho.agilebi.spoon.registry.LineageIndex;
+import org.pentaho.agilebi.vfs.MetadataToMondrianVfsFileContent;
+import org.pentaho.di.core.EngineMetaInterface;
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.IMetadataRegistry;
+import org.pentaho.metadata.registry.RegistryFactory;
+import org.pentaho.metadata.registry.Type;
+import org.pentaho.metadata.registry.Verb;
+import org.pentaho.metadata.registry.util.RegistryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the open Analyzer views that depend on a transformation or job which just finished.
+ * <p>
+ * The tables the transformation populates are looked up in the lineage registry. An open view is affected when its
+ * model is built on one of those tables, or when lineage links the view to one of them. Only the schemas of the
+ * affected models are flushed from the Mondrian cache, cells and members, and only the affected views are re-executed.
+ */
+public class AnalyzerLineageRefresher {
+
+  private static Logger logger = LoggerFactory.getLogger(AnalyzerLineageRefresher.class);
+
+  private static RegistryUtil UTIL = new RegistryUtil();
+
+  private AnalyzerLineageRefresher() {
+  }
+
+  /**
+   * @param filename file the finished transformation or job was loaded from
+   * @param repositoryName repository it was loaded from, or <code>null</code>
+   * @param type {@link Type#TYPE_TRANSFORMATION} or {@link Type#TYPE_JOB}
+   */
+  public static void refresh(String filename, String repositoryName, Type type) {
+    IMetadataRegistry registry = RegistryFactory.getInstance().getMetadataRegistry();
+    if (registry == null || filename == null) {
+      return;
+    }
+    LineageIndex index = LineageIndex.forRegistry(registry);
+    List<Entity> tables = index.getObjects(UTIL.generateCompositeId(repositoryName, filename), type.getId(),
+        Verb.VERB_POPULATES);
+    if (tables.isEmpty()) {
+      return;
+    }
+
+    final Set<String> tableIds = new HashSet<String>();
+    final Set<String> viewFiles = new HashSet<String>();
+    for (Entity table : tables) {
+      tableIds.add(table.getId());
+      for (Entity view : index.getDownstream(table.getId(), table.getTypeId(), Type.TYPE_ANALYZER_VIEW.getId())) {
+        viewFiles.add(new File(view.getId()).getAbsolutePath());
+      }
+    }
+
+    Display display = Display.getDefault();
+    if (display == null || display.isDisposed()) {
+      return;
+    }
+    display.asyncExec(new Runnable() {
+      public void run() {
+        refreshAffectedViews(tableIds, viewFiles);
+      }
+    });
+  }
+
+  private static void refreshAffectedViews(Set<String> tableIds, Set<String> viewFiles) {
+    List<AnalyzerVisualizationController> affected = new ArrayList<AnalyzerVisualizationController>();
+    Set<String> schemaNames = new HashSet<String>();
+    for (EngineMetaInterface meta : AgileBiVisualizationPerspective.getInstance().getOpenMetas()) {
+      if (!(meta instanceof AnalyzerVisualizationMeta)) {
+        continue;
+      }
+      AnalyzerVisualizationController controller = (AnalyzerVisualizationController) ((AnalyzerVisualizationMeta) meta)
+          .getController();
+      if (isAffected(controller, tableIds, viewFiles)) {
+        affected.add(controller);
+        schemaNames.add(getSchemaName(controller.getModel(), controller.getModelId()));
+        // the schemas are reloaded below, without the aggregates the transformation made stale
+        invalidateAggregates(controller.getXmiFileLocation());
+      }
+    }
+    if (affected.isEmpty()) {
+      return;
+    }
+
+    flushSchemas(schemaNames);
+    for (AnalyzerVisualizationController controller : affected) {
+      controller.reexecute();
+    }
+    logger.info("Refreshed " + affected.size() + " Analyzer views of models " + schemaNames); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  private static boolean isAffected(AnalyzerVisualizationController controller, Set<String> tableIds,
+      Set<String> viewFiles) {
+    if (controller.getVisFileLocation() != null
+        && viewFiles.contains(new File(controller.getVisFileLocation()).getAbsolutePath())) {
+      return true;
+    }
+    ModelerWorkspace workspace = controller.getModel();
+    if (workspace != null && workspace.getModelSource() instanceof TableModelerSource) {
+      TableModelerSource source = (TableModelerSource) workspace.getModelSource();
+      return tableIds.contains(UTIL.generateCompositeId(source.getDatabaseName(), source.getSchemaName(),
+          source.getTableName()));
+    }
+    return false;
+  }
+
+  /**
+   * @return the name of the Mondrian schema the view's Analyzer loads for <code>workspace</code>, see
+   * {@link MetadataToMondrianVfsFileContent}, or <code>fallback</code> if the workspace has no model yet
+   */
+  static String getSchemaName(ModelerWorkspace workspace, String fallback) {
+    if (workspace == null || workspace.getDomain() == null || workspace.getDomain().getLogicalModels().isEmpty()) {
+      return fallback;
+    }
+    String name = MetadataToMondrianVfsFileContent.getSchemaName(workspace.getDomain());
+    return name == null ? fallback : name;
+  }
+
+  /**
+   * Sets the aggregates of the model saved in <code>xmiFile</code> aside, see {@link AggregateSchemaDecorator}.
+   *
+   * @return true if the model's schema used aggregates and has to be reloaded
+   */
+  static boolean invalidateAggregates(String xmiFile) {
+    try {
+      return AggregateSchemaDecorator.invalidate(xmiFile);
+    } catch (Exception e) {
+      logger.warn("Could not invalidate the aggregates of " + xmiFile, e); //$NON-NLS-1$
+      return false;
+    }
+  }
+
+  /**
+   * Flushes the named schemas, their cells as well as their members, leaving other schemas' caches in place.
+   */
+  static void flushSchemas(Set<String> schemaNames) {
+    AggregateSchemaDecorator.flushSchemas(schemaNames);
+  }
+}
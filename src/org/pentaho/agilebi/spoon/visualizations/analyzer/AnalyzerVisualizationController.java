@@ -23,9 +23,13 @@ import org.pentaho.metadata.model.concept.types.LocalizedString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.eclipse.swt.SWTError;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Composite;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.platform.aggregates.AggregateGenerator;
+import org.pentaho.agilebi.platform.aggregates.GeneratedAggregate;
+import org.pentaho.agilebi.platform.profiling.QueryProfiler;
 import org.pentaho.agilebi.spoon.ModelerHelper;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
 import org.pentaho.agilebi.spoon.publish.PublisherHelper;
@@ -51,6 +55,7 @@ import org.pentaho.ui.xul.binding.BindingFactory;
 import org.pentaho.ui.xul.binding.DefaultBindingFactory;
 import org.pentaho.ui.xul.components.XulBrowser;
 import org.pentaho.ui.xul.components.XulMessageBox;
+import org.pentaho.ui.xul.components.XulTextbox;
 import org.pentaho.ui.xul.containers.XulEditpanel;
 import org.pentaho.ui.xul.impl.AbstractXulEventHandler;
 import org.w3c.dom.Node;
@@ -59,6 +64,7 @@ import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AnalyzerVisualizationController extends AbstractXulEventHandler implements FileListener, PropertyPanelController {
 
@@ -79,8 +85,28 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	private XulEditpanel propPanel;
 	private ModelerWorkspace workspace;
 	private boolean dirty = true;
+	private volatile WatermarkRefresher watermarkRefresher;
+	private XulEditpanel queryPanel;
+	private XulTextbox queryLog;
+	private final AtomicBoolean queryLogUpdatePending = new AtomicBoolean();
+	private final QueryProfiler.Listener queryLogListener = new QueryProfiler.Listener() {
+		public void queriesChanged() {
+			// coalesce the updates of a burst of statements into one repaint
+			if (queryLogUpdatePending.compareAndSet(false, true)) {
+				Display.getDefault().asyncExec(new Runnable() {
+					public void run() {
+						queryLogUpdatePending.set(false);
+						updateQueryLog();
+					}
+				});
+			}
+		}
+	};
 
 	private static Logger logger = LoggerFactory.getLogger(AnalyzerVisualizationController.class);
+
+	/** how many aggregate tables {@link #generateAggregates()} creates at most */
+	private static final int MAX_AGGREGATES = 3;
 	private String fileName;
 
 	public AnalyzerVisualizationController(Composite parent, final AnalyzerVisualization visualization, String xmiFileLocation, String modelId, String aVisFileLocaiton, String fileName) throws SWTError {
@@ -100,6 +126,8 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	public void init() {
 		this.browser = (XulBrowser) this.document.getElementById("web_visualization_browser");
 		this.propPanel = (XulEditpanel) document.getElementById("propPanel");
+		this.queryPanel = (XulEditpanel) document.getElementById("queryPanel");
+		this.queryLog = (XulTextbox) document.getElementById("queryLog");
 		
 		this.browser.setSrc(Const.NVL(this.location, "http://"));
 
@@ -110,8 +138,10 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 		this.factTableNameBinding = this.bf.createBinding(this, "factTableName", "factTableName", "value");
     this.bf.setBindingType(Type.BI_DIRECTIONAL);
     bf.createBinding(this.propPanel, "visible", this, "propVisible");
+    bf.createBinding(this.queryPanel, "visible", this, "queryLogVisible");
 		fireBindings();
 		setPropVisible(false);
+		setQueryLogVisible(false);
 	}
 	
 	public void openReport(String aReport) {
@@ -219,9 +249,40 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 	}
 
 	public void refreshData() {
-		// first clear the server cache
+		// first clear the server cache, only what appended rows invalidate if the model has a watermark column
+		final WatermarkRefresher refresher = watermarkRefresher;
+		if (refresher == null || !refresher.isEnabled()) {
+			AnalyzerLineageRefresher.invalidateAggregates(xmiFileLocation);
+			AggregationManager.instance().getCacheControl(null, null).flushSchemaCache();
+			reexecute();
+			return;
+		}
+		// reading the watermark queries the database, keep that off the UI thread
+		final Display display = Display.getDefault();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				if (!refresher.flushAppended()) {
+					AnalyzerLineageRefresher.invalidateAggregates(xmiFileLocation);
+					AggregationManager.instance().getCacheControl(null, null).flushSchemaCache();
+				}
+				if (!display.isDisposed()) {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							reexecute();
+						}
+					});
+				}
+			}
+		}, "analyzer-refresh"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
 
-		AggregationManager.instance().getCacheControl(null, null).flushSchemaCache();
+	/**
+	 * Re-runs the view's query without touching the OLAP cache. Used when the caller already flushed the segments of
+	 * this view's model.
+	 */
+	public void reexecute() {
 		browser.execute(visualization.generateRefreshDataJavascript(xmiFileLocation, modelId));
 	}
 
@@ -271,6 +332,10 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 
 	}
 
+	public String getXmiFileLocation() {
+		return xmiFileLocation;
+	}
+
 	public void setXmiFileLocation(String xmiFileLocation) {
 		this.xmiFileLocation = xmiFileLocation;
 	}
@@ -372,6 +437,103 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
     this.firePropertyChange("propVisible", prevVal, vis);
   }
   
+  public void toggleQueryLog() {
+    setQueryLogVisible(!isQueryLogVisible());
+  }
+
+  private boolean queryLogVisible = false;
+  public boolean isQueryLogVisible() {
+    return queryLogVisible;
+  }
+
+  /**
+   * Shows or hides the query log. The embedded platform only records queries while a query log is shown.
+   */
+  public void setQueryLogVisible(boolean vis) {
+    boolean prevVal = queryLogVisible;
+    this.queryLogVisible = vis;
+    if (vis && !prevVal) {
+      QueryProfiler.getInstance().addListener(queryLogListener);
+      updateQueryLog();
+    } else if (!vis) {
+      QueryProfiler.getInstance().removeListener(queryLogListener);
+    }
+    this.firePropertyChange("queryLogVisible", prevVal, vis);
+  }
+
+  public void clearQueryLog() {
+    QueryProfiler.getInstance().clear();
+  }
+
+  /**
+   * Creates and populates the aggregate tables recommended for the queries recorded so far, see
+   * {@link AggregateGenerator#generateForModel}, and reloads the model so they are used. The files that recreate them
+   * are kept in an <code>aggregates</code> folder next to the model.
+   */
+  public void generateAggregates() {
+    if (xmiFileLocation == null) {
+      return;
+    }
+    final String xmiFile = xmiFileLocation;
+    final File outputDir = new File(new File(xmiFile).getAbsoluteFile().getParentFile(), "aggregates"); //$NON-NLS-1$
+    final String schemaName = AnalyzerLineageRefresher.getSchemaName(workspace, modelId);
+    final Display display = Display.getDefault();
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        String message;
+        try {
+          List<GeneratedAggregate> generated = AggregateGenerator.generateForModel(xmiFile, MAX_AGGREGATES, outputDir);
+          if (generated.isEmpty()) {
+            message = BaseMessages.getString(IVisualization.class, "Aggregates.None"); //$NON-NLS-1$
+          } else {
+            AnalyzerLineageRefresher.flushSchemas(Collections.singleton(schemaName));
+            message = BaseMessages.getString(IVisualization.class, "Aggregates.Generated", //$NON-NLS-1$
+                String.valueOf(generated.size()), outputDir.getPath());
+          }
+        } catch (Exception e) {
+          logger.error("Error generating aggregates for " + xmiFile, e); //$NON-NLS-1$
+          message = BaseMessages.getString(IVisualization.class, "Aggregates.Error", e.getLocalizedMessage()); //$NON-NLS-1$
+        }
+        final String result = message;
+        if (!display.isDisposed()) {
+          display.asyncExec(new Runnable() {
+            public void run() {
+              reexecute();
+              showMessage(BaseMessages.getString(IVisualization.class, "Aggregates.Title"), result); //$NON-NLS-1$
+            }
+          });
+        }
+      }
+    }, "analyzer-aggregates"); //$NON-NLS-1$
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void showMessage(String title, String msg) {
+    try {
+      XulMessageBox dlg = (XulMessageBox) document.createElement("messagebox"); //$NON-NLS-1$
+      dlg.setTitle(title);
+      dlg.setMessage(msg);
+      dlg.open();
+    } catch (XulException e) {
+      logger.error("Error showing message", e); //$NON-NLS-1$
+    }
+  }
+
+  private void updateQueryLog() {
+    if (queryLogVisible && queryLog != null) {
+      queryLog.setValue(QueryProfiler.format(QueryProfiler.getInstance().getInteractions()));
+    }
+  }
+
+  /**
+   * Releases what the view holds on to outside of its tab, called when the tab is closed.
+   */
+  public void dispose() {
+    QueryProfiler.getInstance().removeListener(queryLogListener);
+    queryLogVisible = false;
+  }
+
   public void publish() throws ModelerException{
     if(isDirty()){
       XulMessageBox msg;
@@ -408,6 +570,19 @@ public class AnalyzerVisualizationController extends AbstractXulEventHandler imp
 
   public void setModel(ModelerWorkspace aWorkspace) {
     this.workspace = aWorkspace;
+    final WatermarkRefresher refresher = new WatermarkRefresher(aWorkspace,
+        AnalyzerLineageRefresher.getSchemaName(aWorkspace, modelId));
+    this.watermarkRefresher = refresher;
+    if (refresher.isEnabled()) {
+      // remember where the data ends now so the first refresh can already be incremental
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          refresher.captureWatermark();
+        }
+      }, "analyzer-watermark"); //$NON-NLS-1$
+      thread.setDaemon(true);
+      thread.start();
+    }
   }  
   
   public ModelerWorkspace getModel() {
@@ -0,0 +1,317 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.olap.Dimension;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Id;
+import mondrian.olap.Level;
+import mondrian.olap.MatchType;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianDef;
+import mondrian.olap.SchemaReader;
+import mondrian.rolap.RolapLevel;
+import mondrian.rolap.RolapMember;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.agg.AggregationManager;
+
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.IPhysicalModel;
+import org.pentaho.metadata.model.IPhysicalTable;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-aware cache invalidation for a model whose fact table only receives appended rows.
+ * <p>
+ * The model names a watermark column (a monotonically increasing key or load timestamp) in its
+ * {@link #WATERMARK_COLUMN_PROPERTY} property. On refresh the current maximum of that column is compared with the one
+ * seen last time:
+ * <ul>
+ * <li>unchanged: nothing was appended and no cache is flushed;</li>
+ * <li>increased and the column is the key of the first level below an all member: only the cells from the previous
+ * watermark member onwards are flushed, together with the cells that aggregate over that level. Cells constrained to
+ * older members stay cached;</li>
+ * <li>otherwise the cubes of this model are flushed, other models keep their cache.</li>
+ * </ul>
+ */
+public class WatermarkRefresher {
+
+  public static final String WATERMARK_COLUMN_PROPERTY = "watermark_column"; //$NON-NLS-1$
+
+  private static Logger logger = LoggerFactory.getLogger(WatermarkRefresher.class);
+
+  private final ModelerWorkspace workspace;
+
+  private final String schemaName;
+
+  private Object watermark;
+
+  private boolean watermarkKnown;
+
+  public WatermarkRefresher(ModelerWorkspace workspace, String schemaName) {
+    this.workspace = workspace;
+    this.schemaName = schemaName;
+  }
+
+  /**
+   * @return the watermark column configured on the workspace's model, or <code>null</code>
+   */
+  public static String getWatermarkColumn(ModelerWorkspace workspace) {
+    LogicalModel model = getLogicalModel(workspace);
+    if (model == null) {
+      return null;
+    }
+    Object column = model.getProperty(WATERMARK_COLUMN_PROPERTY);
+    return column == null || column.toString().trim().length() == 0 ? null : column.toString().trim();
+  }
+
+  /**
+   * Sets or, with <code>null</code>, removes the watermark column. Saved with the model.
+   */
+  public static void setWatermarkColumn(ModelerWorkspace workspace, String column) {
+    LogicalModel model = getLogicalModel(workspace);
+    if (model != null) {
+      model.setProperty(WATERMARK_COLUMN_PROPERTY, column == null ? "" : column); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return the columns of the model's fact table that can serve as watermark column, in table order
+   */
+  public static List<String> getCandidateColumns(ModelerWorkspace workspace) {
+    List<String> columns = new ArrayList<String>();
+    if (workspace == null || workspace.getDomain() == null || workspace.getDomain().getPhysicalModels().isEmpty()) {
+      return columns;
+    }
+    IPhysicalModel physicalModel = workspace.getDomain().getPhysicalModels().get(0);
+    if (physicalModel.getPhysicalTables().isEmpty()) {
+      return columns;
+    }
+    IPhysicalTable table = physicalModel.getPhysicalTables().get(0);
+    for (IPhysicalColumn column : table.getPhysicalColumns()) {
+      if (column instanceof SqlPhysicalColumn && ((SqlPhysicalColumn) column).getTargetColumn() != null) {
+        columns.add(((SqlPhysicalColumn) column).getTargetColumn());
+      }
+    }
+    return columns;
+  }
+
+  private static LogicalModel getLogicalModel(ModelerWorkspace workspace) {
+    if (workspace == null || workspace.getDomain() == null || workspace.getDomain().getLogicalModels().isEmpty()) {
+      return null;
+    }
+    return workspace.getDomain().getLogicalModels().get(0);
+  }
+
+  public boolean isEnabled() {
+    return getWatermarkColumn(workspace) != null && workspace.getModelSource() instanceof TableModelerSource
+        && workspace.getModelSource() instanceof ISpoonModelerSource;
+  }
+
+  /**
+   * Records the current watermark, e.g. when the view is opened, so the first refresh can already be incremental.
+   */
+  public void captureWatermark() {
+    if (!isEnabled()) {
+      return;
+    }
+    Object current;
+    try {
+      current = queryWatermark();
+    } catch (KettleException e) {
+      logger.warn("Could not read watermark of model " + schemaName, e); //$NON-NLS-1$
+      return;
+    }
+    synchronized (this) {
+      if (!watermarkKnown) {
+        watermark = current;
+        watermarkKnown = true;
+      }
+    }
+  }
+
+  /**
+   * Flushes what the rows appended since the last call invalidate. Queries the database, so don't call it on the UI
+   * thread.
+   *
+   * @return false if no watermark is configured or it could not be read; the caller has to flush on its own
+   */
+  public boolean flushAppended() {
+    if (!isEnabled()) {
+      return false;
+    }
+    Object current;
+    try {
+      current = queryWatermark();
+    } catch (KettleException e) {
+      logger.warn("Could not read watermark of model " + schemaName, e); //$NON-NLS-1$
+      return false;
+    }
+    Object previous;
+    boolean hadPrevious;
+    synchronized (this) {
+      previous = watermark;
+      hadPrevious = watermarkKnown;
+      watermark = current;
+      watermarkKnown = true;
+    }
+
+    if (hadPrevious && compare(current, previous) == 0) {
+      logger.debug("No rows appended to model " + schemaName + ", keeping its cache"); //$NON-NLS-1$ //$NON-NLS-2$
+      return true;
+    }
+    // aggregates don't contain the appended rows, the schema has to be reloaded without them
+    boolean aggregatesInvalidated = AnalyzerLineageRefresher.invalidateAggregates(workspace.getFileName());
+    if (!hadPrevious || previous == null || aggregatesInvalidated) {
+      AnalyzerLineageRefresher.flushSchemas(Collections.singleton(schemaName));
+      return true;
+    }
+    flushFrom(getWatermarkColumn(workspace), previous);
+    return true;
+  }
+
+  private Object queryWatermark() throws KettleException {
+    TableModelerSource source = (TableModelerSource) workspace.getModelSource();
+    DatabaseMeta databaseMeta = ((ISpoonModelerSource) workspace.getModelSource()).getDatabaseMeta();
+    String sql = "SELECT MAX(" + databaseMeta.quoteField(getWatermarkColumn(workspace)) + ") FROM " //$NON-NLS-1$ //$NON-NLS-2$
+        + databaseMeta.getQuotedSchemaTableCombination(source.getSchemaName(), source.getTableName());
+    Database database = new Database(databaseMeta);
+    try {
+      database.connect();
+      RowMetaAndData row = database.getOneRow(sql);
+      return row == null ? null : row.getData()[0];
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  private void flushFrom(String column, Object previous) {
+    CacheControl cacheControl = AggregationManager.instance().getCacheControl(null, null);
+    for (RolapSchema schema : RolapSchema.getRolapSchemas()) {
+      if (!schemaName.equals(schema.getName())) {
+        continue;
+      }
+      for (Cube cube : schema.getCubes()) {
+        // appended rows can bring new members into any dimension, and the level keyed on the watermark column has to
+        // be re-read before the first new member can be found
+        flushMembers(cacheControl, cube);
+        CacheControl.CellRegion measures = cacheControl.createMeasuresRegion(cube);
+        Member from = findWatermarkMember(cube, column, previous);
+        if (from == null) {
+          cacheControl.flush(measures);
+        } else {
+          // an open ended range also covers the cells that are not constrained on this level at all
+          CacheControl.CellRegion appended = cacheControl.createMemberRegion(true, from, false, null, false);
+          cacheControl.flush(cacheControl.createCrossjoinRegion(measures, appended));
+        }
+      }
+    }
+  }
+
+  /**
+   * Flushes the cached members of every hierarchy of <code>cube</code>, leaving its cells in place.
+   */
+  private static void flushMembers(CacheControl cacheControl, Cube cube) {
+    SchemaReader reader = cube.getSchemaReader(null).withLocus();
+    for (Dimension dimension : cube.getDimensions()) {
+      if (dimension.isMeasures()) {
+        continue;
+      }
+      for (Hierarchy hierarchy : dimension.getHierarchies()) {
+        for (Member root : reader.getHierarchyRootMembers(hierarchy)) {
+          cacheControl.flush(cacheControl.createMemberSet(root, true));
+        }
+      }
+    }
+  }
+
+  /**
+   * Looks up the member of the previous watermark in the level keyed on <code>column</code>, by name as the levels of
+   * generated models are named after their key, so only that member is read rather than the whole level. Appended rows
+   * belong to it or to members after it.
+   *
+   * @return the member, or <code>null</code> if there is no such level right below an all member or no such member
+   */
+  private static Member findWatermarkMember(Cube cube, String column, Object previous) {
+    SchemaReader reader = cube.getSchemaReader(null).withLocus();
+    for (Dimension dimension : cube.getDimensions()) {
+      for (Hierarchy hierarchy : dimension.getHierarchies()) {
+        for (Level level : hierarchy.getLevels()) {
+          if (!isKeyedOn(level, column)) {
+            continue;
+          }
+          if (!hierarchy.hasAll() || level.getDepth() != 1) {
+            return null;
+          }
+          Member member = reader.lookupMemberChildByName(hierarchy.getAllMember(),
+              new Id.NameSegment(String.valueOf(previous)), MatchType.EXACT);
+          return member != null && compare(((RolapMember) member).getKey(), previous) == 0 ? member : null;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean isKeyedOn(Level level, String column) {
+    if (!(level instanceof RolapLevel)) {
+      return false;
+    }
+    MondrianDef.Expression key = ((RolapLevel) level).getKeyExp();
+    return key instanceof MondrianDef.Column && column.equalsIgnoreCase(((MondrianDef.Column) key).name);
+  }
+
+  /**
+   * Compares watermark values which may come back as different types from JDBC and Mondrian, e.g. Long and Integer or
+   * Timestamp and Date. <code>null</code> sorts first.
+   */
+  @SuppressWarnings("unchecked")
+  static int compare(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    if (a instanceof Number && b instanceof Number) {
+      return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+    }
+    if (a instanceof Date && b instanceof Date) {
+      long ta = ((Date) a).getTime();
+      long tb = ((Date) b).getTime();
+      return ta < tb ? -1 : (ta == tb ? 0 : 1);
+    }
+    if (a.getClass().equals(b.getClass()) && a instanceof Comparable) {
+      return ((Comparable<Object>) a).compareTo(b);
+    }
+    return a.toString().compareTo(b.toString());
+  }
+}
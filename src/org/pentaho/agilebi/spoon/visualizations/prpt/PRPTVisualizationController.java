@@ -17,11 +17,17 @@
 
 package org.pentaho.agilebi.spoon.visualizations.prpt;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
 
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.util.ISpoonModelerSource;
@@ -54,7 +60,9 @@ import org.pentaho.ui.xul.binding.BindingConvertor;
 import org.pentaho.ui.xul.binding.BindingFactory;
 import org.pentaho.ui.xul.binding.DefaultBindingFactory;
 import org.pentaho.ui.xul.components.XulMenuList;
+import org.pentaho.ui.xul.components.WaitBoxRunnable;
 import org.pentaho.ui.xul.components.XulMessageBox;
+import org.pentaho.ui.xul.components.XulWaitBox;
 import org.pentaho.ui.xul.containers.XulEditpanel;
 import org.pentaho.ui.xul.impl.AbstractXulEventHandler;
 import org.slf4j.Logger;
@@ -334,6 +342,98 @@ public class PRPTVisualizationController extends AbstractXulEventHandler impleme
     save(thePrpt);
   }
   
+  public void exportCsv(){
+    export(PrptOutputFormat.CSV);
+  }
+
+  public void exportXlsx(){
+    export(PrptOutputFormat.XLSX);
+  }
+
+  /**
+   * Streams the report's query results to a file without laying out the report, so it works for detail reports
+   * far larger than the viewer can page through.
+   */
+  private void export(final PrptOutputFormat format){
+    if(getXmiFileLocation() == null){
+      showErrorDialog(BaseMessages.getString(IVisualization.class,"prpt_no_model"));
+      return;
+    }
+
+    FileDialog fileDialog = new FileDialog(spoon.getShell(), SWT.SAVE);
+    fileDialog.setFilterExtensions(new String[]{"*." + format.getExtension()}); //$NON-NLS-1$
+    fileDialog.setOverwrite(true);
+    String theFile = fileDialog.open();
+    if(theFile == null){
+      return;
+    }
+    if(theFile.endsWith("." + format.getExtension()) == false){ //$NON-NLS-1$
+      theFile += "." + format.getExtension(); //$NON-NLS-1$
+    }
+    final File outputFile = new File(theFile);
+    final PrptStreamingExporter exporter = new PrptStreamingExporter(report);
+
+    try {
+      final XulWaitBox box = (XulWaitBox) document.createElement("waitbox");
+      box.setIndeterminate(true);
+      box.setCanCancel(true);
+      box.setTitle(BaseMessages.getString(IVisualization.class,"prpt-export-title"));
+      box.setMessage(BaseMessages.getString(IVisualization.class,"prpt-export-message", "0"));
+      box.setCancelLabel(BaseMessages.getString(IVisualization.class,"prpt-export-cancel"));
+      box.setDialogParent(spoon.getShell());
+      box.setRunnable(new WaitBoxRunnable(box){
+        @Override
+        public void run() {
+          OutputStream out = null;
+          Exception error = null;
+          try {
+            out = new BufferedOutputStream(new FileOutputStream(outputFile));
+            exporter.export(out, format, new PrptStreamingExporter.ExportProgressListener(){
+              public void rowsExported(final long rowCount) {
+                Display.getDefault().asyncExec(new Runnable(){
+                  public void run() {
+                    box.setMessage(BaseMessages.getString(IVisualization.class,"prpt-export-message", String.valueOf(rowCount)));
+                  }
+                });
+              }
+            });
+          } catch (Exception e) {
+            logger.error("error exporting report data", e);
+            error = e;
+          } finally {
+            if(out != null){
+              try {
+                out.close();
+              } catch (Exception e) {
+                logger.warn("error closing export file", e);
+              }
+            }
+          }
+          if(exporter.isCanceled() || error != null){
+            outputFile.delete();
+          }
+          waitBox.stop();
+          if(error != null){
+            final String msg = BaseMessages.getString(IVisualization.class,"prpt-export-error", error.getMessage());
+            Display.getDefault().asyncExec(new Runnable(){
+              public void run() {
+                showErrorDialog(msg);
+              }
+            });
+          }
+        }
+
+        @Override
+        public void cancel() {
+          exporter.cancel();
+        }
+      });
+      box.start();
+    } catch (XulException e) {
+      logger.error("error exporting report data", e);
+    }
+  }
+
   public String getFileName(){
     return fileName;
   }
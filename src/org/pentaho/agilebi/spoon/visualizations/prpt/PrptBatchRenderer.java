@@ -0,0 +1,293 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.modules.output.pageable.pdf.PdfReportUtil;
+import org.pentaho.reporting.engine.classic.core.modules.output.table.csv.CSVReportUtil;
+import org.pentaho.reporting.engine.classic.core.modules.output.table.xls.ExcelReportUtil;
+import org.pentaho.reporting.libraries.base.util.ObjectUtilities;
+import org.pentaho.reporting.libraries.fonts.LibFontBoot;
+import org.pentaho.reporting.libraries.resourceloader.LibLoaderBoot;
+import org.pentaho.reporting.libraries.resourceloader.Resource;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders .prpt files to PDF, CSV or XLSX without any UI. The reporting engine is booted once per JVM and a
+ * single {@link ResourceManager} is shared by all workers so report bundles, fonts and images are parsed once.
+ * Reports are rendered in parallel on a fixed size worker pool.
+ */
+public class PrptBatchRenderer {
+
+  private static Logger logger = LoggerFactory.getLogger(PrptBatchRenderer.class);
+
+  private static final String USAGE = "Usage: PrptBatchRenderer [-format pdf|csv|xlsx] [-threads n] [-out dir] <file.prpt|dir>..."; //$NON-NLS-1$
+
+  private ResourceManager resourceManager;
+
+  private int poolSize;
+
+  public PrptBatchRenderer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public PrptBatchRenderer(int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("poolSize must be at least 1"); //$NON-NLS-1$
+    }
+    this.poolSize = poolSize;
+    bootReportingEngine();
+    resourceManager = new ResourceManager();
+    resourceManager.registerDefaults();
+  }
+
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  public ResourceManager getResourceManager() {
+    return resourceManager;
+  }
+
+  /**
+   * Boots the reporting libraries unless something else in this JVM (e.g. the PRPT perspective) already did.
+   */
+  public static synchronized void bootReportingEngine() {
+    if (ClassicEngineBoot.getInstance().isBootDone() == false) {
+      ObjectUtilities.setClassLoader(PrptBatchRenderer.class.getClassLoader());
+      ObjectUtilities.setClassLoaderSource(ObjectUtilities.CLASS_CONTEXT);
+
+      LibLoaderBoot.getInstance().start();
+      LibFontBoot.getInstance().start();
+      ClassicEngineBoot.getInstance().start();
+    }
+  }
+
+  /**
+   * Renders every report on the worker pool and waits for all of them to finish. A failure in one report is
+   * recorded in its result and does not stop the others.
+   *
+   * @param reports   the .prpt files to render
+   * @param outputDir directory receiving the rendered files, named after the report with the format's extension
+   * @param format    output format
+   * @return one result per report, in the order the reports were given
+   */
+  public List<PrptRenderResult> renderAll(List<File> reports, final File outputDir, final PrptOutputFormat format)
+      throws InterruptedException {
+    if (!outputDir.exists() && !outputDir.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create output directory " + outputDir); //$NON-NLS-1$
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(poolSize, Math.max(1, reports.size())),
+        new RendererThreadFactory());
+    try {
+      List<Future<PrptRenderResult>> futures = new ArrayList<Future<PrptRenderResult>>(reports.size());
+      for (final File report : reports) {
+        futures.add(executor.submit(new Callable<PrptRenderResult>() {
+          public PrptRenderResult call() throws Exception {
+            return render(report, outputDir, format);
+          }
+        }));
+      }
+
+      List<PrptRenderResult> results = new ArrayList<PrptRenderResult>(reports.size());
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          // render() traps its own exceptions, this only happens on errors like OutOfMemoryError
+          PrptRenderResult result = new PrptRenderResult(reports.get(i), null, format);
+          result.setError(new Exception(e.getCause()));
+          results.add(result);
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Renders a single report on the calling thread.
+   */
+  public PrptRenderResult render(File report, File outputDir, PrptOutputFormat format) {
+    String name = report.getName();
+    if (name.endsWith(".prpt")) { //$NON-NLS-1$
+      name = name.substring(0, name.length() - ".prpt".length()); //$NON-NLS-1$
+    }
+    File output = new File(outputDir, name + "." + format.getExtension()); //$NON-NLS-1$
+    PrptRenderResult result = new PrptRenderResult(report, output, format);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    long startAllocated = getAllocatedBytes(threadBean);
+    long start = System.currentTimeMillis();
+    OutputStream out = null;
+    try {
+      Resource resource = resourceManager.createDirectly(report, MasterReport.class);
+      MasterReport masterReport = (MasterReport) resource.getResource();
+
+      out = new BufferedOutputStream(new FileOutputStream(output));
+      switch (format) {
+        case PDF:
+          PdfReportUtil.createPDF(masterReport, out);
+          break;
+        case CSV:
+          CSVReportUtil.createCSV(masterReport, out, "UTF-8"); //$NON-NLS-1$
+          break;
+        case XLSX:
+          ExcelReportUtil.createXLSX(masterReport, out);
+          break;
+      }
+      out.flush();
+    } catch (Exception e) {
+      logger.error("Error rendering " + report, e); //$NON-NLS-1$
+      result.setError(e);
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (Exception e) {
+          logger.warn("Could not close " + output, e); //$NON-NLS-1$
+        }
+      }
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    long endAllocated = getAllocatedBytes(threadBean);
+    if (startAllocated >= 0 && endAllocated >= 0) {
+      result.setAllocatedBytes(endAllocated - startAllocated);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    result.setHeapUsedBytes(runtime.totalMemory() - runtime.freeMemory());
+    if (result.isSuccess() == false) {
+      output.delete();
+    }
+    return result;
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean threadBean) {
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+      if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Expands directories into the .prpt files they directly contain.
+   */
+  public static List<File> collectReports(List<String> paths) {
+    List<File> reports = new ArrayList<File>();
+    for (String path : paths) {
+      File file = new File(path);
+      if (file.isDirectory()) {
+        File[] children = file.listFiles();
+        if (children == null) {
+          continue;
+        }
+        for (File child : children) {
+          if (child.isFile() && child.getName().endsWith(".prpt")) { //$NON-NLS-1$
+            reports.add(child);
+          }
+        }
+      } else {
+        reports.add(file);
+      }
+    }
+    return reports;
+  }
+
+  public static void main(String[] args) throws Exception {
+    PrptOutputFormat format = PrptOutputFormat.PDF;
+    int threads = Runtime.getRuntime().availableProcessors();
+    File outputDir = new File("."); //$NON-NLS-1$
+    List<String> paths = new ArrayList<String>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("-format".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        format = PrptOutputFormat.fromString(args[++i]);
+        if (format == null) {
+          System.err.println("Unknown format " + args[i]); //$NON-NLS-1$
+          System.err.println(USAGE);
+          System.exit(2);
+        }
+      } else if ("-threads".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-out".equals(arg) && i + 1 < args.length) { //$NON-NLS-1$
+        outputDir = new File(args[++i]);
+      } else if (arg.startsWith("-")) { //$NON-NLS-1$
+        System.err.println(USAGE);
+        System.exit(2);
+      } else {
+        paths.add(arg);
+      }
+    }
+
+    List<File> reports = collectReports(paths);
+    if (reports.isEmpty()) {
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+
+    long start = System.currentTimeMillis();
+    PrptBatchRenderer renderer = new PrptBatchRenderer(threads);
+    List<PrptRenderResult> results = renderer.renderAll(reports, outputDir, format);
+
+    int failed = 0;
+    for (PrptRenderResult result : results) {
+      System.out.println(result);
+      if (!result.isSuccess()) {
+        failed++;
+      }
+    }
+    System.out.println("Rendered " + (results.size() - failed) + " of " + results.size() + " reports in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + (System.currentTimeMillis() - start) + " ms using " + renderer.getPoolSize() + " threads"); //$NON-NLS-1$ //$NON-NLS-2$
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  private static class RendererThreadFactory implements ThreadFactory {
+    private AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "prpt-renderer-" + count.incrementAndGet()); //$NON-NLS-1$
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
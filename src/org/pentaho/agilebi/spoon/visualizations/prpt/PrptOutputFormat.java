@@ -0,0 +1,55 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+/**
+ * Output formats supported when rendering a .prpt outside of the interactive viewer.
+ */
+public enum PrptOutputFormat {
+
+  PDF("pdf"), //$NON-NLS-1$
+  CSV("csv"), //$NON-NLS-1$
+  XLSX("xlsx"); //$NON-NLS-1$
+
+  private String extension;
+
+  private PrptOutputFormat(String extension) {
+    this.extension = extension;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Resolves a format from its name or file extension, ignoring case.
+   *
+   * @return the matching format or <code>null</code> if none matches
+   */
+  public static PrptOutputFormat fromString(String value) {
+    if (value == null) {
+      return null;
+    }
+    for (PrptOutputFormat format : values()) {
+      if (format.name().equalsIgnoreCase(value.trim()) || format.extension.equalsIgnoreCase(value.trim())) {
+        return format;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,114 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+import java.io.File;
+
+/**
+ * Outcome of rendering a single report in a {@link PrptBatchRenderer} run, including timing and memory figures.
+ */
+public class PrptRenderResult {
+
+  private File source;
+  private File output;
+  private PrptOutputFormat format;
+  private long elapsedMillis;
+  private long allocatedBytes = -1;
+  private long heapUsedBytes;
+  private Exception error;
+
+  public PrptRenderResult(File source, File output, PrptOutputFormat format) {
+    this.source = source;
+    this.output = output;
+    this.format = format;
+  }
+
+  public File getSource() {
+    return source;
+  }
+
+  public File getOutput() {
+    return output;
+  }
+
+  public PrptOutputFormat getFormat() {
+    return format;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public void setElapsedMillis(long elapsedMillis) {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  /**
+   * Bytes allocated by the rendering thread while producing this report, or -1 when the JVM cannot report
+   * per-thread allocation.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  public void setAllocatedBytes(long allocatedBytes) {
+    this.allocatedBytes = allocatedBytes;
+  }
+
+  /**
+   * Heap in use when the report finished rendering.
+   */
+  public long getHeapUsedBytes() {
+    return heapUsedBytes;
+  }
+
+  public void setHeapUsedBytes(long heapUsedBytes) {
+    this.heapUsedBytes = heapUsedBytes;
+  }
+
+  public Exception getError() {
+    return error;
+  }
+
+  public void setError(Exception error) {
+    this.error = error;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(isSuccess() ? "OK     " : "FAILED "); //$NON-NLS-1$ //$NON-NLS-2$
+    sb.append(source.getPath());
+    if (isSuccess()) {
+      sb.append(" -> ").append(output.getPath()); //$NON-NLS-1$
+    }
+    sb.append(" [").append(elapsedMillis).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    if (allocatedBytes >= 0) {
+      sb.append(", allocated ").append(allocatedBytes / 1024).append(" KB"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    sb.append(", heap ").append(heapUsedBytes / (1024 * 1024)).append(" MB]"); //$NON-NLS-1$ //$NON-NLS-2$
+    if (!isSuccess()) {
+      sb.append(" ").append(error.getMessage()); //$NON-NLS-1$
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,294 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.pentaho.agilebi.spoon.wizard.CompiledMqlQuery;
+import org.pentaho.agilebi.spoon.wizard.MqlQueryCache;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.IPmdConnectionProvider;
+import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.PmdDataFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports the rows of a report's PMD query straight from the JDBC result set to CSV or XLSX. The report is never
+ * laid out and the result set is never materialized, so memory stays bounded regardless of the row count.
+ */
+public class PrptStreamingExporter {
+
+  /**
+   * Receives progress while rows are being written. Called on the exporting thread.
+   */
+  public interface ExportProgressListener {
+    void rowsExported(long rowCount);
+  }
+
+  private static Logger logger = LoggerFactory.getLogger(PrptStreamingExporter.class);
+
+  private static final int FETCH_SIZE = 1000;
+
+  /** Rows kept in memory by the streaming XLSX writer before they are flushed to its temp file */
+  private static final int XLSX_ROW_WINDOW = 500;
+
+  private static final int PROGRESS_INTERVAL = 1000;
+
+  /** Data rows per worksheet, the XLSX row limit minus the header row */
+  private static final int XLSX_SHEET_ROWS = 1048575;
+
+  private MasterReport report;
+
+  private volatile boolean canceled;
+
+  private volatile Statement statement;
+
+  public PrptStreamingExporter(MasterReport report) {
+    this.report = report;
+  }
+
+  /**
+   * Stops a running export. The current JDBC statement is canceled and {@link #export} returns after the row it is
+   * writing.
+   */
+  public void cancel() {
+    canceled = true;
+    Statement stmt = statement;
+    if (stmt != null) {
+      try {
+        stmt.cancel();
+      } catch (SQLException e) {
+        logger.debug("Statement cancel not supported", e); //$NON-NLS-1$
+      }
+    }
+  }
+
+  public boolean isCanceled() {
+    return canceled;
+  }
+
+  /**
+   * Runs the report's query and writes every row to <code>out</code>.
+   *
+   * @return the number of rows written
+   */
+  public long export(OutputStream out, PrptOutputFormat format, ExportProgressListener listener)
+      throws ReportDataFactoryException, SQLException, IOException {
+    if (format == PrptOutputFormat.PDF) {
+      throw new IllegalArgumentException("PDF requires page layout and cannot be streamed"); //$NON-NLS-1$
+    }
+    canceled = false;
+
+    PmdDataFactory df = findPmdDataFactory();
+    if (df == null) {
+      throw new ReportDataFactoryException("Report does not use a metadata data source"); //$NON-NLS-1$
+    }
+    String mql = df.getQuery(report.getQuery());
+    if (mql == null) {
+      throw new ReportDataFactoryException("Report query " + report.getQuery() + " is not defined"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    IPmdConnectionProvider connectionProvider = df.getConnectionProvider();
+    IMetadataDomainRepository repo = connectionProvider.getMetadataDomainRepository(df.getDomainId(),
+        report.getResourceManager(), report.getContentBase(), df.getXmiFile());
+    CompiledMqlQuery compiled = MqlQueryCache.getInstance().compile(repo, df.getDomainId(), df.getXmiFile(), mql);
+    String[] headers = compiled.getColumnNames();
+
+    Connection connection = connectionProvider.createConnection(compiled.getDatabaseMeta(), null, null);
+    ResultSet rs = null;
+    try {
+      boolean autoCommit = connection.getAutoCommit();
+      // most drivers (PostgreSQL in particular) only honour the fetch size outside of auto-commit mode
+      connection.setAutoCommit(false);
+      statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(FETCH_SIZE);
+      rs = statement.executeQuery(compiled.getSql());
+      long rows;
+      if (format == PrptOutputFormat.CSV) {
+        rows = writeCsv(rs, headers, out, listener);
+      } else {
+        rows = writeXlsx(rs, headers, out, listener);
+      }
+      connection.setAutoCommit(autoCommit);
+      return rows;
+    } catch (SQLException e) {
+      if (canceled) {
+        logger.info("Export canceled"); //$NON-NLS-1$
+        return -1;
+      }
+      throw e;
+    } finally {
+      if (rs != null) {
+        try {
+          rs.close();
+        } catch (SQLException e) {
+          logger.debug("Could not close result set", e); //$NON-NLS-1$
+        }
+      }
+      if (statement != null) {
+        try {
+          statement.close();
+        } catch (SQLException e) {
+          logger.debug("Could not close statement", e); //$NON-NLS-1$
+        }
+        statement = null;
+      }
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        logger.debug("Could not close connection", e); //$NON-NLS-1$
+      }
+    }
+  }
+
+  private PmdDataFactory findPmdDataFactory() {
+    DataFactory df = report.getDataFactory();
+    if (df instanceof PmdDataFactory) {
+      return (PmdDataFactory) df;
+    }
+    if (df instanceof CompoundDataFactory) {
+      DataFactory queryDf = ((CompoundDataFactory) df).getDataFactoryForQuery(report.getQuery());
+      if (queryDf instanceof PmdDataFactory) {
+        return (PmdDataFactory) queryDf;
+      }
+    }
+    return null;
+  }
+
+  private long writeCsv(ResultSet rs, String[] headers, OutputStream out, ExportProgressListener listener)
+      throws SQLException, IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8")); //$NON-NLS-1$
+    writeCsvLine(writer, headers);
+    int columnCount = headers.length;
+    String[] values = new String[columnCount];
+    long rows = 0;
+    while (!canceled && rs.next()) {
+      for (int i = 0; i < columnCount; i++) {
+        Object value = rs.getObject(i + 1);
+        values[i] = value == null ? "" : value.toString(); //$NON-NLS-1$
+      }
+      writeCsvLine(writer, values);
+      rows++;
+      if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+        listener.rowsExported(rows);
+      }
+    }
+    writer.flush();
+    if (listener != null) {
+      listener.rowsExported(rows);
+    }
+    return rows;
+  }
+
+  static void writeCsvLine(Writer writer, String[] values) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      String value = values[i];
+      if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\"")); //$NON-NLS-1$ //$NON-NLS-2$
+        writer.write('"');
+      } else {
+        writer.write(value);
+      }
+    }
+    writer.write("\r\n"); //$NON-NLS-1$
+  }
+
+  private long writeXlsx(ResultSet rs, String[] headers, OutputStream out, ExportProgressListener listener)
+      throws SQLException, IOException {
+    SXSSFWorkbook workbook = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+    try {
+      CellStyle dateStyle = workbook.createCellStyle();
+      dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss")); //$NON-NLS-1$
+
+      Sheet sheet = null;
+      int columnCount = headers.length;
+      long rows = 0;
+      while (!canceled && rs.next()) {
+        int sheetRow = (int) (rows % XLSX_SHEET_ROWS);
+        if (sheetRow == 0) {
+          // start a new worksheet whenever the current one is full
+          sheet = workbook.createSheet();
+          Row headerRow = sheet.createRow(0);
+          for (int i = 0; i < headers.length; i++) {
+            headerRow.createCell(i).setCellValue(headers[i]);
+          }
+        }
+        Row row = sheet.createRow(sheetRow + 1);
+        for (int i = 0; i < columnCount; i++) {
+          Object value = rs.getObject(i + 1);
+          if (value == null) {
+            continue;
+          }
+          Cell cell = row.createCell(i);
+          if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+          } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(dateStyle);
+          } else if (value instanceof Boolean) {
+            cell.setCellValue(((Boolean) value).booleanValue());
+          } else {
+            cell.setCellValue(value.toString());
+          }
+        }
+        rows++;
+        if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+          listener.rowsExported(rows);
+        }
+      }
+      if (sheet == null) {
+        sheet = workbook.createSheet();
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++) {
+          headerRow.createCell(i).setCellValue(headers[i]);
+        }
+      }
+      workbook.write(out);
+      out.flush();
+      if (listener != null) {
+        listener.rowsExported(rows);
+      }
+      return rows;
+    } finally {
+      // removes the temp files backing the flushed rows
+      workbook.dispose();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+
+/**
+ * The SQL generated for an MQL query together with the logical columns its result set columns map to, in select
+ * order. Instances are immutable and shared through {@link MqlQueryCache}.
+ */
+public class CompiledMqlQuery {
+
+  private String sql;
+  private DatabaseMeta databaseMeta;
+  private String[] columnIds;
+  private String[] columnNames;
+
+  public CompiledMqlQuery(String sql, DatabaseMeta databaseMeta, String[] columnIds, String[] columnNames) {
+    this.sql = sql;
+    this.databaseMeta = databaseMeta;
+    this.columnIds = columnIds;
+    this.columnNames = columnNames;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * The connection the SQL was generated for.
+   */
+  public DatabaseMeta getDatabaseMeta() {
+    return databaseMeta;
+  }
+
+  /**
+   * Logical column ids, index <code>i</code> describes result set column <code>i + 1</code>.
+   */
+  public String[] getColumnIds() {
+    return columnIds.clone();
+  }
+
+  /**
+   * Localized logical column names, in the same order as {@link #getColumnIds()}.
+   */
+  public String[] getColumnNames() {
+    return columnNames.clone();
+  }
+
+  public int getColumnCount() {
+    return columnIds.length;
+  }
+}
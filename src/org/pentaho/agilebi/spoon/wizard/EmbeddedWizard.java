@@ -184,6 +184,7 @@ public class EmbeddedWizard
     {
       if (wizardController.isCancelled())
       {
+        ((DataSourceAndQueryStep)wizardController.getStep(1)).dispose();
         dialog.hide();
       }
     }
@@ -195,6 +196,7 @@ public class EmbeddedWizard
     {
       if (wizardController.isFinished())
       {
+        ((DataSourceAndQueryStep)wizardController.getStep(1)).dispose();
         dialog.hide();
       }
     }
@@ -0,0 +1,169 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.query.impl.sql.MappedQuery;
+import org.pentaho.metadata.query.impl.sql.SqlGenerator;
+import org.pentaho.metadata.query.model.Query;
+import org.pentaho.metadata.query.model.Selection;
+import org.pentaho.metadata.query.model.util.QueryXmlHelper;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.metadata.util.ThinModelConverter;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+
+/**
+ * Caches the SQL generated for MQL queries so that repeated wizard previews and report exports of the same query
+ * skip parsing the MQL and running the SQL generator. Entries are keyed by the whitespace normalized MQL, the domain
+ * and the version (modification time and size) of the XMI the domain was loaded from, so editing and saving the model
+ * naturally invalidates them. The least recently used entries are dropped once the cache is full.
+ */
+public class MqlQueryCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 200;
+
+  private static MqlQueryCache instance = new MqlQueryCache(DEFAULT_MAX_ENTRIES);
+
+  private final Map<String, CompiledMqlQuery> cache;
+
+  private int hits;
+
+  private int misses;
+
+  public static MqlQueryCache getInstance() {
+    return instance;
+  }
+
+  public MqlQueryCache(final int maxEntries) {
+    cache = new LinkedHashMap<String, CompiledMqlQuery>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompiledMqlQuery> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the compiled form of <code>mql</code>, generating and caching it on first use.
+   *
+   * @param repo     repository holding the domain the query refers to
+   * @param domainId id of that domain
+   * @param xmiFile  file the domain was loaded from, may be <code>null</code> if unknown
+   * @param mql      the MQL query XML
+   */
+  public CompiledMqlQuery compile(IMetadataDomainRepository repo, String domainId, String xmiFile, String mql)
+      throws ReportDataFactoryException {
+    String key = createKey(domainId, xmiFile, mql);
+    synchronized (cache) {
+      CompiledMqlQuery compiled = cache.get(key);
+      if (compiled != null) {
+        hits++;
+        return compiled;
+      }
+      misses++;
+    }
+
+    // generate outside of the lock, a duplicate compile of the same query is cheaper than serializing all callers
+    CompiledMqlQuery compiled = generate(repo, mql);
+    synchronized (cache) {
+      cache.put(key, compiled);
+    }
+    return compiled;
+  }
+
+  private CompiledMqlQuery generate(IMetadataDomainRepository repo, String mql) throws ReportDataFactoryException {
+    Query query;
+    try {
+      query = new QueryXmlHelper().fromXML(repo, mql);
+    } catch (Exception e) {
+      throw new ReportDataFactoryException("Unable to parse the metadata query", e); //$NON-NLS-1$
+    }
+
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) query.getLogicalModel().getPhysicalModel();
+    DatabaseMeta databaseMeta = ThinModelConverter.convertToLegacy(physicalModel.getId(), physicalModel.getDatasource());
+    String locale = Locale.getDefault().toString();
+    MappedQuery mappedQuery;
+    try {
+      mappedQuery = new SqlGenerator().generateSql(query, locale, repo, databaseMeta,
+          new HashMap<String, Object>(), false);
+    } catch (Exception e) {
+      throw new ReportDataFactoryException("Unable to generate SQL for the metadata query", e); //$NON-NLS-1$
+    }
+
+    List<Selection> selections = query.getSelections();
+    String[] columnIds = new String[selections.size()];
+    String[] columnNames = new String[selections.size()];
+    for (int i = 0; i < columnIds.length; i++) {
+      columnIds[i] = selections.get(i).getLogicalColumn().getId();
+      columnNames[i] = selections.get(i).getLogicalColumn().getName(locale);
+    }
+    return new CompiledMqlQuery(mappedQuery.getQuery(), databaseMeta, columnIds, columnNames);
+  }
+
+  static String createKey(String domainId, String xmiFile, String mql) {
+    StringBuilder key = new StringBuilder();
+    key.append(domainId).append('|');
+    if (xmiFile != null) {
+      File file = new File(xmiFile);
+      key.append(file.getAbsolutePath()).append('@').append(file.lastModified()).append(':').append(file.length());
+    }
+    key.append('|').append(normalize(mql));
+    return key.toString();
+  }
+
+  /**
+   * Removes formatting whitespace between elements so that equivalent queries share a cache entry.
+   */
+  static String normalize(String mql) {
+    return mql.trim().replaceAll(">\\s+<", "><"); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public int getHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  public int getMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+}
@@ -18,7 +18,9 @@
 package org.pentaho.agilebi.spoon.wizard.ui.xul.steps;
 
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.spoon.wizard.CompiledMqlQuery;
 import org.pentaho.agilebi.spoon.wizard.EmbeddedWizard;
+import org.pentaho.agilebi.spoon.wizard.MqlQueryCache;
 import org.pentaho.commons.metadata.mqleditor.MqlQuery;
 import org.pentaho.commons.metadata.mqleditor.editor.MQLEditorService;
 import org.pentaho.commons.metadata.mqleditor.editor.SwtMqlEditor;
@@ -32,19 +34,12 @@ import org.pentaho.reporting.engine.classic.core.wizard.DataAttributes;
 import org.pentaho.reporting.engine.classic.core.wizard.DataSchema;
 import org.pentaho.reporting.engine.classic.core.wizard.DataSchemaModel;
 import org.pentaho.reporting.engine.classic.core.wizard.DefaultDataAttributeContext;
-import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.IPmdConnectionProvider;
 import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.PmdConnectionProvider;
 import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.PmdDataFactory;
 import org.pentaho.reporting.engine.classic.wizard.ui.xul.WizardEditorModel;
 import org.pentaho.reporting.engine.classic.wizard.ui.xul.components.AbstractWizardStep;
-import org.pentaho.reporting.libraries.base.config.Configuration;
 import org.pentaho.reporting.libraries.base.util.DebugLog;
 import org.pentaho.reporting.libraries.base.util.StringUtils;
-import org.pentaho.reporting.libraries.formula.DefaultFormulaContext;
-import org.pentaho.reporting.libraries.formula.FormulaContext;
-import org.pentaho.reporting.libraries.resourceloader.ResourceKey;
-import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
-import org.pentaho.reporting.ui.datasources.pmd.PmdPreviewWorker;
 import org.pentaho.ui.xul.XulDomContainer;
 import org.pentaho.ui.xul.XulException;
 import org.pentaho.ui.xul.XulLoader;
@@ -55,8 +50,11 @@ import org.pentaho.ui.xul.impl.AbstractXulEventHandler;
 import org.pentaho.ui.xul.impl.DefaultXulOverlay;
 import org.pentaho.ui.xul.swt.SwtXulLoader;
 
-import javax.swing.table.TableModel;
 import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -84,6 +82,97 @@ public class DataSourceAndQueryStep extends AbstractWizardStep
   private ModelerWorkspace model;
   private File modelFile;
   private List<String> availableColumns;
+  private PreviewQueryRunner previewRunner = new PreviewQueryRunner();
+  private PreviewSession previewSession;
+
+  /**
+   * Runs MQL editor previews against the wizard's PMD data source. The SQL for each query comes from the shared
+   * {@link MqlQueryCache}, so re-running an unchanged query does not regenerate it, and runs on the connection held
+   * by the wizard's {@link PreviewSession}. Only the requested page is fetched: the row limit is pushed into the
+   * generated SQL and only the rows of that page are formatted.
+   */
+  protected class PreviewServiceDelegate extends MQLEditorServiceDelegate
+  {
+    private IMetadataDomainRepository repo;
+    private PreviewSession session;
+
+    public PreviewServiceDelegate(PreviewSession session) throws ReportDataFactoryException
+    {
+      super(session.getDomainRepository());
+      this.repo = session.getDomainRepository();
+      this.session = session;
+    }
+
+    @Override
+    public String[][] getPreviewData(MqlQuery query, int page, int limit) {
+      try {
+        return createPreviewTask(query, page, limit).call();
+      } catch (Exception e) {
+        getDesignTimeContext().userError(e);
+        return null;
+      }
+    }
+
+    /**
+     * @param page zero based page number
+     * @param limit rows per page, or a value &lt;= 0 for all rows
+     */
+    public PreviewQueryRunner.PreviewTask createPreviewTask(final MqlQuery query, int page, final int limit) {
+      final int offset = limit > 0 ? Math.max(0, page) * limit : 0;
+      final int rowsToFetch = limit > 0 ? offset + limit : 0;
+
+      return new PreviewQueryRunner.PreviewTask() {
+        private volatile Statement statement;
+
+        public String[][] call() throws Exception {
+          org.pentaho.metadata.query.model.Query mqlQuery = convertQueryModel(query);
+          if (rowsToFetch > 0) {
+            // let the database stop after the requested page instead of trimming the rows afterwards
+            mqlQuery.setLimit(rowsToFetch);
+          }
+          String mqlString = new QueryXmlHelper().toXML(mqlQuery);
+          PmdDataFactory sessionDf = session.getDataFactory();
+          CompiledMqlQuery compiled = MqlQueryCache.getInstance().compile(repo, sessionDf.getDomainId(), sessionDf.getXmiFile(), mqlString);
+
+          Connection connection = session.getConnection(compiled.getDatabaseMeta());
+          Statement stmt = connection.createStatement();
+          statement = stmt;
+          boolean failed = true;
+          try {
+            if (rowsToFetch > 0) {
+              stmt.setMaxRows(rowsToFetch);
+            }
+            ResultSet rs = stmt.executeQuery(compiled.getSql());
+            try {
+              String[][] results = PreviewQueryRunner.readPage(rs, compiled.getColumnCount(), offset, limit);
+              failed = false;
+              return results;
+            } finally {
+              rs.close();
+            }
+          } finally {
+            statement = null;
+            stmt.close();
+            if (failed) {
+              // canceled or broken, either way don't hand this connection to the next preview
+              session.invalidateConnection();
+            }
+          }
+        }
+
+        public void cancel() {
+          Statement stmt = statement;
+          if (stmt != null) {
+            try {
+              stmt.cancel();
+            } catch (SQLException e) {
+              DebugLog.log("Unable to cancel preview query", e); //$NON-NLS-1$
+            }
+          }
+        }
+      };
+    }
+  }
 
   /**
    * @author wseyler
@@ -106,86 +195,20 @@ public class DataSourceAndQueryStep extends AbstractWizardStep
     }
 
     private IMetadataDomainRepository getDomainRepo() throws ReportDataFactoryException {
-
-      IPmdConnectionProvider connectionProvider = ((PmdDataFactory) getEditorModel().getReportDefinition().getDataFactory()).getConnectionProvider();
-      IMetadataDomainRepository repo = connectionProvider.getMetadataDomainRepository(DEFAULT, getEditorModel().getReportDefinition().getResourceManager(), getEditorModel().getReportDefinition().getContentBase(), df.getXmiFile());
-      
-      return repo;
+      return getPreviewSession().getDomainRepository();
     }
     
     
-    private MQLEditorServiceDelegate getMqlServiceDelegate() throws ReportDataFactoryException{
-
-      MQLEditorServiceDelegate delegate = new MQLEditorServiceDelegate(getDomainRepo()) {
-        @Override
-        public String[][] getPreviewData(MqlQuery query, int page, int limit) {
-          try {
-            org.pentaho.metadata.query.model.Query mqlQuery = convertQueryModel(query);
-            String mqlString = new QueryXmlHelper().toXML(mqlQuery);
-
-
-            final MasterReport masterReport = (MasterReport) getEditorModel().getReportDefinition();
-            final PmdDataFactory df = (PmdDataFactory) masterReport.getDataFactory();
-
-            df.initialize(new DataFactoryContext(){
-              public Configuration getConfiguration() {
-                return masterReport.getConfiguration();
-              }
-
-              public ResourceManager getResourceManager() {
-                return masterReport.getResourceManager();
-              }
-
-              public ResourceKey getContextKey() {
-                return masterReport.getContentBase();
-              }
-
-              public ResourceBundleFactory getResourceBundleFactory() {
-                return masterReport.getResourceBundleFactory();
-              }
-
-              public DataFactory getContextDataFactory() {
-                return df;
-              }
-
-              public FormulaContext getFormulaContext() {
-                return new DefaultFormulaContext();
-              }
-            });
-
-            df.setQuery("default", mqlString);
-            PmdPreviewWorker worker = new PmdPreviewWorker(df, "default", 0,  limit);
-            worker.run();
-            if(worker.getException() != null){
-              worker.getException().printStackTrace();
-            }
-            TableModel model = worker.getResultTableModel();
-            int colCount = model.getColumnCount();
-            int rowCount = model.getRowCount();
-            String[][] results = new String[rowCount][colCount];
-            for(int y = 0; y < rowCount; y++ ){
-              for(int x=0; x < colCount; x++){
-                results[y][x] = ""+model.getValueAt(y, x);
-              }
-            }
-            return results;
-          } catch (ReportDataFactoryException e) {
-            getDesignTimeContext().userError(e);
-            return null;
-          }
-          
-
-        }
-      };
-      return delegate;
+    private PreviewServiceDelegate getMqlServiceDelegate() throws ReportDataFactoryException{
+      return new PreviewServiceDelegate(getPreviewSession());
     }
     
-    private MQLEditorService getMqlService(MQLEditorServiceDelegate delegate){
+    private MQLEditorService getMqlService(final PreviewServiceDelegate delegate){
 
       MQLEditorServiceImpl mqlService = new MQLEditorServiceImpl(delegate) {
         @Override
         public void getPreviewData(MqlQuery query, int page, int limit, XulServiceCallback<String[][]> callback) {
-          callback.success(delegate.getPreviewData(query, page, limit));
+          previewRunner.submit(delegate.createPreviewTask(query, page, limit), callback);
         }
       };
       return mqlService;
@@ -226,6 +249,8 @@ public class DataSourceAndQueryStep extends AbstractWizardStep
         }
         editor.addOverlay(new DefaultXulOverlay("org/pentaho/agilebi/spoon/wizard/ui/xul/res/mqleditor-overlay.xul"));
         editor.show();
+        // the editor is closed, nobody is waiting for a preview anymore
+        previewRunner.cancel();
         if (editor.getOkClicked()) {
           queryString = editor.getQuery();
           df.setQuery(DEFAULT, queryString);
@@ -301,6 +326,22 @@ public class DataSourceAndQueryStep extends AbstractWizardStep
     setValid(validateStep());
   }
 
+  /**
+   * @return the preview session for the current data factory, replacing the previous session if the data factory
+   * changed since it was created.
+   */
+  private PreviewSession getPreviewSession() {
+    if (previewSession != null && previewSession.getDataFactory() != df) {
+      previewRunner.cancel();
+      previewSession.close();
+      previewSession = null;
+    }
+    if (previewSession == null) {
+      previewSession = new PreviewSession(getEditorModel().getReportDefinition(), df);
+    }
+    return previewSession;
+  }
+
 
   
   /**
@@ -472,6 +513,17 @@ public class DataSourceAndQueryStep extends AbstractWizardStep
     this.model = model;
   }
 
+  /**
+   * Releases the resources held for previews. Called when the wizard is finished or cancelled.
+   */
+  public void dispose() {
+    previewRunner.dispose();
+    if (previewSession != null) {
+      previewSession.close();
+      previewSession = null;
+    }
+  }
+
   /* (non-Javadoc)
    * @see org.pentaho.reporting.engine.classic.wizard.ui.xul.components.WizardStep#setBindings()
    * 
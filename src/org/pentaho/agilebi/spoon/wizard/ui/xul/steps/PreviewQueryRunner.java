@@ -0,0 +1,176 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard.ui.xul.steps;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.swt.widgets.Display;
+import org.pentaho.ui.xul.XulServiceCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs wizard preview queries off the UI thread. Only the most recently submitted preview is delivered: submitting a
+ * new one (because the query was edited) or calling {@link #cancel()} abandons whatever is still running, and its
+ * results are dropped.
+ */
+public class PreviewQueryRunner {
+
+  /**
+   * A preview query that can be interrupted from another thread.
+   */
+  public interface PreviewTask extends Callable<String[][]> {
+    void cancel();
+  }
+
+  private static Logger logger = LoggerFactory.getLogger(PreviewQueryRunner.class);
+
+  private ExecutorService executor;
+
+  private final AtomicInteger generation = new AtomicInteger();
+
+  private PreviewTask currentTask;
+
+  private Future<?> currentFuture;
+
+  /**
+   * Runs <code>task</code> in the background and hands its result to <code>callback</code> on the SWT UI thread,
+   * unless another preview was submitted or {@link #cancel()} was called in the meantime.
+   */
+  public synchronized void submit(final PreviewTask task, final XulServiceCallback<String[][]> callback) {
+    cancelCurrent();
+    final int myGeneration = generation.get();
+    currentTask = task;
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "wizard-preview"); //$NON-NLS-1$
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    currentFuture = executor.submit(new Runnable() {
+      public void run() {
+        if (myGeneration != generation.get()) {
+          return;
+        }
+        try {
+          final String[][] result = task.call();
+          deliver(myGeneration, new Runnable() {
+            public void run() {
+              callback.success(result);
+            }
+          });
+        } catch (final Exception e) {
+          if (myGeneration != generation.get()) {
+            logger.debug("Abandoned preview failed", e); //$NON-NLS-1$
+            return;
+          }
+          logger.error("Preview query failed", e); //$NON-NLS-1$
+          deliver(myGeneration, new Runnable() {
+            public void run() {
+              callback.error(e.getMessage(), e);
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /**
+   * Abandons the running preview, if any.
+   */
+  public synchronized void cancel() {
+    cancelCurrent();
+  }
+
+  /**
+   * Cancels any running preview and stops the background thread.
+   */
+  public synchronized void dispose() {
+    cancelCurrent();
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void cancelCurrent() {
+    generation.incrementAndGet();
+    if (currentTask != null) {
+      try {
+        currentTask.cancel();
+      } catch (Exception e) {
+        logger.debug("Could not cancel preview query", e); //$NON-NLS-1$
+      }
+      currentTask = null;
+    }
+    if (currentFuture != null) {
+      currentFuture.cancel(true);
+      currentFuture = null;
+    }
+  }
+
+  private void deliver(final int myGeneration, final Runnable delivery) {
+    Display display = Display.getDefault();
+    if (display == null || display.isDisposed()) {
+      return;
+    }
+    display.asyncExec(new Runnable() {
+      public void run() {
+        // re-check on the UI thread, a newer preview may have been requested while this one was queued
+        if (myGeneration == generation.get()) {
+          delivery.run();
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the rows <code>[offset, offset + limit)</code> of <code>rs</code> and formats them for display. Rows before
+   * the page are skipped without being read and nothing after the page is fetched.
+   *
+   * @param limit maximum rows to return, or a value &lt;= 0 to return everything after <code>offset</code>
+   */
+  public static String[][] readPage(ResultSet rs, int columnCount, int offset, int limit) throws SQLException {
+    for (int i = 0; i < offset; i++) {
+      if (!rs.next()) {
+        return new String[0][columnCount];
+      }
+    }
+    List<String[]> rows = new ArrayList<String[]>(limit > 0 ? limit : 100);
+    while ((limit <= 0 || rows.size() < limit) && rs.next()) {
+      String[] row = new String[columnCount];
+      for (int x = 0; x < columnCount; x++) {
+        row[x] = String.valueOf(rs.getObject(x + 1));
+      }
+      rows.add(row);
+    }
+    return rows.toArray(new String[rows.size()][]);
+  }
+}
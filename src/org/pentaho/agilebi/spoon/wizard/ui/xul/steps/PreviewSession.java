@@ -0,0 +1,118 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard.ui.xul.steps;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.reporting.engine.classic.core.AbstractReportDefinition;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.extensions.datasources.pmd.PmdDataFactory;
+import org.pentaho.reporting.libraries.base.util.DebugLog;
+
+/**
+ * State shared by all previews of one wizard run: the metadata domain repository is resolved once per XMI file and
+ * a single JDBC connection is kept open between previews. Previews are serialized by {@link PreviewQueryRunner}, so
+ * one connection is all the session needs. {@link #close()} must be called when the wizard is finished or cancelled.
+ */
+public class PreviewSession {
+
+  private final AbstractReportDefinition report;
+
+  private final PmdDataFactory df;
+
+  private IMetadataDomainRepository domainRepository;
+
+  private String domainRepositoryXmiFile;
+
+  private Connection connection;
+
+  private DatabaseMeta connectionMeta;
+
+  public PreviewSession(AbstractReportDefinition report, PmdDataFactory df) {
+    this.report = report;
+    this.df = df;
+  }
+
+  public PmdDataFactory getDataFactory() {
+    return df;
+  }
+
+  /**
+   * Returns the domain repository for the data factory's XMI file, loading it only when the file changed since the
+   * last call.
+   */
+  public synchronized IMetadataDomainRepository getDomainRepository() throws ReportDataFactoryException {
+    String xmiFile = df.getXmiFile();
+    if (domainRepository == null || xmiFile == null || !xmiFile.equals(domainRepositoryXmiFile)) {
+      domainRepository = df.getConnectionProvider().getMetadataDomainRepository(df.getDomainId(),
+          report.getResourceManager(), report.getContentBase(), xmiFile);
+      domainRepositoryXmiFile = xmiFile;
+    }
+    return domainRepository;
+  }
+
+  /**
+   * Returns the session's open connection to <code>databaseMeta</code>, opening a new one if there is none yet, the
+   * target changed or the previous one was closed. The connection stays owned by the session; callers must not close
+   * it.
+   */
+  public synchronized Connection getConnection(DatabaseMeta databaseMeta) throws ReportDataFactoryException {
+    try {
+      if (connection != null && (!databaseMeta.equals(connectionMeta) || connection.isClosed())) {
+        closeConnection();
+      }
+    } catch (SQLException e) {
+      closeConnection();
+    }
+    if (connection == null) {
+      connection = df.getConnectionProvider().createConnection(databaseMeta, null, null);
+      connectionMeta = databaseMeta;
+    }
+    return connection;
+  }
+
+  /**
+   * Drops the current connection, e.g. after a query failed and the connection may be unusable.
+   */
+  public synchronized void invalidateConnection() {
+    closeConnection();
+  }
+
+  /**
+   * Closes the connection. The data factory belongs to the report and is left open.
+   */
+  public synchronized void close() {
+    closeConnection();
+    domainRepository = null;
+  }
+
+  private void closeConnection() {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        DebugLog.log("Unable to close preview connection", e); //$NON-NLS-1$
+      }
+      connection = null;
+      connectionMeta = null;
+    }
+  }
+}
@@ -32,6 +32,7 @@ import org.apache.commons.vfs.FileObject;
 import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.RandomAccessContent;
 import org.apache.commons.vfs.util.RandomAccessMode;
+import org.pentaho.agilebi.platform.aggregates.AggregateSchemaDecorator;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.util.MondrianModelExporter;
@@ -108,21 +109,13 @@ public class MetadataToMondrianVfsFileContent implements FileContent {
       XmiParser parser = new XmiParser();
       FileInputStream fis = new FileInputStream(new File(fileObject.getFileRef()));
       Domain domain = parser.parseXmi(fis);
-      String locale = Locale.getDefault().toString();
-      if (domain.getLocales().size() > 0) {
-        locale = domain.getLocales().get(0).getCode();
-      }
-      
       if (domain.getLogicalModels().size() == 0) {
         throw new Exception("Domain " + fileObject.getFileRef() + " does not contain model.");
       }
 
-      LogicalModel lModel = domain.getLogicalModels().get(0);
-      if(domain.getLogicalModels().size() > 1) {
-        lModel = domain.getLogicalModels().get(1);
-      }
-      MondrianModelExporter exporter = new MondrianModelExporter(lModel, locale);
+      MondrianModelExporter exporter = new MondrianModelExporter(getOlapModel(domain), getLocale(domain));
       String mondrianSchema = exporter.createMondrianModelXML();
+      mondrianSchema = AggregateSchemaDecorator.decorate(mondrianSchema, fileObject.getFileRef());
 
       inputStream = new ByteArrayInputStream(mondrianSchema.getBytes());
     } catch (Exception e) {
@@ -132,6 +125,34 @@ public class MetadataToMondrianVfsFileContent implements FileContent {
     return inputStream;
   }
 
+  /**
+   * @return the model the Mondrian schema of <code>domain</code> is exported from: the OLAP model of a dual mode
+   * domain, otherwise its only model
+   */
+  public static LogicalModel getOlapModel(Domain domain) {
+    if (domain.getLogicalModels().size() > 1) {
+      return domain.getLogicalModels().get(1);
+    }
+    return domain.getLogicalModels().get(0);
+  }
+
+  /**
+   * @return the locale the Mondrian schema of <code>domain</code> is exported in
+   */
+  public static String getLocale(Domain domain) {
+    if (domain.getLocales().size() > 0) {
+      return domain.getLocales().get(0).getCode();
+    }
+    return Locale.getDefault().toString();
+  }
+
+  /**
+   * @return the name of the Mondrian schema exported from <code>domain</code>, which is the name of its OLAP model
+   */
+  public static String getSchemaName(Domain domain) {
+    return getOlapModel(domain).getName(getLocale(domain));
+  }
+
   public OutputStream getOutputStream() throws FileSystemException {
     // not needed for our usage
     return null;
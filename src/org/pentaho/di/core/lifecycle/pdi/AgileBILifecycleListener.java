@@ -30,6 +30,8 @@ import org.pentaho.agilebi.spoon.OutputStepModelerSource;
 import org.pentaho.agilebi.spoon.perspective.AgileBiInstaPerspective;
 import org.pentaho.agilebi.spoon.perspective.AgileBiModelerPerspective;
 import org.pentaho.agilebi.spoon.perspective.AgileBiSpoonInstaPlugin;
+import org.pentaho.agilebi.spoon.publish.BiServerClientRegistry;
+import org.pentaho.agilebi.spoon.registry.WriteBehindRegistry;
 import org.pentaho.agilebi.spoon.visualizations.IVisualization;
 import org.pentaho.agilebi.spoon.visualizations.VisualizationManager;
 import org.pentaho.agilebi.vfs.MetadataToMondrianVfs;
@@ -43,6 +45,8 @@ import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.plugins.PluginClassTypeMapping;
 import org.pentaho.di.ui.core.PropsUI;
 import org.pentaho.di.ui.spoon.Spoon;
+import org.pentaho.metadata.registry.IMetadataRegistry;
+import org.pentaho.metadata.registry.RegistryFactory;
 import org.pentaho.platform.api.engine.IPluginManager;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 
@@ -137,6 +141,15 @@ public class AgileBILifecycleListener implements LifecycleListener, GUIOption<Ob
     server.stopServer();
     AgileBiInstaPerspective.getInstance().shutdown();
 
+    // write out lineage still queued in the registry journal
+    IMetadataRegistry registry = RegistryFactory.getInstance().getMetadataRegistry();
+    if (registry instanceof WriteBehindRegistry) {
+      ((WriteBehindRegistry) registry).close();
+    }
+
+    // release the pooled connections to BI servers
+    BiServerClientRegistry.getInstance().close();
+
     // reset tooltips and the repositories dialog
     Spoon spoon = Spoon.getInstance();
     if (spoon.getStartupPerspective() != null
@@ -0,0 +1,46 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.di.core.lifecycle.pdi;
+
+import org.pentaho.agilebi.spoon.visualizations.analyzer.AnalyzerLineageRefresher;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.extension.ExtensionPoint;
+import org.pentaho.di.core.extension.ExtensionPointInterface;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.metadata.registry.Type;
+
+/**
+ * Refreshes the open Analyzer views fed by a transformation when it finishes.
+ */
+@ExtensionPoint(id = "AgileBiTransFinishedRefresh", extensionPointId = "TransformationFinish",
+    description = "Refreshes Analyzer views that depend on the finished transformation")
+public class TransFinishedRefreshExtensionPoint implements ExtensionPointInterface {
+
+  public void callExtensionPoint(LogChannelInterface log, Object object) throws KettleException {
+    if (!(object instanceof Trans)) {
+      return;
+    }
+    TransMeta transMeta = ((Trans) object).getTransMeta();
+    Repository repository = transMeta.getRepository();
+    AnalyzerLineageRefresher.refresh(transMeta.getFilename(), repository == null ? null : repository.getName(),
+        Type.TYPE_TRANSFORMATION);
+  }
+}
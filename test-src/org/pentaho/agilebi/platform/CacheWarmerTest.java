@@ -0,0 +1,72 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import mondrian.olap.Cube;
+import mondrian.olap.Dimension;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Level;
+
+import org.junit.Test;
+
+public class CacheWarmerTest {
+
+  private Cube createCube() {
+    Level all = mock(Level.class);
+    when(all.isAll()).thenReturn(true);
+    Level region = mock(Level.class);
+    when(region.getUniqueName()).thenReturn("[Region].[Region]");
+    Hierarchy hierarchy = mock(Hierarchy.class);
+    when(hierarchy.getLevels()).thenReturn(new Level[] { all, region });
+    Dimension dimension = mock(Dimension.class);
+    when(dimension.getHierarchies()).thenReturn(new Hierarchy[] { hierarchy });
+    Dimension measures = mock(Dimension.class);
+    when(measures.isMeasures()).thenReturn(true);
+
+    Cube cube = mock(Cube.class);
+    when(cube.getUniqueName()).thenReturn("[Sales]");
+    when(cube.getDimensions()).thenReturn(new Dimension[] { measures, dimension });
+    return cube;
+  }
+
+  @Test
+  public void testCreateQueries() {
+    List<String> queries = CacheWarmer.createQueries(new Cube[] { createCube() },
+        new HashSet<String>(Arrays.asList(CacheWarmer.MEASURES, CacheWarmer.MEMBERS)));
+    assertEquals(2, queries.size());
+    assertEquals("SELECT [Measures].Members ON COLUMNS FROM [Sales]", queries.get(0));
+    assertEquals("SELECT [Measures].Members ON COLUMNS, NON EMPTY [Region].[Region].Members ON ROWS FROM [Sales]",
+        queries.get(1));
+  }
+
+  @Test
+  public void testQueryKindsDefaultToAll() {
+    System.clearProperty(CacheWarmer.QUERIES_VARIABLE);
+    assertTrue(CacheWarmer.getQueryKinds().contains(CacheWarmer.MEMBERS));
+    assertTrue(CacheWarmer.getQueryKinds().contains(CacheWarmer.MEASURES));
+  }
+}
@@ -0,0 +1,109 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class AggregateAdvisorTest {
+
+  private static AggregateCandidate candidate(int hits, long rows, String... columns) {
+    AggregateCandidate candidate = new AggregateCandidate("Sales", "sales", new TreeSet<String>(Arrays.asList(columns)));
+    for (int i = 0; i < hits; i++) {
+      candidate.addHit();
+    }
+    candidate.setEstimatedRows(rows);
+    return candidate;
+  }
+
+  private static AggregateAdvisor advisor(AggregateCandidate... candidates) {
+    AggregateWorkload workload = mock(AggregateWorkload.class);
+    when(workload.getCandidates("Sales")).thenReturn(new ArrayList<AggregateCandidate>(Arrays.asList(candidates)));
+    return new AggregateAdvisor(workload);
+  }
+
+  @Test
+  public void testParseColumnExpression() {
+    assertArrayEquals(new String[] { "sales", "region" }, AggregateWorkload.parseColumnExpression("\"sales\".\"region\""));
+    assertArrayEquals(new String[] { "sales", "region" }, AggregateWorkload.parseColumnExpression("`dw`.`sales`.`region`"));
+    assertArrayEquals(new String[] { null, "region" }, AggregateWorkload.parseColumnExpression("region"));
+    assertNull(AggregateWorkload.parseColumnExpression("year(\"sales\".\"date\")"));
+  }
+
+  @Test
+  public void testCovers() {
+    AggregateCandidate wide = candidate(1, 100, "region", "year");
+    AggregateCandidate narrow = candidate(1, 10, "region");
+    assertTrue(wide.covers(narrow));
+    assertFalse(narrow.covers(wide));
+  }
+
+  @Test
+  public void testBenefit() {
+    assertEquals(3 * 900, candidate(3, 100, "region").getBenefit(1000));
+    assertEquals(0, candidate(3, 5000, "region").getBenefit(1000));
+  }
+
+  @Test
+  public void testRecommendSkipsCoveredCandidates() {
+    AggregateCandidate wide = candidate(10, 50, "region", "year");
+    AggregateCandidate covered = candidate(5, 10, "region");
+    AggregateCandidate tooSmall = candidate(8, 2, "year");
+    List<AggregateCandidate> picked = advisor(covered, wide, tooSmall).recommend("Sales", 1000000, 5);
+    // "region" is answered well enough from the wide aggregate, "year" is more than ten times smaller
+    assertEquals(Arrays.asList(wide, tooSmall), picked);
+  }
+
+  @Test
+  public void testRecommendHonorsMaximum() {
+    AggregateCandidate first = candidate(10, 10, "region");
+    AggregateCandidate second = candidate(5, 10, "year");
+    assertEquals(Arrays.asList(first), advisor(second, first).recommend("Sales", 1000, 1));
+  }
+
+  @Test
+  public void testRepeatedQueriesCountAgain() {
+    AggregateWorkload workload = new AggregateWorkload();
+    TreeSet<String> byRegion = new TreeSet<String>(Arrays.asList("region"));
+    workload.queryStarted("select [Region].Members on rows from [Sales]");
+    workload.grainLoaded("Sales", "sales", byRegion);
+    // the segment is loaded again, e.g. for another measure, during the same query
+    workload.grainLoaded("Sales", "sales", byRegion);
+    assertEquals(1, workload.getCandidates("Sales").get(0).getHits());
+
+    // answered from the cache, no segment is loaded
+    workload.queryStarted("select [Region].Members on rows from [Sales]");
+    workload.queryStarted("select [Region].Members on rows from [Sales]");
+    assertEquals(3, workload.getCandidates("Sales").get(0).getHits());
+
+    workload.queryStarted("select [Year].Members on rows from [Sales]");
+    assertEquals(3, workload.getCandidates("Sales").get(0).getHits());
+  }
+}
@@ -0,0 +1,43 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AggregateGeneratorTest {
+
+  private static final String BY_REGION = "SELECT region, SUM(amount) AS sum_amount, COUNT(*) AS fact_count"
+      + " FROM sales GROUP BY region";
+
+  private static final String BY_PRODUCT = "SELECT product, SUM(amount) AS sum_amount, COUNT(*) AS fact_count"
+      + " FROM sales GROUP BY product";
+
+  @Test
+  public void testTableNamesFollowTheGrain() {
+    String name = AggregateGenerator.createTableName("sales", BY_REGION);
+    assertTrue(name.startsWith("agg_"));
+    assertEquals(name, AggregateGenerator.createTableName("sales", BY_REGION));
+    assertFalse(name.equals(AggregateGenerator.createTableName("sales", BY_PRODUCT)));
+    assertTrue(AggregateGenerator.createTableName("a_very_long_fact_table_name_indeed", BY_REGION).length() <= 30);
+  }
+}
@@ -0,0 +1,86 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.aggregates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+public class AggregateSchemaDecoratorTest {
+
+  private static final String SCHEMA = "<Schema name=\"Sales\"><Cube name=\"Sales\"><Table name=\"sales\"/></Cube></Schema>";
+
+  private static GeneratedAggregate aggregate(String tableName) {
+    AggregateCandidate candidate = new AggregateCandidate("Sales", "sales", new TreeSet<String>(Arrays.asList("region")));
+    Element aggName = DocumentHelper.createElement("AggName");
+    aggName.addAttribute("name", tableName);
+    return new GeneratedAggregate(candidate, tableName, null, null, null, aggName);
+  }
+
+  @Test
+  public void testInvalidatedAggregatesAreLeftOut() throws Exception {
+    File xmi = File.createTempFile("sales", ".xmi");
+    File definitions = AggregateSchemaDecorator.getDefinitionsFile(xmi.getPath());
+    try {
+      assertEquals(SCHEMA, AggregateSchemaDecorator.decorate(SCHEMA, xmi.getPath()));
+      assertFalse(AggregateSchemaDecorator.invalidate(xmi.getPath()));
+
+      AggregateSchemaDecorator.addDefinitions(xmi.getPath(), Collections.singletonList(aggregate("agg_1_sales")));
+      assertTrue(AggregateSchemaDecorator.decorate(SCHEMA, xmi.getPath()).contains("agg_1_sales"));
+
+      assertTrue(AggregateSchemaDecorator.invalidate(xmi.getPath()));
+      assertFalse(AggregateSchemaDecorator.invalidate(xmi.getPath()));
+      assertEquals(SCHEMA, AggregateSchemaDecorator.decorate(SCHEMA, xmi.getPath()));
+
+      // populated again
+      AggregateSchemaDecorator.addDefinitions(xmi.getPath(), Collections.singletonList(aggregate("agg_1_sales")));
+      assertTrue(AggregateSchemaDecorator.decorate(SCHEMA, xmi.getPath()).contains("agg_1_sales"));
+    } finally {
+      definitions.delete();
+      xmi.delete();
+    }
+  }
+
+  @Test
+  public void testAggregatesAreSetAsideByTable() throws Exception {
+    File xmi = File.createTempFile("sales", ".xmi");
+    File definitions = AggregateSchemaDecorator.getDefinitionsFile(xmi.getPath());
+    try {
+      AggregateSchemaDecorator.addDefinitions(xmi.getPath(),
+          Arrays.asList(aggregate("agg_1_sales"), aggregate("agg_2_sales")));
+      assertFalse(AggregateSchemaDecorator.invalidate(xmi.getPath(), Collections.singleton("agg_3_sales")));
+      assertTrue(AggregateSchemaDecorator.invalidate(xmi.getPath(), Collections.singleton("agg_1_sales")));
+
+      String schema = AggregateSchemaDecorator.decorate(SCHEMA, xmi.getPath());
+      assertFalse(schema.contains("agg_1_sales"));
+      assertTrue(schema.contains("agg_2_sales"));
+    } finally {
+      definitions.delete();
+      xmi.delete();
+    }
+  }
+}
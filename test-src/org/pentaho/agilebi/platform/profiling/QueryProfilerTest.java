@@ -0,0 +1,127 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.platform.profiling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryProfilerTest {
+
+  private static final String SQL = "select region, sum(amount) from sales group by region";
+
+  private QueryProfiler profiler;
+
+  private QueryProfiler.Listener listener;
+
+  private DataSource dataSource;
+
+  private Connection connection;
+
+  @Before
+  public void setUp() throws Exception {
+    profiler = new QueryProfiler();
+    listener = mock(QueryProfiler.Listener.class);
+
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true, true, false);
+    Statement statement = mock(Statement.class);
+    when(statement.executeQuery(SQL)).thenReturn(rs);
+    connection = mock(Connection.class);
+    when(connection.createStatement()).thenReturn(statement);
+    dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(connection);
+  }
+
+  @After
+  public void tearDown() {
+    profiler.removeListener(listener);
+  }
+
+  private void runQuery() throws Exception {
+    Connection profiled = new ProfilingDataSource(dataSource, profiler).getConnection();
+    Statement statement = profiled.createStatement();
+    ResultSet rs = statement.executeQuery(SQL);
+    while (rs.next()) {
+      // fetch
+    }
+    rs.close();
+    statement.close();
+  }
+
+  @Test
+  public void testConnectionsAreNotWrappedWhileDisabled() throws Exception {
+    assertSame(connection, new ProfilingDataSource(dataSource, profiler).getConnection());
+  }
+
+  @Test
+  public void testStatementsAreAttributedToLatestQuery() throws Exception {
+    profiler.addListener(listener);
+    profiler.mdxLogged("7: select [Measures].[Amount] on columns from [Sales]");
+    runQuery();
+    profiler.mdxLogged("7: exec: 42 ms");
+
+    List<QueryInteraction> interactions = profiler.getInteractions();
+    assertEquals(1, interactions.size());
+    QueryInteraction interaction = interactions.get(0);
+    assertEquals("select [Measures].[Amount] on columns from [Sales]", interaction.getMdx());
+    assertEquals(42, interaction.getExecuteMillis());
+    assertEquals(1, interaction.getStatements().size());
+    SqlStatementProfile statement = interaction.getStatements().get(0);
+    assertEquals(SQL, statement.getSql());
+    assertEquals(2, statement.getRows());
+    assertTrue(statement.isFinished());
+    assertTrue(statement.getExecuteMillis() >= 0);
+
+    String log = QueryProfiler.format(interactions);
+    assertTrue(log.contains("total 42 ms"));
+    assertTrue(log.contains("2 rows"));
+  }
+
+  @Test
+  public void testStatementsWithoutQuery() throws Exception {
+    profiler.addListener(listener);
+    runQuery();
+    assertNull(profiler.getInteractions().get(0).getMdx());
+    assertEquals(1, profiler.getInteractions().get(0).getStatements().size());
+  }
+
+  @Test
+  public void testOnlyRecentQueriesAreKept() {
+    for (int i = 0; i < QueryProfiler.MAX_INTERACTIONS + 5; i++) {
+      profiler.mdxLogged(i + ": select from [Sales]");
+    }
+    List<QueryInteraction> interactions = profiler.getInteractions();
+    assertEquals(QueryProfiler.MAX_INTERACTIONS, interactions.size());
+    assertEquals("5", interactions.get(0).getQueryId());
+  }
+}
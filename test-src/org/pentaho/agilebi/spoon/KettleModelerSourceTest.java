@@ -23,9 +23,12 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.List;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.spoon.registry.LineageIndex;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
@@ -34,6 +37,7 @@ import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.model.SqlDataSource;
 import org.pentaho.metadata.model.SqlPhysicalModel;
 import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.registry.Entity;
 import org.pentaho.metadata.registry.IMetadataRegistry;
 import org.pentaho.metadata.registry.Link;
 import org.pentaho.metadata.registry.SimpleRegistry;
@@ -261,4 +265,34 @@ public class KettleModelerSourceTest {
     assertEquals(Type.TYPE_PHYSICAL_TABLE.getId(), link.getObjectTypeId());
     assertEquals(dbConnection + "~" + schema + "~" + table, link.getObjectId());
   }
+
+  @Test
+  public void registerModelMetadata() throws Exception {
+    DatabaseMeta databaseMeta = new DatabaseMeta("test", "MYSQL", null, null, null, null, null, null);
+    KettleModelerSource source = new KettleModelerSource(databaseMeta, "table", "schema", Type.TYPE_TRANSFORMATION,
+        "trans", "filename", "repo", "step1");
+    IMetadataRegistry registry = new SimpleRegistry() {
+      @Override
+      protected void load() throws Exception {
+      }
+
+      @Override
+      public void commit() throws Exception {
+      }
+    };
+
+    source.registerLineageMetadata(registry);
+    source.registerModelMetadata(registry, "models/sales.xmi", "sales");
+    assertEquals(2, registry.getLinks().size());
+    Link link = registry.getLinks().get(1);
+    assertEquals(Verb.VERB_USES.getId(), link.getVerbId());
+    assertEquals(Type.TYPE_OLAP_MODEL.getId(), link.getSubjectTypeId());
+    assertEquals("models/sales.xmi", link.getSubjectId());
+    assertEquals("test~schema~table", link.getObjectId());
+
+    // the transformation now reaches the model through the table
+    List<Entity> downstream = LineageIndex.build(registry).getDownstream("repo~filename",
+        Type.TYPE_TRANSFORMATION.getId(), Type.TYPE_OLAP_MODEL.getId());
+    assertEquals(1, downstream.size());
+  }
 }
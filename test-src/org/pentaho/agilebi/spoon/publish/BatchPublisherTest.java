@@ -0,0 +1,104 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class BatchPublisherTest {
+
+  private static File write(File dir, String name, String content) throws Exception {
+    File file = new File(dir, name);
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+    return file;
+  }
+
+  @Test
+  public void testReportsArePublishedWithTheirModel() throws Exception {
+    File dir = new File("bin/test-batch-publish");
+    dir.mkdirs();
+    File model = write(dir, "sales.xmi", "<xmi/>");
+    File report = write(dir, "sales.xanalyzer", "<reportRecord><report xmlns=\"http://www.pentaho.com\""
+        + " catalog=\"/home/someone/models/sales.xmi\" cube=\"sales\"/></reportRecord>");
+    File other = write(dir, "hr.xmi", "<xmi/>");
+
+    assertEquals("/home/someone/models/sales.xmi", BatchPublisher.readCatalog(report));
+    assertEquals(model.getCanonicalFile(), BatchPublisher.findModel(report).getCanonicalFile());
+
+    List<File> files = BatchPublisher.collectFiles(Collections.singletonList(dir.getPath()));
+    assertEquals(2, files.size());
+    assertTrue(files.contains(report));
+    assertTrue(files.contains(other));
+    assertFalse(files.contains(model));
+  }
+
+  @Test
+  public void testSummary() throws Exception {
+    BatchPublishResult published = new BatchPublishResult(new File("a.xmi"));
+    published.setReport(new PublishReport(Arrays.asList(new PublishReport.StepResult("schema",
+        PublishReport.Status.SUCCEEDED, 5, null))));
+    BatchPublishResult failed = new BatchPublishResult(new File("b.xmi"));
+    failed.setError(new Exception("boom"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BatchPublisher.writeSummary(Arrays.asList(published, failed), 42, out);
+    Map<?, ?> summary = new ObjectMapper().readValue(out.toByteArray(), Map.class);
+
+    assertEquals(2, summary.get("total"));
+    assertEquals(1, summary.get("published"));
+    assertEquals(1, summary.get("failed"));
+    List<?> files = (List<?>) summary.get("files");
+    assertEquals(Boolean.TRUE, ((Map<?, ?>) files.get(0)).get("success"));
+    assertEquals("SUCCEEDED", ((Map<?, ?>) ((List<?>) ((Map<?, ?>) files.get(0)).get("steps")).get(0)).get("status"));
+    assertEquals("boom", ((Map<?, ?>) files.get(1)).get("error"));
+  }
+
+  @Test
+  public void testDatasourceDecisionsMatchThePublishDialog() {
+    assertFalse(BatchPublisher.isPublishConnection(ModelServerPublish.REMOTE_CONNECTION_MUST_BE_JNDI));
+    assertFalse(BatchPublisher.isExistentDatasource(ModelServerPublish.REMOTE_CONNECTION_MUST_BE_JNDI));
+    assertFalse(BatchPublisher.isPublishConnection(ModelServerPublish.REMOTE_CONNECTION_SAME));
+    assertTrue(BatchPublisher.isExistentDatasource(ModelServerPublish.REMOTE_CONNECTION_SAME));
+    assertTrue(BatchPublisher.isPublishConnection(ModelServerPublish.REMOTE_CONNECTION_MISSING));
+    assertFalse(BatchPublisher.isExistentDatasource(ModelServerPublish.REMOTE_CONNECTION_MISSING));
+    assertTrue(BatchPublisher.isPublishConnection(ModelServerPublish.REMOTE_CONNECTION_DIFFERENT));
+    assertTrue(BatchPublisher.isExistentDatasource(ModelServerPublish.REMOTE_CONNECTION_DIFFERENT));
+  }
+
+  @Test
+  public void testPasswordIsReadFromAFile() throws Exception {
+    File dir = new File("bin/test-batch-publish");
+    dir.mkdirs();
+    File file = write(dir, "password.properties", "# read by BatchPublisher -passwordFile\npassword=secret\n");
+    assertEquals("secret", BatchPublisher.readPassword(file));
+  }
+}
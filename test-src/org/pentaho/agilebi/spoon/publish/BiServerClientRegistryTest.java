@@ -0,0 +1,100 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.Client;
+
+public class BiServerClientRegistryTest {
+
+  private List<Client> created;
+
+  private BiServerClientRegistry registry;
+
+  @Before
+  public void setUp() {
+    created = new ArrayList<Client>();
+    registry = new BiServerClientRegistry() {
+      @Override
+      protected Client createClient(BiServerConnection connection) {
+        Client client = mock(Client.class);
+        created.add(client);
+        return client;
+      }
+    };
+  }
+
+  private static BiServerConnection connection(String url, String user, String password) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl(url);
+    connection.setUserId(user);
+    connection.setPassword(password);
+    return connection;
+  }
+
+  @Test
+  public void testClientIsSharedPerServer() {
+    Client client = registry.getClient(connection("http://localhost:8080/pentaho", "admin", "password"));
+    assertSame(client, registry.getClient(connection("http://localhost:8080/pentaho/", "admin", "password")));
+    assertNotSame(client, registry.getClient(connection("http://otherhost:8080/pentaho", "admin", "password")));
+    assertEquals(2, registry.size());
+  }
+
+  @Test
+  public void testChangedCredentialsReplaceClient() {
+    Client client = registry.getClient(connection("http://localhost:8080/pentaho", "admin", "password"));
+    Client other = registry.getClient(connection("http://localhost:8080/pentaho", "admin", "changed"));
+    assertNotSame(client, other);
+    verify(client).destroy();
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testOtherUsersKeepTheirClients() {
+    Client admin = registry.getClient(connection("http://localhost:8080/pentaho", "admin", "password"));
+    Client suzy = registry.getClient(connection("http://localhost:8080/pentaho", "suzy", "password"));
+    assertNotSame(admin, suzy);
+    registry.getClient(connection("http://localhost:8080/pentaho", "suzy", "changed"));
+    verify(suzy).destroy();
+    verify(admin, never()).destroy();
+    assertSame(admin, registry.getClient(connection("http://localhost:8080/pentaho", "admin", "password")));
+    assertEquals(2, registry.size());
+  }
+
+  @Test
+  public void testClose() {
+    registry.getClient(connection("http://localhost:8080/pentaho", "admin", "password"));
+    registry.getClient(connection("http://otherhost:8080/pentaho", "admin", "password"));
+    registry.close();
+    verify(created.get(0)).destroy();
+    verify(created.get(1)).destroy();
+    assertEquals(0, registry.size());
+  }
+}
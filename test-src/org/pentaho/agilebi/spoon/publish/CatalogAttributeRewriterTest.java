@@ -0,0 +1,60 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+
+public class CatalogAttributeRewriterTest {
+
+  private String rewrite(String xml, String encoding) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new CatalogAttributeRewriter("report", "catalog", "Sales model").rewrite(
+        new ByteArrayInputStream(xml.getBytes(encoding)), out);
+    return out.toString(encoding);
+  }
+
+  @Test
+  public void testRewritesOnlyTheReportsCatalog() throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<reportRecord><report xmlns=\"http://www.pentaho.com\" catalog=\"old\" cube=\"Sales\">"
+        + "<field catalog=\"nested\">Caf\u00e9</field></report><other catalog=\"sibling\"/></reportRecord>";
+    Document doc = DocumentHelper.parseText(rewrite(xml, "UTF-8"));
+
+    assertEquals("Sales model", doc.valueOf("/reportRecord/*[local-name()='report']/@catalog"));
+    assertEquals("Sales", doc.valueOf("/reportRecord/*[local-name()='report']/@cube"));
+    assertEquals("nested", doc.valueOf("//*[local-name()='field']/@catalog"));
+    assertEquals("Caf\u00e9", doc.valueOf("//*[local-name()='field']"));
+    assertEquals("sibling", doc.valueOf("/reportRecord/other/@catalog"));
+  }
+
+  @Test
+  public void testKeepsTheEncoding() throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a><report catalog=\"\u00e9\"/></a>";
+    String rewritten = rewrite(xml, "ISO-8859-1");
+    assertTrue(rewritten, rewritten.contains("ISO-8859-1"));
+    assertTrue(rewritten, rewritten.contains("catalog=\"Sales model\""));
+  }
+}
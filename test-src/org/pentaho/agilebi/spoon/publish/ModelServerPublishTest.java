@@ -0,0 +1,84 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+public class ModelServerPublishTest {
+
+  private BiServerConnection connection;
+
+  private List<MediaType> contentTypes = new ArrayList<MediaType>();
+
+  @Before
+  public void setUp() {
+    connection = new BiServerConnection();
+    connection.setUrl("http://boundary-test:8080/pentaho");
+    connection.setUserId("admin");
+    connection.setPassword("password");
+    // records what would be sent and stops the request before it reaches the network
+    BiServerClientRegistry.getInstance().getClient(connection).addFilter(new ClientFilter() {
+      @Override
+      public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        contentTypes.add(MediaType.valueOf(String.valueOf(request.getHeaders().getFirst("Content-Type"))));
+        throw new ClientHandlerException("not sent");
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    BiServerClientRegistry.getInstance().remove(connection);
+  }
+
+  @Test
+  public void testUploadsDeclareTheirBoundary() throws Exception {
+    ModelServerPublish publisher = new ModelServerPublish(connection);
+    File file = File.createTempFile("boundary", ".xanalyzer");
+    file.deleteOnExit();
+
+    publisher.publishFile("/public", new File[] { file }, false);
+    publisher.publishMondrainSchema(new ByteArrayInputStream(new byte[0]), "sales", "sales", false);
+    publisher.publishMetaDataFile(new ByteArrayInputStream(new byte[0]), "sales.xmi");
+
+    assertEquals(3, contentTypes.size());
+    for (MediaType contentType : contentTypes) {
+      assertEquals("multipart", contentType.getType());
+      assertEquals("form-data", contentType.getSubtype());
+      assertNotNull(contentType.getParameters().get("boundary"));
+    }
+  }
+}
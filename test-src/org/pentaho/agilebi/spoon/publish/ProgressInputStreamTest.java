@@ -0,0 +1,63 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ProgressInputStreamTest {
+
+  private static class RecordingListener implements PublishProgressListener {
+    private final List<Long> reported = new ArrayList<Long>();
+
+    public void progress(String name, long bytesSent, long totalBytes) {
+      reported.add(bytesSent);
+    }
+  }
+
+  @Test
+  public void testReportsProgressInIntervals() throws Exception {
+    byte[] data = new byte[200 * 1024];
+    RecordingListener listener = new RecordingListener();
+    ProgressInputStream in = new ProgressInputStream(new ByteArrayInputStream(data), "model.xmi", data.length,
+        listener);
+    IOUtils.copy(in, new ByteArrayOutputStream());
+
+    assertEquals(data.length, in.getBytesRead());
+    // every 64 KB and once at the end
+    assertEquals(4, listener.reported.size());
+    assertEquals(Long.valueOf(data.length), listener.reported.get(listener.reported.size() - 1));
+  }
+
+  @Test
+  public void testReportsEndOfUnknownSize() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    ProgressInputStream in = new ProgressInputStream(new ByteArrayInputStream(new byte[10]), "schema.xml", -1,
+        listener);
+    IOUtils.copy(in, new ByteArrayOutputStream());
+    assertEquals(1, listener.reported.size());
+    assertEquals(Long.valueOf(10), listener.reported.get(0));
+  }
+}
@@ -0,0 +1,57 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class PublishManifestTest {
+
+  @Test
+  public void testHash() throws Exception {
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", PublishManifest.hash("abc".getBytes("UTF-8")));
+    assertFalse(PublishManifest.hash("abc".getBytes("UTF-8")).equals(PublishManifest.hash("abd".getBytes("UTF-8"))));
+  }
+
+  @Test
+  public void testRemembersPublishedContent() throws Exception {
+    File file = File.createTempFile("manifest", ".properties");
+    file.delete();
+    try {
+      PublishManifest manifest = new PublishManifest(file);
+      assertFalse(manifest.isUnchanged("/public/a.xanalyzer", "1"));
+      manifest.published("/public/a.xanalyzer", "1");
+      assertTrue(manifest.isUnchanged("/public/a.xanalyzer", "1"));
+      assertFalse(manifest.isUnchanged("/public/a.xanalyzer", "2"));
+      assertFalse(manifest.isUnchanged("/public/a.xanalyzer", null));
+
+      // survives a restart
+      PublishManifest reloaded = new PublishManifest(file);
+      assertTrue(reloaded.isUnchanged("/public/a.xanalyzer", "1"));
+      reloaded.clear();
+      assertFalse(new PublishManifest(file).isUnchanged("/public/a.xanalyzer", "1"));
+    } finally {
+      file.delete();
+    }
+  }
+}
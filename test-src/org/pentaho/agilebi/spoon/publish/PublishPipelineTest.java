@@ -0,0 +1,112 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PublishPipelineTest {
+
+  private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+  private Callable<Boolean> step(final String name, final Boolean result) {
+    return new Callable<Boolean>() {
+      public Boolean call() {
+        order.add(name);
+        return result;
+      }
+    };
+  }
+
+  @Test
+  public void testIndependentStepsRunInParallel() throws Exception {
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    Callable<Boolean> waitForOther = new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        bothStarted.countDown();
+        // only returns true if the other step runs at the same time
+        return bothStarted.await(5, TimeUnit.SECONDS);
+      }
+    };
+    PublishReport report = new PublishPipeline()
+        .addStep("file", waitForOther)
+        .addStep("datasource", waitForOther)
+        .run();
+    assertTrue(report.isSucceeded());
+  }
+
+  @Test
+  public void testDependentStepsWait() throws Exception {
+    PublishReport report = new PublishPipeline()
+        .addStep("datasource", step("datasource", true))
+        .addStep("schema", step("schema", true), "datasource")
+        .addStep("metadata", step("metadata", true), "schema")
+        .run();
+    assertTrue(report.isSucceeded());
+    assertEquals(3, report.getResults().size());
+    assertEquals("[datasource, schema, metadata]", order.toString());
+  }
+
+  @Test
+  public void testStepsAfterUnsuccessfulStepAreSkipped() throws Exception {
+    PublishReport report = new PublishPipeline()
+        .addStep("file", step("file", true))
+        .addStep("schema", step("schema", false))
+        .addStep("metadata", step("metadata", true), "schema")
+        .run();
+    assertFalse(report.isSucceeded());
+    assertEquals(PublishReport.Status.SUCCEEDED, report.getResult("file").getStatus());
+    assertEquals(PublishReport.Status.NOT_COMPLETED, report.getResult("schema").getStatus());
+    assertEquals(PublishReport.Status.SKIPPED, report.getResult("metadata").getStatus());
+    assertFalse(order.contains("metadata"));
+    assertNull(report.getFirstError());
+  }
+
+  @Test
+  public void testFailureIsReported() throws Exception {
+    final Exception error = new Exception("connection refused");
+    PublishReport report = new PublishPipeline()
+        .addStep("datasource", new Callable<Boolean>() {
+          public Boolean call() throws Exception {
+            throw error;
+          }
+        })
+        .addStep("schema", step("schema", true), "datasource")
+        .run();
+    assertEquals(PublishReport.Status.FAILED, report.getResult("datasource").getStatus());
+    assertEquals(PublishReport.Status.SKIPPED, report.getResult("schema").getStatus());
+    assertSame(error, report.getFirstError());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDependency() {
+    new PublishPipeline().addStep("schema", step("schema", true), "datasource");
+  }
+}
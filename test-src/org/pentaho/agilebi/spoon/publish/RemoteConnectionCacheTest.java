@@ -0,0 +1,68 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.database.model.DatabaseConnection;
+
+public class RemoteConnectionCacheTest {
+
+  private long now;
+
+  private RemoteConnectionCache cache = new RemoteConnectionCache(1000) {
+    @Override
+    protected long now() {
+      return now;
+    }
+  };
+
+  @Test
+  public void testConnectionsExpire() {
+    List<DatabaseConnection> connections = Collections.singletonList(new DatabaseConnection());
+    cache.putConnections(connections);
+    assertSame(connections, cache.getConnections());
+    now = 1000;
+    assertNull(cache.getConnections());
+  }
+
+  @Test
+  public void testMissingConnectionsAreCached() {
+    assertFalse(cache.containsConnection("sales"));
+    cache.putConnection("sales", null);
+    assertTrue(cache.containsConnection("sales"));
+    assertNull(cache.getConnection("sales"));
+
+    DatabaseConnection connection = new DatabaseConnection();
+    cache.putConnection("hr", connection);
+    assertSame(connection, cache.getConnection("hr"));
+
+    cache.invalidate("sales");
+    assertFalse(cache.containsConnection("sales"));
+    assertTrue(cache.containsConnection("hr"));
+    cache.clear();
+    assertFalse(cache.containsConnection("hr"));
+  }
+}
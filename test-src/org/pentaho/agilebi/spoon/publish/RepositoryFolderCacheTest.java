@@ -0,0 +1,72 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
+
+public class RepositoryFolderCacheTest {
+
+  private long now;
+
+  private RepositoryFolderCache cache = new RepositoryFolderCache(1000) {
+    @Override
+    protected long now() {
+      return now;
+    }
+  };
+
+  @Test
+  public void testEntriesExpire() {
+    assertNull(cache.get("/public"));
+    RepositoryFileTreeDto tree = new RepositoryFileTreeDto();
+    RepositoryFolderCache.Entry entry = cache.put("/public", tree, "\"1\"", null);
+    assertSame(tree, cache.get("/public").getTree());
+    assertTrue(cache.isFresh(entry));
+
+    now = 1000;
+    assertFalse(cache.isFresh(entry));
+    cache.revalidated(entry);
+    assertTrue(cache.isFresh(entry));
+
+    cache.clear();
+    assertNull(cache.get("/public"));
+  }
+
+  @Test
+  public void testCachePerUser() {
+    BiServerConnection admin = connection("http://localhost:8080/pentaho", "admin");
+    RepositoryFolderCache cache = RepositoryFolderCache.forServer(admin);
+    assertSame(cache, RepositoryFolderCache.forServer(connection("http://localhost:8080/pentaho", "admin")));
+    assertNotSame(cache, RepositoryFolderCache.forServer(connection("http://localhost:8080/pentaho", "suzy")));
+    assertNotSame(cache, RepositoryFolderCache.forServer(connection("http://otherhost:8080/pentaho", "admin")));
+  }
+
+  private static BiServerConnection connection(String url, String user) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl(url);
+    connection.setUserId(user);
+    return connection;
+  }
+}
@@ -0,0 +1,78 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileDto;
+import org.pentaho.platform.repository2.unified.webservices.RepositoryFileTreeDto;
+
+public class SolutionObjectTest {
+
+  private static RepositoryFileTreeDto tree(String path, boolean folder, RepositoryFileTreeDto... children) {
+    RepositoryFileDto file = new RepositoryFileDto();
+    file.setPath(path);
+    file.setName(path.substring(path.lastIndexOf('/') + 1));
+    file.setFolder(folder);
+    RepositoryFileTreeDto tree = new RepositoryFileTreeDto();
+    tree.setFile(file);
+    List<RepositoryFileTreeDto> list = new ArrayList<RepositoryFileTreeDto>();
+    for (RepositoryFileTreeDto child : children) {
+      list.add(child);
+    }
+    tree.setChildren(list);
+    return tree;
+  }
+
+  @Test
+  public void testExpandAddsSubfoldersOnce() throws Exception {
+    SolutionObject.FolderLoader loader = mock(SolutionObject.FolderLoader.class);
+    SolutionObject root = new SolutionObject(tree("/", true,
+        tree("/public", true, tree("/public/sales", true), tree("/public/readme.txt", false))), loader);
+
+    assertEquals(1, root.size());
+    SolutionObject pub = root.get(0);
+    assertEquals(1, pub.size());
+    SolutionObject sales = pub.get(0);
+    assertEquals(0, sales.size());
+
+    when(loader.loadFolder("/public")).thenReturn(tree("/public", true,
+        tree("/public/sales", true, tree("/public/sales/2013", true)),
+        tree("/public/hr", true)));
+    pub.expand();
+    pub.expand();
+    verify(loader, times(1)).loadFolder("/public");
+    assertTrue(pub.isExpanded());
+
+    assertEquals(2, pub.size());
+    assertSame(sales, pub.get(0));
+    assertEquals(1, sales.size());
+    assertEquals("/public/sales/2013", sales.get(0).getPath());
+    assertEquals("hr", pub.get(1).getName());
+  }
+}
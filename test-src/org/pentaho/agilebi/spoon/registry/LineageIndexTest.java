@@ -0,0 +1,81 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.Type;
+import org.pentaho.metadata.registry.Verb;
+
+public class LineageIndexTest {
+
+  private LineageIndex index;
+
+  private Entity trans = new Entity("load_sales.ktr", "load_sales", Type.TYPE_TRANSFORMATION.getId());
+  private Entity table = new Entity("db~public~sales", "sales", Type.TYPE_PHYSICAL_TABLE.getId());
+  private Entity model = new Entity("sales.xmi", "sales", Type.TYPE_OLAP_MODEL.getId());
+  private Entity view = new Entity("sales.xanalyzer", "sales", Type.TYPE_ANALYZER_VIEW.getId());
+  private Entity report = new Entity("sales.prpt", "sales", Type.TYPE_REPORT.getId());
+
+  @Before
+  public void setUp() {
+    index = new LineageIndex();
+    for (Entity entity : new Entity[] { trans, table, model, view, report }) {
+      index.addEntity(entity);
+    }
+    index.addLink(new Link(trans, Verb.VERB_POPULATES, table));
+    index.addLink(new Link(model, Verb.VERB_USES, table));
+    index.addLink(new Link(view, Verb.VERB_USES, model));
+    index.addLink(new Link(report, Verb.VERB_USES, model));
+  }
+
+  @Test
+  public void testDownstream() {
+    List<Entity> downstream = index.getDownstream(trans.getId(), trans.getTypeId());
+    assertEquals(4, downstream.size());
+    assertEquals(table.getId(), downstream.get(0).getId());
+    assertEquals(model.getId(), downstream.get(1).getId());
+
+    List<Entity> views = index.getDownstream(table.getId(), table.getTypeId(), Type.TYPE_ANALYZER_VIEW.getId());
+    assertEquals(1, views.size());
+    assertEquals(view.getId(), views.get(0).getId());
+  }
+
+  @Test
+  public void testUpstream() {
+    List<Entity> upstream = index.getUpstream(view.getId(), view.getTypeId());
+    assertEquals(3, upstream.size());
+    assertEquals(trans.getId(), upstream.get(2).getId());
+    assertTrue(index.getUpstream(trans.getId(), trans.getTypeId()).isEmpty());
+  }
+
+  @Test
+  public void testDirectNeighboursAndDuplicates() {
+    index.addLink(new Link(view, Verb.VERB_USES, model));
+    assertEquals(4, index.getLinkCount());
+    assertEquals(2, index.getSubjects(model.getId(), model.getTypeId(), Verb.VERB_USES).size());
+    assertEquals(1, index.getObjects(trans.getId(), trans.getTypeId(), null).size());
+  }
+}
@@ -0,0 +1,53 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.registry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.pentaho.metadata.registry.Entity;
+import org.pentaho.metadata.registry.Link;
+import org.pentaho.metadata.registry.Type;
+import org.pentaho.metadata.registry.Verb;
+
+public class WriteBehindRegistryTest {
+
+  @Test
+  public void testJoinAndSplitEscapeSeparators() {
+    String[] fields = new String[] { "E", "a\tb", "line1\nline2\r", "c:\\temp\\", "" };
+    String record = WriteBehindRegistry.join(fields);
+    assertEquals(-1, record.indexOf('\n'));
+    assertArrayEquals(fields, WriteBehindRegistry.split(record));
+  }
+
+  @Test
+  public void testRecords() {
+    Entity model = new Entity("models/sales.xmi", "sales", Type.TYPE_OLAP_MODEL.getId());
+    Entity view = new Entity("views/sales.xanalyzer", "sales", Type.TYPE_ANALYZER_VIEW.getId());
+
+    String[] entity = WriteBehindRegistry.split(WriteBehindRegistry.toRecord(view));
+    assertArrayEquals(new String[] { WriteBehindRegistry.ENTITY_RECORD, "views/sales.xanalyzer", "sales",
+        Type.TYPE_ANALYZER_VIEW.getId() }, entity);
+
+    String[] link = WriteBehindRegistry.split(WriteBehindRegistry.toRecord(new Link(view, Verb.VERB_USES, model)));
+    assertArrayEquals(new String[] { WriteBehindRegistry.LINK_RECORD, "views/sales.xanalyzer",
+        Type.TYPE_ANALYZER_VIEW.getId(), Verb.VERB_USES.getId(), "models/sales.xmi", Type.TYPE_OLAP_MODEL.getId() },
+        link);
+  }
+}
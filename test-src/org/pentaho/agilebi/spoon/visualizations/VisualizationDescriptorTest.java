@@ -0,0 +1,105 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class VisualizationDescriptorTest {
+
+  private VisualizationDescriptor createDescriptor() {
+    IVisualization vis = mock(IVisualization.class);
+    when(vis.getTitle()).thenReturn("Analyzer");
+    when(vis.getOrder()).thenReturn(5);
+    when(vis.getId()).thenReturn("analyzer");
+    when(vis.getExtension()).thenReturn("xanalyzer");
+    when(vis.getSupportedExtensions()).thenReturn(new String[] { "xanalyzer", "xAnalyzer2" });
+    when(vis.getFileTypeDisplayNames(any(Locale.class))).thenReturn(new String[] { "Analyzer View" });
+    return VisualizationDescriptor.fromVisualization("plugins/analyzer/plugin.xml", "analyzer", vis);
+  }
+
+  @Test
+  public void testStoreAndLoad() {
+    Properties props = new Properties();
+    createDescriptor().store(props, "viz.0.");
+
+    VisualizationDescriptor loaded = VisualizationDescriptor.load(props, "viz.0.");
+    assertEquals("plugins/analyzer/plugin.xml", loaded.getPluginFile());
+    assertEquals("analyzer", loaded.getBeanName());
+    assertEquals("Analyzer", loaded.getTitle());
+    assertEquals(5, loaded.getOrder());
+    assertEquals("xanalyzer", loaded.getExtension());
+    assertNull(loaded.getRootNodeName());
+    assertArrayEquals(new String[] { "xanalyzer", "xAnalyzer2" }, loaded.getSupportedExtensions());
+    assertArrayEquals(new String[] { "Analyzer View" }, loaded.getFileTypeDisplayNames());
+
+    assertNull(VisualizationDescriptor.load(props, "viz.1."));
+  }
+
+  @Test
+  public void testHasSupportedExtension() {
+    VisualizationDescriptor descriptor = createDescriptor();
+    assertTrue(descriptor.hasSupportedExtension("/tmp/sales.XANALYZER"));
+    assertTrue(descriptor.hasSupportedExtension("sales.xanalyzer2"));
+    assertFalse(descriptor.hasSupportedExtension("sales.prpt"));
+    assertFalse(descriptor.hasSupportedExtension("xanalyzer"));
+  }
+
+  @Test
+  public void testLazyVisualizationDoesNotLoadForOtherFiles() {
+    LazyVisualization lazy = new LazyVisualization(null, createDescriptor());
+    assertEquals("Analyzer", lazy.getTitle());
+    assertFalse(lazy.accepts("sales.prpt"));
+    assertFalse(lazy.isLoaded());
+  }
+
+  @Test
+  public void testAcceptsXmlIsRemembered() {
+    IVisualization vis = mock(IVisualization.class);
+    when(vis.getRootNodeName()).thenReturn("reportRecord");
+    when(vis.acceptsXml("reportRecord")).thenReturn(true);
+    VisualizationDescriptor descriptor = VisualizationDescriptor.fromVisualization("plugins/analyzer/plugin.xml",
+        "analyzer", vis);
+    assertTrue(descriptor.acceptsXml("reportRecord"));
+    assertFalse(descriptor.setAcceptsXml("reportRecord", true));
+    // other node names are only remembered for the session, they don't rewrite the index
+    assertFalse(descriptor.setAcceptsXml("transformation", false));
+    assertFalse(descriptor.acceptsXml("transformation"));
+
+    Properties props = new Properties();
+    descriptor.store(props, "viz.0.");
+    VisualizationDescriptor loaded = VisualizationDescriptor.load(props, "viz.0.");
+    assertTrue(loaded.acceptsXml("reportRecord"));
+    assertNull(loaded.acceptsXml("transformation"));
+
+    LazyVisualization lazy = new LazyVisualization(null, loaded);
+    assertTrue(lazy.acceptsXml("reportRecord"));
+    assertFalse(lazy.isLoaded());
+  }
+}
@@ -0,0 +1,84 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+
+public class WatermarkRefresherTest {
+
+  @Test
+  public void testCompareAcrossNumberTypes() {
+    assertEquals(0, WatermarkRefresher.compare(Long.valueOf(42), Integer.valueOf(42)));
+    assertTrue(WatermarkRefresher.compare(Integer.valueOf(41), Long.valueOf(42)) < 0);
+    assertTrue(WatermarkRefresher.compare(Double.valueOf(42.5), Long.valueOf(42)) > 0);
+  }
+
+  @Test
+  public void testCompareDates() {
+    Date date = new Date(1000L);
+    assertEquals(0, WatermarkRefresher.compare(new Timestamp(1000L), date));
+    assertTrue(WatermarkRefresher.compare(date, new Timestamp(2000L)) < 0);
+  }
+
+  @Test
+  public void testCompareNullsAndStrings() {
+    assertEquals(0, WatermarkRefresher.compare(null, null));
+    assertTrue(WatermarkRefresher.compare(null, Long.valueOf(1)) < 0);
+    assertTrue(WatermarkRefresher.compare("2013-01-02", "2013-01-01") > 0);
+  }
+
+  @Test
+  public void testWatermarkColumnIsChosenFromTheFactTable() {
+    SqlPhysicalModel physicalModel = new SqlPhysicalModel();
+    SqlPhysicalTable table = new SqlPhysicalTable(physicalModel);
+    physicalModel.getPhysicalTables().add(table);
+    for (String name : new String[] { "order_id", "loaded_at" }) { //$NON-NLS-1$ //$NON-NLS-2$
+      SqlPhysicalColumn column = new SqlPhysicalColumn(table);
+      column.setTargetColumn(name);
+      table.getPhysicalColumns().add(column);
+    }
+    Domain domain = new Domain();
+    domain.addPhysicalModel(physicalModel);
+    domain.addLogicalModel(new LogicalModel());
+    ModelerWorkspace workspace = mock(ModelerWorkspace.class);
+    when(workspace.getDomain()).thenReturn(domain);
+
+    assertEquals(Arrays.asList("order_id", "loaded_at"), WatermarkRefresher.getCandidateColumns(workspace)); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNull(WatermarkRefresher.getWatermarkColumn(workspace));
+    WatermarkRefresher.setWatermarkColumn(workspace, "loaded_at"); //$NON-NLS-1$
+    assertEquals("loaded_at", WatermarkRefresher.getWatermarkColumn(workspace)); //$NON-NLS-1$
+    WatermarkRefresher.setWatermarkColumn(workspace, null);
+    assertNull(WatermarkRefresher.getWatermarkColumn(workspace));
+  }
+}
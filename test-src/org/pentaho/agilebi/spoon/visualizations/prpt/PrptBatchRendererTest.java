@@ -0,0 +1,57 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PrptBatchRendererTest {
+
+  @Test
+  public void testOutputFormatFromString() {
+    assertEquals(PrptOutputFormat.PDF, PrptOutputFormat.fromString("pdf"));
+    assertEquals(PrptOutputFormat.XLSX, PrptOutputFormat.fromString(" XLSX "));
+    assertEquals(PrptOutputFormat.CSV, PrptOutputFormat.fromString("Csv"));
+    assertNull(PrptOutputFormat.fromString("html"));
+    assertNull(PrptOutputFormat.fromString(null));
+  }
+
+  @Test
+  public void testRenderAllKeepsOrderAndReportsFailures() throws Exception {
+    File outputDir = new File("bin/test-batch-render");
+    PrptBatchRenderer renderer = new PrptBatchRenderer(2);
+    List<File> reports = Arrays.asList(new File("test-res/test.prpt"), new File("test-res/missing.prpt"));
+
+    List<PrptRenderResult> results = renderer.renderAll(reports, outputDir, PrptOutputFormat.CSV);
+
+    assertEquals(2, results.size());
+    assertTrue(results.get(0).isSuccess());
+    assertEquals(new File(outputDir, "test.csv"), results.get(0).getOutput());
+    assertTrue(results.get(0).getOutput().length() > 0);
+    assertFalse(results.get(1).isSuccess());
+    assertFalse(results.get(1).getOutput().exists());
+  }
+}
@@ -0,0 +1,40 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.visualizations.prpt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class PrptStreamingExporterTest {
+
+  @Test
+  public void testCsvQuoting() throws Exception {
+    StringWriter writer = new StringWriter();
+    PrptStreamingExporter.writeCsvLine(writer, new String[] { "plain", "a,b", "say \"hi\"", "" });
+    assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\r\n", writer.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPdfIsRejected() throws Exception {
+    new PrptStreamingExporter(null).export(new ByteArrayOutputStream(), PrptOutputFormat.PDF, null);
+  }
+}
@@ -0,0 +1,51 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+
+public class MqlQueryCacheTest {
+
+  @Test
+  public void testNormalizeIgnoresFormatting() {
+    String compact = "<mql><domain_id>default</domain_id><selections/></mql>";
+    String pretty = "\n<mql>\n  <domain_id>default</domain_id>\n  <selections/>\n</mql>\n";
+    assertEquals(compact, MqlQueryCache.normalize(pretty));
+    assertEquals(MqlQueryCache.createKey("default", null, compact), MqlQueryCache.createKey("default", null, pretty));
+  }
+
+  @Test
+  public void testKeyChangesWithDomainFile() throws Exception {
+    File xmi = File.createTempFile("MqlQueryCacheTest", ".xmi");
+    xmi.deleteOnExit();
+    String before = MqlQueryCache.createKey("default", xmi.getPath(), "<mql/>");
+
+    FileWriter writer = new FileWriter(xmi);
+    writer.write("<xmi/>");
+    writer.close();
+
+    assertFalse(before.equals(MqlQueryCache.createKey("default", xmi.getPath(), "<mql/>")));
+    assertFalse(before.equals(MqlQueryCache.createKey("other", xmi.getPath(), "<mql/>")));
+  }
+}
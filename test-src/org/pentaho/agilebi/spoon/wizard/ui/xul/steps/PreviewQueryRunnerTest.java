@@ -0,0 +1,74 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.spoon.wizard.ui.xul.steps;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PreviewQueryRunnerTest {
+
+  /**
+   * A two column result set over <code>rows</code> rows: the row index and "row" + index.
+   */
+  private ResultSet createResultSet(final int rows) throws Exception {
+    final int[] cursor = new int[] { -1 };
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenAnswer(new Answer<Boolean>() {
+      public Boolean answer(InvocationOnMock invocation) {
+        cursor[0]++;
+        return cursor[0] < rows;
+      }
+    });
+    when(rs.getObject(anyInt())).thenAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        int column = (Integer) invocation.getArguments()[0];
+        return column == 1 ? (Object) cursor[0] : "row" + cursor[0];
+      }
+    });
+    return rs;
+  }
+
+  @Test
+  public void testReadPageOnlyReturnsRequestedRows() throws Exception {
+    String[][] page = PreviewQueryRunner.readPage(createResultSet(25), 2, 10, 10);
+    assertEquals(10, page.length);
+    assertEquals("10", page[0][0]);
+    assertEquals("row19", page[9][1]);
+  }
+
+  @Test
+  public void testReadPageTruncatesLastPage() throws Exception {
+    String[][] page = PreviewQueryRunner.readPage(createResultSet(25), 2, 20, 10);
+    assertEquals(5, page.length);
+    assertEquals("24", page[4][0]);
+  }
+
+  @Test
+  public void testReadPageWithoutLimit() throws Exception {
+    assertEquals(25, PreviewQueryRunner.readPage(createResultSet(25), 2, 0, 0).length);
+    assertEquals(0, PreviewQueryRunner.readPage(createResultSet(5), 2, 10, 10).length);
+  }
+}
@@ -18,6 +18,7 @@
 package org.pentaho.agilebi.test;
 
 import java.io.File;
+import java.io.IOException;
 
 import junit.framework.Assert;
 
@@ -55,8 +56,34 @@ public class VisualizationApiTest {
   }
   
   @Test
-  public void testVizApi() {
-    VisualizationManager mgr = new VisualizationManager("package-res/visualizations");
-    Assert.assertEquals(2, mgr.getVisualizations().size());
+  public void testVizApi() throws Exception {
+    File indexDir = createIndexDirectory();
+    try {
+      VisualizationManager mgr = new VisualizationManager("package-res/visualizations", indexDir);
+      Assert.assertEquals(2, mgr.getVisualizations().size());
+
+      // the second start is served from the index
+      mgr = new VisualizationManager("package-res/visualizations", indexDir);
+      Assert.assertEquals(2, mgr.getVisualizations().size());
+    } finally {
+      deleteIndexDirectory(indexDir);
+    }
+  }
+
+  static File createIndexDirectory() throws IOException {
+    File indexDir = File.createTempFile("visualizations", "");
+    indexDir.delete();
+    indexDir.mkdir();
+    return indexDir;
+  }
+
+  static void deleteIndexDirectory(File indexDir) {
+    File[] files = indexDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    indexDir.delete();
   }
 }
@@ -17,6 +17,8 @@
 
 package org.pentaho.agilebi.test;
 
+import java.io.File;
+
 import junit.framework.Assert;
 
 import org.junit.Before;
@@ -47,9 +49,14 @@ public class WorkspaceModelTest {
   
 
   @Test
-  public void testVizApi() {
-    VisualizationManager mgr = new VisualizationManager("package-res/visualizations");
-    Assert.assertEquals(2, mgr.getVisualizations().size());
+  public void testVizApi() throws Exception {
+    File indexDir = VisualizationApiTest.createIndexDirectory();
+    try {
+      VisualizationManager mgr = new VisualizationManager("package-res/visualizations", indexDir);
+      Assert.assertEquals(2, mgr.getVisualizations().size());
+    } finally {
+      VisualizationApiTest.deleteIndexDirectory(indexDir);
+    }
   }
   
   
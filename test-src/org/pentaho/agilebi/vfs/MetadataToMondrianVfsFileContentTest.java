@@ -0,0 +1,47 @@
+/*!
+* This program is free software; you can redistribute it and/or modify it under the
+* terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+* Foundation.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+* or from the Free Software Foundation, Inc.,
+* 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package org.pentaho.agilebi.vfs;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.concept.types.LocaleType;
+import org.pentaho.metadata.model.concept.types.LocalizedString;
+
+public class MetadataToMondrianVfsFileContentTest {
+
+  private static LogicalModel createModel(String name) {
+    LogicalModel model = new LogicalModel();
+    model.setName(new LocalizedString("de_DE", name));
+    return model;
+  }
+
+  @Test
+  public void testSchemaNameOfDualModeDomain() {
+    Domain domain = new Domain();
+    domain.addLocale(new LocaleType("de_DE", "Deutsch"));
+    domain.addLogicalModel(createModel("Sales Relational"));
+    assertEquals("Sales Relational", MetadataToMondrianVfsFileContent.getSchemaName(domain));
+
+    // the OLAP model of a dual mode domain is the one exported to Mondrian
+    domain.addLogicalModel(createModel("Sales"));
+    assertEquals("Sales", MetadataToMondrianVfsFileContent.getSchemaName(domain));
+  }
+}